@@ -0,0 +1,116 @@
+package censusanalyser;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+// Writes synthetic census files in the India and US schemas so the benchmarks can run at any row count.
+public class CensusDataGenerator {
+    private static final String DATA_DIR_PROPERTY = "censusanalyser.benchmark.dataDir";
+    private static final long SEED = 20191101L;
+
+    private final Path dataDir;
+
+    public CensusDataGenerator() {
+        this(Paths.get(System.getProperty(DATA_DIR_PROPERTY, "build/jmh-data")));
+    }
+
+    public CensusDataGenerator(Path dataDir) {
+        this.dataDir = dataDir;
+    }
+
+    public static void main(String[] args) throws IOException {
+        CensusDataGenerator generator = new CensusDataGenerator();
+        for (String rows : args.length > 0 ? args : new String[]{"10000", "1000000", "10000000"}) {
+            System.out.println(generator.indiaCensusFile(Integer.parseInt(rows)));
+            System.out.println(generator.usCensusFile(Integer.parseInt(rows)));
+        }
+    }
+
+    public Path indiaCensusFile(int rows) throws IOException {
+        Path csvFile = dataDir.resolve("IndiaStateCensusData-" + rows + ".csv");
+        if(Files.exists(csvFile))
+            return csvFile;
+        Random random = new Random(SEED);
+        return write(csvFile, "State,Population,AreaInSqKm,DensityPerSqKm", rows, (writer, row) -> {
+            int population = 10_000 + random.nextInt(200_000_000);
+            int area = 100 + random.nextInt(400_000);
+            writer.append(stateName(row)).append(',')
+                    .append(Integer.toString(population)).append(',')
+                    .append(Integer.toString(area)).append(',')
+                    .append(Integer.toString(population / area));
+        });
+    }
+
+    public Path indiaStateCodeFile(int rows) throws IOException {
+        Path csvFile = dataDir.resolve("IndiaStateCode-" + rows + ".csv");
+        if(Files.exists(csvFile))
+            return csvFile;
+        return write(csvFile, "SrNo,StateName,TIN,StateCode", rows, (writer, row) ->
+                writer.append(Integer.toString(row + 1)).append(',')
+                        .append(stateName(row)).append(',')
+                        .append(Integer.toString(row % 100)).append(',')
+                        .append(stateCode(row)));
+    }
+
+    public Path usCensusFile(int rows) throws IOException {
+        Path csvFile = dataDir.resolve("USCensusData-" + rows + ".csv");
+        if(Files.exists(csvFile))
+            return csvFile;
+        Random random = new Random(SEED + 1);
+        return write(csvFile, "State Id,State,Population,Housing units,Total area,Water area,Land area,"
+                + "Population Density,Housing Density", rows, (writer, row) -> {
+            int population = 10_000 + random.nextInt(40_000_000);
+            double landArea = 100 + random.nextInt(1_500_000_00) / 100.0;
+            double waterArea = random.nextInt(250_000_00) / 100.0;
+            int housingUnits = population / 2;
+            writer.append(stateCode(row)).append(',')
+                    .append(stateName(row)).append(',')
+                    .append(Integer.toString(population)).append(',')
+                    .append(Integer.toString(housingUnits)).append(',')
+                    .append(Double.toString(round(landArea + waterArea))).append(',')
+                    .append(Double.toString(waterArea)).append(',')
+                    .append(Double.toString(landArea)).append(',')
+                    .append(Double.toString(round(population / landArea))).append(',')
+                    .append(Double.toString(round(housingUnits / landArea)));
+        });
+    }
+
+    private static String stateName(int row) {
+        return "State " + row;
+    }
+
+    private static String stateCode(int row) {
+        StringBuilder stateCode = new StringBuilder();
+        do {
+            stateCode.append((char) ('A' + row % 26));
+            row /= 26;
+        } while (row > 0);
+        return stateCode.toString();
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 100) / 100.0;
+    }
+
+    private Path write(Path csvFile, String header, int rows, RowWriter rowWriter) throws IOException {
+        Files.createDirectories(dataDir);
+        Path partialFile = csvFile.resolveSibling(csvFile.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(partialFile, StandardCharsets.UTF_8)) {
+            writer.append(header).append('\n');
+            for (int row = 0; row < rows; row++) {
+                rowWriter.write(writer, row);
+                writer.append('\n');
+            }
+        }
+        return Files.move(partialFile, csvFile);
+    }
+
+    private interface RowWriter {
+        void write(BufferedWriter writer, int row) throws IOException;
+    }
+}
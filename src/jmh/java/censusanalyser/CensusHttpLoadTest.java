@@ -0,0 +1,108 @@
+package censusanalyser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+// Closed-loop load test of CensusHttpServer: loads a synthetic US census file once, starts the server on a free
+// loopback port and has each client thread send requests back to back over its own keep-alive connection,
+// cycling through the query paths. Prints requests per second and client-side latency percentiles, followed by the
+// server's own per-endpoint numbers, e.g.
+//
+//   gradle httpLoadTest -PloadTestArgs="16 10 100000 /census/top?field=POPULATION&k=10"
+//
+// Arguments: clients (16), seconds (10), rows (10000), then the query paths to use (a mix of indexed queries).
+public class CensusHttpLoadTest {
+    private static final int WARMUP_SECONDS = 3;
+    private static final String[] DEFAULT_PATHS = {
+            "/census/top?field=POPULATION&k=10",
+            "/census/range?field=POPULATION_DENSITY&min=100&max=110",
+            "/census/prefix?field=STATE_NAME&prefix=State%2012",
+            "/census/page?field=AREA&offset=500&limit=20"};
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int rows = args.length > 2 ? Integer.parseInt(args[2]) : 10_000;
+        String[] paths = args.length > 3 ? Arrays.copyOfRange(args, 3, args.length) : DEFAULT_PATHS;
+
+        CensusAnalyser censusAnalyser = new CensusAnalyser(CensusAnalyser.Country.US);
+        censusAnalyser.loadCensusData(CensusAnalyser.Country.US, new CensusDataGenerator().usCensusFile(rows).toString());
+        censusAnalyser.buildIndexes();
+        try (CensusHttpServer server = new CensusHttpServer(censusAnalyser)) {
+            server.start(0);
+            String baseUrl = "http://localhost:" + server.getPort();
+            run(baseUrl, paths, clients, WARMUP_SECONDS);
+            server.resetStats();
+            Result result = run(baseUrl, paths, clients, seconds);
+
+            System.out.printf("%d clients, %d rows, %ds: %.0f requests/s, %d errors%n", clients, rows, seconds,
+                    result.requests / (double) seconds, result.errors);
+            System.out.printf("client latency p50=%.1fus p99=%.1fus p99.9=%.1fus max=%.1fus%n",
+                    result.latency.getPercentileNanos(50) / 1e3, result.latency.getPercentileNanos(99) / 1e3,
+                    result.latency.getPercentileNanos(99.9) / 1e3, result.latency.getMaxNanos() / 1e3);
+            for (Map.Entry<CensusHttpServer.Endpoint, CensusHttpServer.EndpointStats> entry : server.getStats().entrySet()) {
+                CensusHttpServer.EndpointStats stats = entry.getValue();
+                if(stats.count > 0)
+                    System.out.printf("server %-10s count=%d p50=%.1fus p99=%.1fus max=%.1fus%n", entry.getKey(),
+                            stats.count, stats.p50Micros, stats.p99Micros, stats.maxMicros);
+            }
+        }
+    }
+
+    private static Result run(String baseUrl, String[] paths, int clients, int seconds) throws InterruptedException {
+        Result result = new Result();
+        LongAdder requests = new LongAdder();
+        LongAdder errors = new LongAdder();
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        List<Thread> threads = new ArrayList<>();
+        for (int client = 0; client < clients; client++) {
+            int firstPath = client;
+            Thread thread = new Thread(() -> {
+                byte[] buffer = new byte[16 << 10];
+                for (int request = firstPath; System.nanoTime() < deadline; request++) {
+                    long start = System.nanoTime();
+                    try {
+                        if(get(baseUrl + paths[request % paths.length], buffer) != 200)
+                            errors.increment();
+                    } catch (IOException e) {
+                        errors.increment();
+                    }
+                    result.latency.record(System.nanoTime() - start);
+                    requests.increment();
+                }
+            }, "census-load-client-" + client);
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+        result.requests = requests.sum();
+        result.errors = errors.sum();
+        return result;
+    }
+
+    // Reads the body to the end and closes it, which hands the connection back for reuse by the next request.
+    private static int get(String url, byte[] buffer) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        int status = connection.getResponseCode();
+        try (InputStream body = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+            if(body != null)
+                while (body.read(buffer) > 0) {
+                }
+        }
+        return status;
+    }
+
+    private static class Result {
+        final LatencyHistogram latency = new LatencyHistogram();
+        long requests;
+        long errors;
+    }
+}
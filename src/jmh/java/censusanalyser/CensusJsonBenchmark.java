@@ -0,0 +1,83 @@
+package censusanalyser;
+
+import com.google.gson.Gson;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CensusJsonBenchmark {
+    @Param({"10000", "1000000", "10000000"})
+    public int rows;
+
+    private CensusAnalyser censusAnalyser;
+    private CensusTable censusTable;
+    private int[] sortOrder;
+
+    @Setup
+    public void loadCensusData() throws Exception {
+        CensusDataGenerator generator = new CensusDataGenerator();
+        censusAnalyser = new CensusAnalyser(CensusAnalyser.Country.US);
+        censusAnalyser.loadCensusData(CensusAnalyser.Country.US, generator.usCensusFile(rows).toString());
+        censusTable = censusAnalyser.getCensusTable();
+        sortOrder = censusTable.sortOrder(CensusAnalyser.SortField.POPULATION);
+    }
+
+    // The original path: one DTO per row, then a new Gson building the whole document as a String.
+    @Benchmark
+    public String gsonToJson() {
+        List<Object> censusDTOs = new ArrayList<>(sortOrder.length);
+        for (int row : sortOrder)
+            censusDTOs.add(censusTable.getCensusDAO(row).getCensusDTO(CensusAnalyser.Country.US));
+        return new Gson().toJson(censusDTOs);
+    }
+
+    @Benchmark
+    public String jsonString() throws CensusAnalyserException {
+        return censusAnalyser.getSortedCensusDataAccordingToPopulation(CensusAnalyser.Country.US);
+    }
+
+    @Benchmark
+    public long streamJson() throws CensusAnalyserException, IOException {
+        CountingWriter writer = new CountingWriter();
+        censusAnalyser.writeSortedCensusData(CensusAnalyser.SortField.POPULATION, CensusAnalyser.Country.US, writer);
+        return writer.count;
+    }
+
+    private static class CountingWriter extends Writer {
+        private long count;
+
+        public void write(char[] buffer, int offset, int length) {
+            count += length;
+        }
+
+        public void write(String value, int offset, int length) {
+            count += length;
+        }
+
+        public void flush() {
+        }
+
+        public void close() {
+        }
+    }
+}
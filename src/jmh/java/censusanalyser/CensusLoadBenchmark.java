@@ -0,0 +1,73 @@
+package censusanalyser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CensusLoadBenchmark {
+    @Param({"10000", "1000000", "10000000"})
+    public int rows;
+
+    // Parallel loads always use the fast tokenizer, so a parallel OpenCSV run would only repeat FAST_CSV_PARALLEL.
+    public enum Loader {
+        OPEN_CSV_SERIAL(CSVBuilderFactory.BuilderType.OPEN_CSV, CensusAdapter.LoadMode.SERIAL),
+        FAST_CSV_SERIAL(CSVBuilderFactory.BuilderType.FAST_CSV, CensusAdapter.LoadMode.SERIAL),
+        FAST_CSV_PARALLEL(CSVBuilderFactory.BuilderType.FAST_CSV, CensusAdapter.LoadMode.PARALLEL);
+
+        final CSVBuilderFactory.BuilderType builderType;
+        final CensusAdapter.LoadMode loadMode;
+
+        Loader(CSVBuilderFactory.BuilderType builderType, CensusAdapter.LoadMode loadMode) {
+            this.builderType = builderType;
+            this.loadMode = loadMode;
+        }
+    }
+
+    @Param({"OPEN_CSV_SERIAL", "FAST_CSV_SERIAL", "FAST_CSV_PARALLEL"})
+    public Loader loader;
+
+    private String indiaCensusFile;
+    private String indiaStateCodeFile;
+    private String usCensusFile;
+
+    @Setup
+    public void setUp() throws IOException {
+        System.setProperty("censusanalyser.csv.builder", loader.builderType.name());
+        CensusDataGenerator generator = new CensusDataGenerator();
+        indiaCensusFile = generator.indiaCensusFile(rows).toString();
+        indiaStateCodeFile = generator.indiaStateCodeFile(rows).toString();
+        usCensusFile = generator.usCensusFile(rows).toString();
+    }
+
+    @Benchmark
+    public Map<String, CensusDAO> loadIndiaCensusData() throws CensusAnalyserException {
+        IndiaCensusAdapter censusAdapter = new IndiaCensusAdapter();
+        censusAdapter.setLoadMode(loader.loadMode);
+        return censusAdapter.loadCensusData(indiaCensusFile, indiaStateCodeFile);
+    }
+
+    @Benchmark
+    public Map<String, CensusDAO> loadUSCensusData() throws CensusAnalyserException {
+        USCensusAdapter censusAdapter = new USCensusAdapter();
+        censusAdapter.setLoadMode(loader.loadMode);
+        return censusAdapter.loadCensusData(usCensusFile);
+    }
+}
@@ -0,0 +1,102 @@
+package censusanalyser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CensusSortBenchmark {
+    @Param({"10000", "1000000", "10000000"})
+    public int rows;
+
+    @Param({"STATE_NAME", "STATE_CODE", "POPULATION", "POPULATION_DENSITY", "AREA"})
+    public CensusAnalyser.SortField sortField;
+
+    private CensusAnalyser censusAnalyser;
+    private Map<String, CensusDAO> censusStateMap;
+    private CensusTable unsortedTable;  // never asked for a sort order, so its cache stays empty
+
+    @Setup
+    public void loadCensusData() throws Exception {
+        CensusDataGenerator generator = new CensusDataGenerator();
+        censusAnalyser = new CensusAnalyser(CensusAnalyser.Country.US);
+        censusAnalyser.loadCensusData(CensusAnalyser.Country.US, generator.usCensusFile(rows).toString());
+        censusStateMap = new USCensusAdapter().loadCensusData(USCensusCSV.class, generator.usCensusFile(rows).toString());
+        unsortedTable = CensusTable.from(censusStateMap);
+    }
+
+
+    // Query through the public API; after the first call the sort permutation is cached.
+    @Benchmark
+    public String getSortedCensusData() throws CensusAnalyserException {
+        switch (sortField) {
+            case STATE_NAME:
+                return censusAnalyser.getSortedCensusDataAccordingToStateName(CensusAnalyser.Country.US);
+            case STATE_CODE:
+                return censusAnalyser.getSortedCensusDataAccordingToStateCode(CensusAnalyser.Country.US);
+            case POPULATION:
+                return censusAnalyser.getSortedCensusDataAccordingToPopulation(CensusAnalyser.Country.US);
+            case POPULATION_DENSITY:
+                return censusAnalyser.getSortedCensusDataAccordingToPopulationDensity(CensusAnalyser.Country.US);
+            default:
+                return censusAnalyser.getSortedCensusDataAccordingToArea(CensusAnalyser.Country.US);
+        }
+    }
+
+    // Cost of building the permutation on a table that has none cached: key extraction plus the sort, the same
+    // work sortOrder does on first use. Sorting the keys directly keeps the table reusable across invocations,
+    // so no per-invocation setup (and none of its allocation) ends up in the measurement.
+    @Benchmark
+    public int[] buildSortOrder() {
+        return IndexSort.sortByKey(unsortedTable.sortKeys(sortField));
+    }
+
+    // Baseline: the boxing comparator sort over row objects that the index sorts replaced.
+    @Benchmark
+    public List<CensusDAO> comparatorSort() {
+        List<CensusDAO> censusDAOs = new ArrayList<>(censusStateMap.values());
+        switch (sortField) {
+            case STATE_NAME:
+                censusDAOs.sort(Comparator.comparing(censusDAO -> censusDAO.state));
+                break;
+            case STATE_CODE:
+                censusDAOs.sort(Comparator.comparing(censusDAO -> censusDAO.stateCode,
+                        Comparator.nullsLast(Comparator.naturalOrder())));
+                break;
+            case POPULATION:
+                censusDAOs.sort(Comparator.comparing((CensusDAO censusDAO) -> censusDAO.population).reversed());
+                break;
+            case POPULATION_DENSITY:
+                censusDAOs.sort(Comparator.comparing((CensusDAO censusDAO) -> censusDAO.populationDensity).reversed());
+                break;
+            default:
+                censusDAOs.sort(Comparator.comparing((CensusDAO censusDAO) -> censusDAO.totalArea).reversed());
+        }
+        return censusDAOs;
+    }
+
+    // The merge sort that sorted every permutation before the radix sort, on the same keys.
+    @Benchmark
+    public int[] mergeSortOrder() {
+        return IndexSort.mergeSortByKey(unsortedTable.sortKeys(sortField));
+    }
+}
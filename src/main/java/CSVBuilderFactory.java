@@ -2,8 +2,27 @@ package censusanalyser;
 
 import censusanalyser.OpenCSVBuilder;
 
+import java.util.Locale;
+
 public class CSVBuilderFactory {
+    public enum BuilderType {OPEN_CSV, FAST_CSV}
+
+    private static final String BUILDER_TYPE_PROPERTY = "censusanalyser.csv.builder";
+
     public static ICSVBuilder createCSVBuilder() {
-        return new OpenCSVBuilder<>();
+        return createCSVBuilder(getDefaultBuilderType());
+    }
+
+    public static ICSVBuilder createCSVBuilder(BuilderType builderType) {
+        if(builderType.equals(BuilderType.OPEN_CSV))
+            return new OpenCSVBuilder<>();
+        return new FastCSVBuilder<>();
+    }
+
+    public static BuilderType getDefaultBuilderType() {
+        String builderType = System.getProperty(BUILDER_TYPE_PROPERTY);
+        if(builderType == null)
+            return BuilderType.OPEN_CSV;
+        return BuilderType.valueOf(builderType.trim().toUpperCase(Locale.ROOT));
     }
 }
@@ -0,0 +1,162 @@
+package censusanalyser;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Multi-member gzip in which every member is at most 64KB and records its own compressed size in a 'BC' extra
+// field, as in BGZF. Any gzip reader can read such a file; knowing where each member ends lets the members
+// be inflated in parallel.
+public class BlockedGzip {
+    static final int BLOCK_DATA_SIZE = 60 << 10;
+    private static final int HEADER_SIZE = 18;
+    private static final int TRAILER_SIZE = 8;
+    private static final int MAX_BLOCK_SIZE = 1 << 16;
+
+    private BlockedGzip() {
+    }
+
+    public static void compress(Path source, Path target) throws IOException {
+        try (InputStream input = Files.newInputStream(source);
+             OutputStream output = Files.newOutputStream(target)) {
+            Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            byte[] data = new byte[BLOCK_DATA_SIZE];
+            byte[] block = new byte[MAX_BLOCK_SIZE];
+            try {
+                int length;
+                while ((length = readFully(input, data)) > 0)
+                    output.write(block, 0, writeBlock(deflater, data, length, block));
+                // an empty last member marks a complete file, as BGZF does
+                output.write(block, 0, writeBlock(deflater, data, 0, block));
+            } finally {
+                deflater.end();
+            }
+        }
+    }
+
+    // True when the stream starts with a member that carries its block size.
+    static boolean isBlocked(byte[] head) {
+        if(head.length < HEADER_SIZE || (head[0] & 0xff) != 0x1f || (head[1] & 0xff) != 0x8b || (head[3] & 4) == 0)
+            return false;
+        return subfieldOffset(head, 12, (head[10] & 0xff) | (head[11] & 0xff) << 8) >= 0;
+    }
+
+    // Reads the next member's compressed bytes, header to trailer, or returns null at the end of the stream.
+    static byte[] readBlock(DataInputStream input) throws IOException {
+        byte[] header = new byte[12];
+        int read = readFully(input, header);
+        if(read == 0)
+            return null;
+        if(read < header.length || (header[0] & 0xff) != 0x1f || (header[1] & 0xff) != 0x8b || (header[3] & 4) == 0)
+            throw new IOException("Not a blocked gzip member");
+        int extraLength = (header[10] & 0xff) | (header[11] & 0xff) << 8;
+        byte[] extra = new byte[extraLength];
+        input.readFully(extra);
+        int offset = subfieldOffset(extra, 0, extraLength);
+        if(offset < 0)
+            throw new IOException("Gzip member has no block size");
+        int blockSize = ((extra[offset] & 0xff) | (extra[offset + 1] & 0xff) << 8) + 1;
+        if(blockSize < header.length + extraLength + TRAILER_SIZE)
+            throw new IOException("Corrupt gzip block size " + blockSize);
+        byte[] block = new byte[blockSize];
+        System.arraycopy(header, 0, block, 0, header.length);
+        System.arraycopy(extra, 0, block, header.length, extraLength);
+        input.readFully(block, header.length + extraLength, blockSize - header.length - extraLength);
+        return block;
+    }
+
+    // True for the empty member that compress writes last. A file that does not end with one was cut short.
+    static boolean isEndOfFileBlock(byte[] block) {
+        return readInt(block, block.length - 4) == 0;
+    }
+
+    static byte[] inflateBlock(byte[] block) throws IOException {
+        int extraLength = (block[10] & 0xff) | (block[11] & 0xff) << 8;
+        int dataStart = 12 + extraLength;
+        int trailer = block.length - TRAILER_SIZE;
+        int expectedCrc = readInt(block, trailer);
+        int dataSize = readInt(block, trailer + 4);
+        if(dataSize < 0 || dataSize > MAX_BLOCK_SIZE)
+            throw new IOException("Corrupt gzip block data size " + dataSize);
+        byte[] data = new byte[dataSize];
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(block, dataStart, trailer - dataStart);
+            int length = 0;
+            while (length < data.length && !inflater.finished()) {
+                int inflated = inflater.inflate(data, length, data.length - length);
+                if(inflated == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                    throw new EOFException("Truncated gzip block");
+                length += inflated;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt gzip block: " + e.getMessage(), e);
+        } finally {
+            inflater.end();
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length);
+        if((int) crc.getValue() != expectedCrc)
+            throw new IOException("Gzip block CRC mismatch");
+        return data;
+    }
+
+    private static int writeBlock(Deflater deflater, byte[] data, int length, byte[] block) {
+        deflater.reset();
+        deflater.setInput(data, 0, length);
+        deflater.finish();
+        int compressed = 0;
+        while (!deflater.finished())
+            compressed += deflater.deflate(block, HEADER_SIZE + compressed,
+                    block.length - TRAILER_SIZE - HEADER_SIZE - compressed);
+        int blockSize = HEADER_SIZE + compressed + TRAILER_SIZE;
+        byte[] header = {0x1f, (byte) 0x8b, 8, 4, 0, 0, 0, 0, 0, (byte) 0xff, 6, 0, 'B', 'C', 2, 0,
+                (byte) (blockSize - 1), (byte) ((blockSize - 1) >>> 8)};
+        System.arraycopy(header, 0, block, 0, HEADER_SIZE);
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, length);
+        writeInt(block, HEADER_SIZE + compressed, (int) crc.getValue());
+        writeInt(block, HEADER_SIZE + compressed + 4, length);
+        return blockSize;
+    }
+
+    private static int subfieldOffset(byte[] extra, int start, int extraLength) {
+        int position = start;
+        int end = Math.min(extra.length, start + extraLength);
+        while (position + 4 <= end) {
+            int length = (extra[position + 2] & 0xff) | (extra[position + 3] & 0xff) << 8;
+            if(extra[position] == 'B' && extra[position + 1] == 'C' && length == 2 && position + 6 <= end)
+                return position + 4;
+            position += 4 + length;
+        }
+        return -1;
+    }
+
+    private static int readFully(InputStream input, byte[] buffer) throws IOException {
+        int length = 0;
+        int read;
+        while (length < buffer.length && (read = input.read(buffer, length, buffer.length - length)) > 0)
+            length += read;
+        return length;
+    }
+
+    private static int readInt(byte[] buffer, int offset) {
+        return (buffer[offset] & 0xff) | (buffer[offset + 1] & 0xff) << 8 | (buffer[offset + 2] & 0xff) << 16
+                | (buffer[offset + 3] & 0xff) << 24;
+    }
+
+    private static void writeInt(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) value;
+        buffer[offset + 1] = (byte) (value >>> 8);
+        buffer[offset + 2] = (byte) (value >>> 16);
+        buffer[offset + 3] = (byte) (value >>> 24);
+    }
+}
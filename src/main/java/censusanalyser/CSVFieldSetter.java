@@ -0,0 +1,5 @@
+package censusanalyser;
+
+public interface CSVFieldSetter<E> {
+    void set(E bean, CSVTokenizer row, int field);
+}
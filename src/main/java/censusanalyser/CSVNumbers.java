@@ -0,0 +1,102 @@
+package censusanalyser;
+
+public class CSVNumbers {
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private CSVNumbers() {
+    }
+
+    public static int parseInt(char[] buffer, int start, int end) {
+        while (start < end && buffer[start] <= ' ')
+            start++;
+        while (end > start && buffer[end - 1] <= ' ')
+            end--;
+        if(start == end)
+            throw new NumberFormatException("Empty numeric field");
+        boolean negative = false;
+        int i = start;
+        if(buffer[i] == '-' || buffer[i] == '+') {
+            negative = buffer[i] == '-';
+            i++;
+        }
+        if(i == end)
+            throw invalid(buffer, start, end);
+        long value = 0;
+        for (; i < end; i++) {
+            int digit = buffer[i] - '0';
+            if(digit < 0 || digit > 9)
+                throw invalid(buffer, start, end);
+            value = value * 10 + digit;
+            if(value > Integer.MAX_VALUE + 1L)
+                throw invalid(buffer, start, end);
+        }
+        value = negative ? -value : value;
+        if(value > Integer.MAX_VALUE)
+            throw invalid(buffer, start, end);
+        return (int) value;
+    }
+
+    // Exact for up to 15 significant digits and |exponent| <= 22, the common case for census data;
+    // anything else falls back to Double.parseDouble so results always match the JDK.
+    public static double parseDouble(char[] buffer, int start, int end) {
+        while (start < end && buffer[start] <= ' ')
+            start++;
+        while (end > start && buffer[end - 1] <= ' ')
+            end--;
+        if(start == end)
+            throw new NumberFormatException("Empty numeric field");
+        int i = start;
+        boolean negative = false;
+        if(buffer[i] == '-' || buffer[i] == '+') {
+            negative = buffer[i] == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean seenDigit = false;
+        boolean seenPoint = false;
+        for (; i < end; i++) {
+            char c = buffer[i];
+            if(c >= '0' && c <= '9') {
+                seenDigit = true;
+                if(mantissa == 0 && c == '0') {
+                    if(seenPoint)
+                        exponent--;
+                    continue;
+                }
+                if(digits >= 18)
+                    return slowParseDouble(buffer, start, end);
+                mantissa = mantissa * 10 + (c - '0');
+                digits++;
+                if(seenPoint)
+                    exponent--;
+            } else if(c == '.' && !seenPoint) {
+                seenPoint = true;
+            } else {
+                return slowParseDouble(buffer, start, end);
+            }
+        }
+        if(!seenDigit)
+            throw invalid(buffer, start, end);
+        double value;
+        if(mantissa == 0)
+            value = 0.0;
+        else if(digits <= 15 && exponent >= -22 && exponent <= 22)
+            value = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent];
+        else
+            return slowParseDouble(buffer, start, end);
+        return negative ? -value : value;
+    }
+
+    private static double slowParseDouble(char[] buffer, int start, int end) {
+        return Double.parseDouble(new String(buffer, start, end - start));
+    }
+
+    private static NumberFormatException invalid(char[] buffer, int start, int end) {
+        return new NumberFormatException("For input string: \"" + new String(buffer, start, end - start) + "\"");
+    }
+}
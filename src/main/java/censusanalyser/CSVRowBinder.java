@@ -0,0 +1,44 @@
+package censusanalyser;
+
+import java.util.function.Supplier;
+
+public class CSVRowBinder<E> {
+    private final Supplier<E> beanFactory;
+    private final CSVFieldSetter<E>[] columnSetters;
+    private final int[] requiredIndexes;
+    private final int columnCount;
+    private final int headerLength;
+
+    CSVRowBinder(Supplier<E> beanFactory, CSVFieldSetter<E>[] columnSetters, int[] requiredIndexes) {
+        this.beanFactory = beanFactory;
+        this.columnSetters = columnSetters;
+        this.requiredIndexes = requiredIndexes;
+        int lastColumn = 0;
+        for (int column = 0; column < columnSetters.length; column++)
+            if(columnSetters[column] != null)
+                lastColumn = column + 1;
+        this.columnCount = lastColumn;
+        this.headerLength = columnSetters.length;
+    }
+
+    // Fields a row needs for binding: everything up to the last column that has a setter.
+    public int getColumnCount() {
+        return columnCount;
+    }
+
+    public E bind(CSVTokenizer row) {
+        // like OpenCSV a short row is rejected even if only unbound columns are missing, unless the
+        // tokenizer stopped splitting it at the field limit
+        if(row.getFieldCount() < (row.isTruncated() ? columnCount : headerLength))
+            throw new IllegalArgumentException("Number of data fields does not match number of headers at line "
+                    + row.getLineNumber());
+        for (int field : requiredIndexes)
+            if(row.isEmpty(field))
+                throw new IllegalArgumentException("Required field is empty at line " + row.getLineNumber());
+        E bean = beanFactory.get();
+        for (int column = 0; column < columnCount; column++)
+            if(columnSetters[column] != null)
+                columnSetters[column].set(bean, row, column);
+        return bean;
+    }
+}
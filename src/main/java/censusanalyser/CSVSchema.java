@@ -0,0 +1,66 @@
+package censusanalyser;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Supplier;
+
+public class CSVSchema<E> {
+    private final Supplier<E> beanFactory;
+    private final Map<String, CSVFieldSetter<E>> setters = new LinkedHashMap<>();
+    private final List<String> requiredColumns = new ArrayList<>();
+
+    public CSVSchema(Supplier<E> beanFactory) {
+        this.beanFactory = beanFactory;
+    }
+
+    public CSVSchema<E> column(String name, boolean required, CSVFieldSetter<E> setter) {
+        setters.put(name.toUpperCase(Locale.ROOT), setter);
+        if(required)
+            requiredColumns.add(name);
+        return this;
+    }
+
+    // Copy that binds only the named columns. The others are neither converted nor required, and the tokenizer
+    // can stop splitting a row after the last bound column (see CSVTokenizer.setFieldLimit).
+    public CSVSchema<E> project(Collection<String> columns) {
+        CSVSchema<E> projection = new CSVSchema<>(beanFactory);
+        for (String column : columns) {
+            CSVFieldSetter<E> setter = setters.get(column.toUpperCase(Locale.ROOT));
+            if(setter != null)
+                projection.column(column, requiredColumns.stream().anyMatch(column::equalsIgnoreCase), setter);
+        }
+        return projection;
+    }
+
+    public CSVRowBinder<E> bind(String[] header) throws CSVBuilderException {
+        if(header == null)
+            throw new CSVBuilderException("Error capturing CSV header!",
+                    CSVBuilderException.ExceptionType.CENSUS_FILE_PROBLEM);
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        CSVFieldSetter<E>[] columnSetters = new CSVFieldSetter[header.length];
+        for (int column = 0; column < header.length; column++)
+            columnSetters[column] = setters.get(header[column].toUpperCase(Locale.ROOT));
+        List<String> missingColumns = new ArrayList<>();
+        int[] requiredIndexes = new int[requiredColumns.size()];
+        for (int i = 0; i < requiredColumns.size(); i++) {
+            requiredIndexes[i] = indexOf(header, requiredColumns.get(i));
+            if(requiredIndexes[i] < 0)
+                missingColumns.add(requiredColumns.get(i));
+        }
+        if(!missingColumns.isEmpty())
+            throw new CSVBuilderException("Header is missing required fields " + missingColumns,
+                    CSVBuilderException.ExceptionType.CENSUS_FILE_PROBLEM);
+        return new CSVRowBinder<>(beanFactory, columnSetters, requiredIndexes);
+    }
+
+    private static int indexOf(String[] header, String name) {
+        for (int column = 0; column < header.length; column++)
+            if(header[column].equalsIgnoreCase(name))
+                return column;
+        return -1;
+    }
+}
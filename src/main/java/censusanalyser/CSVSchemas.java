@@ -0,0 +1,41 @@
+package censusanalyser;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class CSVSchemas {
+    private static final Map<Class<?>, CSVSchema<?>> SCHEMAS = new HashMap<>();
+
+    static {
+        register(IndiaCensusCSV.class, new CSVSchema<>(IndiaCensusCSV::new)
+                .column("State", true, (bean, row, field) -> bean.state = row.getString(field))
+                .column("Population", true, (bean, row, field) -> bean.population = row.getInt(field))
+                .column("AreaInSqKm", true, (bean, row, field) -> bean.areaInSqKm = row.getInt(field))
+                .column("DensityPerSqKm", true, (bean, row, field) -> bean.densityPerSqKm = row.getInt(field)));
+        register(USCensusCSV.class, new CSVSchema<>(USCensusCSV::new)
+                .column("State Id", true, (bean, row, field) -> bean.stateId = row.getString(field))
+                .column("State", true, (bean, row, field) -> bean.state = row.getString(field))
+                .column("Population", true, (bean, row, field) -> bean.population = row.getInt(field))
+                .column("Total area", true, (bean, row, field) -> bean.totalArea = row.getDouble(field))
+                .column("Population Density", true, (bean, row, field) -> bean.populationDensity = row.getDouble(field)));
+        register(IndiaStateCodeCSV.class, new CSVSchema<>(IndiaStateCodeCSV::new)
+                .column("StateName", true, (bean, row, field) -> bean.state = row.getString(field))
+                .column("StateCode", true, (bean, row, field) -> bean.stateCode = row.getString(field)));
+    }
+
+    private CSVSchemas() {
+    }
+
+    public static <E> void register(Class<E> csvClass, CSVSchema<E> schema) {
+        synchronized (SCHEMAS) {
+            SCHEMAS.put(csvClass, schema);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <E> CSVSchema<E> forClass(Class<E> csvClass) {
+        synchronized (SCHEMAS) {
+            return (CSVSchema<E>) SCHEMAS.get(csvClass);
+        }
+    }
+}
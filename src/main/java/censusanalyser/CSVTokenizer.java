@@ -0,0 +1,345 @@
+package censusanalyser;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+public class CSVTokenizer {
+    private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    private static final int ROW = 0, END = 1, NEED_MORE = 2;
+
+    private final Reader reader;
+    private final char delimiter;
+    private char[] buffer;
+    private int position;
+    private int limit;
+    private boolean endOfInput;
+
+    private int[] fieldStarts = new int[16];
+    private int[] fieldEnds = new int[16];
+    private boolean[] fieldEscaped = new boolean[16];
+    private int fieldCount;
+    private int fieldLimit = Integer.MAX_VALUE;
+    private boolean rowTruncated;
+    private int rowStart;
+    private int rowEnd;
+    private long lineNumber;
+    private long rowLineNumber;
+    private int errorOffset = -1;
+
+    public CSVTokenizer(Reader reader) {
+        this(reader, ',');
+    }
+
+    public CSVTokenizer(Reader reader, char delimiter) {
+        this.reader = reader;
+        this.delimiter = delimiter;
+        this.buffer = new char[DEFAULT_BUFFER_SIZE];
+    }
+
+    // Tokenizes an already decoded block of text, e.g. one chunk of a memory-mapped file.
+    public CSVTokenizer(char[] data, int length, char delimiter) {
+        this.reader = null;
+        this.delimiter = delimiter;
+        this.buffer = data;
+        this.limit = length;
+        this.endOfInput = true;
+    }
+
+    public boolean nextRow() throws IOException {
+        while (true) {
+            int state = parseRow();
+            if(state == ROW) {
+                if(fieldCount == 1 && !rowTruncated && fieldStarts[0] == fieldEnds[0] && buffer[rowStart] != '"')
+                    continue;
+                return true;
+            }
+            if(state == END)
+                return false;
+            fill();
+        }
+    }
+
+    // Rows after this stop at fieldLimit fields: the rest of the row is only scanned for its end, so projected
+    // loads pay nothing for trailing columns they never bind. The header is always read whole.
+    // After nextRow has thrown on a malformed row, moves past that row: it is taken to end at the first line break
+    // after the error (after its first line if a quote is never closed). getRawRow and getLineNumber then describe
+    // it, and nextRow goes on with the row after it.
+    public void skipMalformedRow() throws IOException {
+        if(errorOffset < 0)
+            throw new IllegalStateException("No malformed row to skip");
+        while (true) {
+            int p = position + errorOffset;
+            while (p < limit && buffer[p] != '\n' && buffer[p] != '\r')
+                p++;
+            if(p >= limit || (buffer[p] == '\r' && p + 1 >= limit)) {
+                if(!endOfInput) {
+                    fill();
+                    continue;
+                }
+            }
+            int lines = 0;
+            for (int i = position; i < p; i++)
+                if(buffer[i] == '\n')
+                    lines++;
+            if(p < limit && buffer[p] == '\r' && p + 1 < limit && buffer[p + 1] == '\n')
+                p++;
+            errorOffset = -1;
+            fieldCount = 0;
+            endRow(Math.min(p + 1, limit), lines + 1);
+            return;
+        }
+    }
+
+    public void setFieldLimit(int fieldLimit) {
+        this.fieldLimit = fieldLimit > 0 ? fieldLimit : Integer.MAX_VALUE;
+    }
+
+    public String[] readHeader() throws IOException {
+        if(!nextRow())
+            return null;
+        String[] header = new String[fieldCount];
+        for (int field = 0; field < fieldCount; field++)
+            header[field] = getString(field).trim();
+        if(header.length > 0 && header[0].length() > 0 && header[0].charAt(0) == '\uFEFF')
+            header[0] = header[0].substring(1).trim();
+        return header;
+    }
+
+    public int getFieldCount() {
+        return fieldCount;
+    }
+
+    // True when the row had more fields than the field limit and was not split past it.
+    boolean isTruncated() {
+        return rowTruncated;
+    }
+
+    public long getLineNumber() {
+        return rowLineNumber;
+    }
+
+    public boolean isEmpty(int field) {
+        for (int i = fieldStarts[field]; i < fieldEnds[field]; i++)
+            if(!Character.isWhitespace(buffer[i]))
+                return false;
+        return true;
+    }
+
+    // True when the field, ignoring surrounding whitespace, is exactly value, e.g. a "-" placeholder.
+    public boolean isValue(int field, String value) {
+        int start = fieldStarts[field];
+        int end = fieldEnds[field];
+        while (start < end && buffer[start] <= ' ')
+            start++;
+        while (end > start && buffer[end - 1] <= ' ')
+            end--;
+        if(end - start != value.length())
+            return false;
+        for (int i = 0; i < value.length(); i++)
+            if(buffer[start + i] != value.charAt(i))
+                return false;
+        return true;
+    }
+
+    // Drops a trailing marker such as the '*' of a not-out score from the field, until the next row is read.
+    public void dropSuffix(int field, char suffix) {
+        int end = fieldEnds[field];
+        while (end > fieldStarts[field] && buffer[end - 1] <= ' ')
+            end--;
+        if(end > fieldStarts[field] && buffer[end - 1] == suffix)
+            fieldEnds[field] = end - 1;
+    }
+
+    public String getString(int field) {
+        int start = fieldStarts[field];
+        int end = fieldEnds[field];
+        if(!fieldEscaped[field])
+            return new String(buffer, start, end - start);
+        StringBuilder value = new StringBuilder(end - start);
+        for (int i = start; i < end; i++) {
+            value.append(buffer[i]);
+            if(buffer[i] == '"')
+                i++;
+        }
+        return value.toString();
+    }
+
+    public int getInt(int field) {
+        return CSVNumbers.parseInt(buffer, fieldStarts[field], fieldEnds[field]);
+    }
+
+    public double getDouble(int field) {
+        return CSVNumbers.parseDouble(buffer, fieldStarts[field], fieldEnds[field]);
+    }
+
+    public String getRawRow() {
+        int end = rowEnd;
+        while (end > rowStart && (buffer[end - 1] == '\n' || buffer[end - 1] == '\r'))
+            end--;
+        return new String(buffer, rowStart, end - rowStart);
+    }
+
+    private int parseRow() {
+        int p = position;
+        int lines = 0;
+        fieldCount = 0;
+        rowTruncated = false;
+        errorOffset = -1;
+        if(p >= limit)
+            return endOfInput ? END : NEED_MORE;
+        while (true) {
+            int fieldStart = p;
+            while (p < limit && buffer[p] == ' ')
+                p++;
+            if(p < limit && buffer[p] == '"') {
+                int start = ++p;
+                boolean escaped = false;
+                while (true) {
+                    if(p >= limit) {
+                        if(!endOfInput)
+                            return NEED_MORE;
+                        throw malformed(position, "Unterminated quoted field at line " + (lineNumber + 1));
+                    }
+                    char c = buffer[p];
+                    if(c == '"') {
+                        if(p + 1 >= limit && !endOfInput)
+                            return NEED_MORE;
+                        if(p + 1 < limit && buffer[p + 1] == '"') {
+                            escaped = true;
+                            p += 2;
+                            continue;
+                        }
+                        break;
+                    }
+                    if(c == '\n')
+                        lines++;
+                    p++;
+                }
+                addField(start, p, escaped);
+                p++;
+                while (p < limit && buffer[p] == ' ')
+                    p++;
+                if(p < limit && buffer[p] != delimiter && buffer[p] != '\n' && buffer[p] != '\r')
+                    throw malformed(p, "Unexpected text after a closing quote at line " + (lineNumber + lines + 1));
+            } else {
+                p = fieldStart;
+                char c;
+                while (p < limit && (c = buffer[p]) != delimiter && c != '\n' && c != '\r')
+                    p++;
+                addField(fieldStart, p, false);
+            }
+            if(p >= limit) {
+                if(!endOfInput)
+                    return NEED_MORE;
+                return endRow(p, lines + 1);
+            }
+            if(buffer[p] == delimiter) {
+                p++;
+                if(fieldCount == fieldLimit)
+                    return skipRow(p, lines);
+                continue;
+            }
+            if(buffer[p] == '\r') {
+                if(p + 1 >= limit && !endOfInput)
+                    return NEED_MORE;
+                if(p + 1 < limit && buffer[p + 1] == '\n')
+                    p++;
+            }
+            return endRow(p + 1, lines + 1);
+        }
+    }
+
+    // Finds the end of a row past the field limit. Quotes are followed the way parseRow reads them, so delimiters
+    // and line breaks inside quoted fields do not end the row.
+    private int skipRow(int p, int lines) {
+        boolean quoted = false;
+        boolean fieldStart = true;
+        boolean closed = false;
+        while (p < limit) {
+            char c = buffer[p];
+            if(quoted) {
+                if(c == '"') {
+                    if(p + 1 >= limit && !endOfInput)
+                        return NEED_MORE;
+                    if(p + 1 < limit && buffer[p + 1] == '"') {
+                        p++;
+                    } else {
+                        quoted = false;
+                        closed = true;
+                    }
+                } else if(c == '\n') {
+                    lines++;
+                }
+            } else if(c == delimiter) {
+                fieldStart = true;
+                closed = false;
+            } else if(c == '"' && fieldStart) {
+                quoted = true;
+            } else if(c == '\n' || c == '\r') {
+                if(c == '\r') {
+                    if(p + 1 >= limit && !endOfInput)
+                        return NEED_MORE;
+                    if(p + 1 < limit && buffer[p + 1] == '\n')
+                        p++;
+                }
+                rowTruncated = true;
+                return endRow(p + 1, lines + 1);
+            } else if(c != ' ') {
+                if(closed)
+                    throw malformed(p, "Unexpected text after a closing quote at line "
+                            + (lineNumber + lines + 1));
+                fieldStart = false;
+            }
+            p++;
+        }
+        if(!endOfInput)
+            return NEED_MORE;
+        if(quoted)
+            throw malformed(position, "Unterminated quoted field at line " + (lineNumber + 1));
+        rowTruncated = true;
+        return endRow(p, lines + 1);
+    }
+
+    // Remembers where the row went wrong, relative to its start since fill moves the buffer, for skipMalformedRow.
+    private IllegalArgumentException malformed(int at, String message) {
+        errorOffset = at - position;
+        return new IllegalArgumentException(message);
+    }
+
+    private int endRow(int next, int lines) {
+        rowStart = position;
+        rowEnd = next;
+        position = next;
+        rowLineNumber = lineNumber + 1;
+        lineNumber += lines;
+        return ROW;
+    }
+
+    private void addField(int start, int end, boolean escaped) {
+        if(fieldCount == fieldStarts.length) {
+            fieldStarts = Arrays.copyOf(fieldStarts, fieldCount * 2);
+            fieldEnds = Arrays.copyOf(fieldEnds, fieldCount * 2);
+            fieldEscaped = Arrays.copyOf(fieldEscaped, fieldCount * 2);
+        }
+        fieldStarts[fieldCount] = start;
+        fieldEnds[fieldCount] = end;
+        fieldEscaped[fieldCount] = escaped;
+        fieldCount++;
+    }
+
+    private void fill() throws IOException {
+        if(position > 0) {
+            System.arraycopy(buffer, position, buffer, 0, limit - position);
+            limit -= position;
+            position = 0;
+        } else if(limit == buffer.length) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        int read = reader == null ? -1 : reader.read(buffer, limit, buffer.length - limit);
+        if(read < 0)
+            endOfInput = true;
+        else
+            limit += read;
+    }
+}
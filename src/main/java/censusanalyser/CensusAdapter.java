@@ -1,43 +1,265 @@
 package censusanalyser;
 
+import com.opencsv.exceptions.CsvException;
+
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.stream.StreamSupport;
 
 
 public abstract class CensusAdapter {
+    public enum LoadMode {SERIAL, PARALLEL}
+
+    private LoadMode loadMode = LoadMode.SERIAL;
+    private QuarantinePolicy quarantinePolicy;
+    private CensusProjection projection = CensusProjection.all();
+    private LoadReport loadReport;
+
     public abstract Map<String, CensusDAO> loadCensusData(String... csvFilePath) throws CensusAnalyserException;
 
+    // Adapters that read more than one file can use the executor to read them at the same time.
+    public Map<String, CensusDAO> loadCensusData(Executor executor, String... csvFilePath) throws CensusAnalyserException {
+        return this.loadCensusData(csvFilePath);
+    }
+
+    public void setLoadMode(LoadMode loadMode) {
+        this.loadMode = loadMode;
+    }
+
+    // Null (the default) is strict: the first bad row fails the whole load.
+    public void setQuarantinePolicy(QuarantinePolicy quarantinePolicy) {
+        this.quarantinePolicy = quarantinePolicy;
+    }
+
+    // Columns to parse; the state column is always read. Anything less than all() loads through CSVTokenizer,
+    // which binds only the projected columns and stops splitting a row after the last of them.
+    public void setProjection(CensusProjection projection) {
+        this.projection = projection == null ? CensusProjection.all() : projection;
+    }
+
+    public CensusProjection getProjection() {
+        return projection;
+    }
+
+    protected boolean isProjected(CensusProjection.Column column) {
+        return projection.contains(column);
+    }
+
+    // Report of the last lenient load, also when it stopped on the error budget.
+    public LoadReport getLoadReport() {
+        return loadReport;
+    }
+
     public  <E> Map<String, CensusDAO> loadCensusData(Class<E> censusCSVClass, String csvFilePath) throws CensusAnalyserException {
+        return this.loadCensusData(censusCSVClass, csvFilePath, censusDAO -> {});
+    }
+
+    // rowEnricher runs on every row as soon as it is parsed (on the parsing thread), e.g. to join lookup tables.
+    public  <E> Map<String, CensusDAO> loadCensusData(Class<E> censusCSVClass, String csvFilePath,
+                                                      Consumer<CensusDAO> rowEnricher) throws CensusAnalyserException {
+        if(quarantinePolicy != null || !projection.isAll()) {
+            CSVSchema<E> csvSchema = CSVSchemas.forClass(censusCSVClass);
+            if(!projection.isAll())
+                csvSchema = csvSchema.project(projection.getHeaders(censusCSVClass));
+            return this.loadCensusData(csvSchema, ',', CensusAdapter::toCensusDAO, csvFilePath, rowEnricher);
+        }
+        // Chunks are cut from the file's bytes, so compressed files are parsed as one stream.
+        if(loadMode.equals(LoadMode.PARALLEL) && !isCompressed(csvFilePath))
+            return this.loadCensusDataInParallel(censusCSVClass, csvFilePath, rowEnricher);
         Map<String, CensusDAO> censusStateMap = new HashMap<>();
-        try ( Reader reader = Files.newBufferedReader(Paths.get(csvFilePath)))
+        LoadTimer timer = LoadTimer.start();
+        try ( Reader reader = timer.timeReads(CensusFileReader.open(Paths.get(csvFilePath))))
         {
-            ICSVBuilder csvBuilder = CSVBuilderFactory.createCSVBuilder();
-            Iterator<E> csvFileIterator = csvBuilder.getCSVFileIterator(reader, censusCSVClass);
+            ICSVBuilder<?> csvBuilder = CSVBuilderFactory.createCSVBuilder();
+            // the builders return beans of the class they are given
+            @SuppressWarnings("unchecked")
+            Iterator<E> parsedRows = (Iterator<E>) csvBuilder.getCSVFileIterator(reader, censusCSVClass);
+            Iterator<E> csvFileIterator = timer.timeParsing(parsedRows);
             Iterable<E> csvIterable = () -> csvFileIterator;
-            if(censusCSVClass.getName().equals("censusanalyser.IndiaCensusCSV")) {
-                StreamSupport.stream(csvIterable.spliterator(), false)
-                        .map(IndiaCensusCSV.class::cast)
-                        .forEach(censusCSV -> censusStateMap.put(censusCSV.state, new CensusDAO(censusCSV)));
-            } else if(censusCSVClass.getName().equals("censusanalyser.USCensusCSV")) {
-                StreamSupport.stream(csvIterable.spliterator(), false)
-                        .map(USCensusCSV.class::cast)
-                        .forEach(censusCSV -> censusStateMap.put(censusCSV.state, new CensusDAO(censusCSV)));
+            Consumer<CensusDAO> timedRowEnricher = timer.timeRows(CensusMetrics.Stage.STATE_CODE_JOIN, rowEnricher);
+            StreamSupport.stream(csvIterable.spliterator(), false)
+                    .map(timer.time(CensusMetrics.Stage.BUILD_DAO, (E censusCSV) -> toCensusDAO(censusCSV)))
+                    .peek(timedRowEnricher)
+                    .forEach(censusDAO -> censusStateMap.put(censusDAO.state, censusDAO));
+            timer.finishLoad(Paths.get(csvFilePath));
+            return censusStateMap;
+        } catch (IOException e) {
+            throw new CensusAnalyserException(e.getMessage(),
+                    CensusAnalyserException.ExceptionType.CENSUS_FILE_PROBLEM);
+        } catch (RuntimeException e) {
+            // a row that does not bind aborts the load
+            if(isBindingFailure(e))
+                timer.reject(1);
+            throw new CensusAnalyserException(e.getMessage(),CensusAnalyserException.ExceptionType.CENSUS_FILE_PROBLEM);
+        } catch (CSVBuilderException e) {
+            throw new CensusAnalyserException(e.getMessage(),e.type.name());
+        }
+    }
+
+    public <E> Map<String, CensusDAO> loadCensusDataInParallel(Class<E> censusCSVClass, String csvFilePath) throws CensusAnalyserException {
+        return this.loadCensusDataInParallel(censusCSVClass, csvFilePath, censusDAO -> {});
+    }
+
+    public <E> Map<String, CensusDAO> loadCensusDataInParallel(Class<E> censusCSVClass, String csvFilePath,
+                                                               Consumer<CensusDAO> rowEnricher) throws CensusAnalyserException {
+        // Chunks are read and parsed together on worker threads, so only the load total and the join are timed.
+        LoadTimer timer = LoadTimer.start();
+        Consumer<CensusDAO> timedRowEnricher = timer.timeRows(CensusMetrics.Stage.STATE_CODE_JOIN, rowEnricher);
+        try {
+            MappedCSVReader csvReader = new MappedCSVReader(Paths.get(csvFilePath));
+            List<Map<String, CensusDAO>> chunkStateMaps = csvReader.parse(censusCSVClass, HashMap::new,
+                    (chunkStateMap, censusCSV) -> {
+                        CensusDAO censusDAO = toCensusDAO(censusCSV);
+                        timedRowEnricher.accept(censusDAO);
+                        chunkStateMap.put(censusDAO.state, censusDAO);
+                    });
+            Map<String, CensusDAO> censusStateMap = new HashMap<>();
+            chunkStateMaps.forEach(censusStateMap::putAll);
+            timer.finishLoad(Paths.get(csvFilePath));
+            return censusStateMap;
+        } catch (IOException e) {
+            throw new CensusAnalyserException(e.getMessage(),
+                    CensusAnalyserException.ExceptionType.CENSUS_FILE_PROBLEM);
+        } catch (RuntimeException e) {
+            if(isBindingFailure(e))
+                timer.reject(1);
+            throw new CensusAnalyserException(e.getMessage(),CensusAnalyserException.ExceptionType.CENSUS_FILE_PROBLEM);
+        } catch (CSVBuilderException e) {
+            throw new CensusAnalyserException(e.getMessage(),e.type.name());
+        }
+    }
+
+    // Loads through a compiled CSVSchema with CSVTokenizer, whatever the builder, on the calling thread. Lenient
+    // loads come here since rows have to be skipped one at a time; a clean file never opens the quarantine file.
+    // Projected loads come here too, as only this path can skip columns.
+    protected <E> Map<String, CensusDAO> loadCensusData(CSVSchema<E> csvSchema, char delimiter,
+                                                        Function<? super E, CensusDAO> toCensusDAO, String csvFilePath,
+                                                        Consumer<CensusDAO> rowEnricher) throws CensusAnalyserException {
+        QuarantinePolicy quarantinePolicy = this.quarantinePolicy;
+        Map<String, CensusDAO> censusStateMap = new HashMap<>();
+        LoadTimer timer = LoadTimer.start();
+        Consumer<CensusDAO> timedRowEnricher = timer.timeRows(CensusMetrics.Stage.STATE_CODE_JOIN, rowEnricher);
+        long rowsLoaded = 0;
+        long rowsRejected = 0;
+        try (Reader reader = timer.timeReads(CensusFileReader.open(Paths.get(csvFilePath)));
+             QuarantineWriter quarantine = new QuarantineWriter(quarantinePolicy == null ? null
+                     : quarantinePolicy.quarantineFile)) {
+            CSVTokenizer tokenizer = new CSVTokenizer(reader, delimiter);
+            CSVRowBinder<E> binder = csvSchema.bind(tokenizer.readHeader());
+            if(!projection.isAll())
+                tokenizer.setFieldLimit(binder.getColumnCount());
+            while (true) {
+                CensusDAO censusDAO;
+                try {
+                    if(!nextRow(tokenizer, quarantinePolicy != null))
+                        break;
+                    censusDAO = toCensusDAO.apply(binder.bind(tokenizer));
+                } catch (IllegalArgumentException e) {
+                    if(quarantinePolicy == null)
+                        throw e;
+                    quarantine.write(tokenizer.getLineNumber(), e.getMessage(), tokenizer.getRawRow());
+                    if(++rowsRejected > quarantinePolicy.maxRejectedRows) {
+                        timer.reject(rowsRejected);
+                        loadReport = new LoadReport(rowsLoaded, rowsRejected, quarantinePolicy.quarantineFile, true);
+                        throw new CensusAnalyserException("More than " + quarantinePolicy.maxRejectedRows
+                                + " rejected rows, stopped at line " + tokenizer.getLineNumber(),
+                                CensusAnalyserException.ExceptionType.ERROR_BUDGET_EXCEEDED);
+                    }
+                    continue;
+                }
+                timedRowEnricher.accept(censusDAO);
+                censusStateMap.put(censusDAO.state, censusDAO);
+                rowsLoaded++;
             }
+            timer.reject(rowsRejected);
+            timer.finishLoad(Paths.get(csvFilePath));
+            if(quarantinePolicy != null)
+                loadReport = new LoadReport(rowsLoaded, rowsRejected,
+                        rowsRejected > 0 ? quarantinePolicy.quarantineFile : null, false);
             return censusStateMap;
         } catch (IOException e) {
             throw new CensusAnalyserException(e.getMessage(),
                     CensusAnalyserException.ExceptionType.CENSUS_FILE_PROBLEM);
         } catch (RuntimeException e) {
+            if(quarantinePolicy == null && isBindingFailure(e))
+                timer.reject(1);
             throw new CensusAnalyserException(e.getMessage(),CensusAnalyserException.ExceptionType.CENSUS_FILE_PROBLEM);
         } catch (CSVBuilderException e) {
             throw new CensusAnalyserException(e.getMessage(),e.type.name());
         }
     }
 
+    // A row the tokenizer cannot split is skipped before the error goes on, so that a lenient load can
+    // quarantine it like a row that failed to bind and carry on with the next one.
+    private static boolean nextRow(CSVTokenizer tokenizer, boolean lenient) throws IOException {
+        try {
+            return tokenizer.nextRow();
+        } catch (IllegalArgumentException e) {
+            if(lenient)
+                tokenizer.skipMalformedRow();
+            throw e;
+        }
+    }
+
+    // Quarantined rows as CSV: line number, reason and the row as it was in the file.
+    private static class QuarantineWriter implements Closeable {
+        private final Path quarantineFile;
+        private Writer writer;
+
+        QuarantineWriter(Path quarantineFile) {
+            this.quarantineFile = quarantineFile;
+        }
+
+        void write(long lineNumber, String reason, String row) throws IOException {
+            if(writer == null) {
+                writer = Files.newBufferedWriter(quarantineFile, StandardCharsets.UTF_8);
+                writer.write("Line,Reason,Row\n");
+            }
+            writer.write(lineNumber + "," + quote(reason) + "," + quote(row) + "\n");
+        }
+
+        private static String quote(String value) {
+            return '"' + String.valueOf(value).replace("\"", "\"\"") + '"';
+        }
+
+        public void close() throws IOException {
+            if(writer != null)
+                writer.close();
+        }
+    }
+
+    // Rows that do not bind: CSVTokenizer and CSVRowBinder throw IllegalArgumentException, OpenCSV wraps a
+    // CsvException. Anything else (I/O, a failing row enricher) is not a rejected row.
+    private static boolean isBindingFailure(RuntimeException e) {
+        return e instanceof IllegalArgumentException || e.getCause() instanceof CsvException;
+    }
+
+    private static boolean isCompressed(String csvFilePath) throws CensusAnalyserException {
+        try {
+            return CensusFileReader.isCompressed(Paths.get(csvFilePath));
+        } catch (IOException e) {
+            throw new CensusAnalyserException(e.getMessage(),
+                    CensusAnalyserException.ExceptionType.CENSUS_FILE_PROBLEM);
+        }
+    }
+
+    static CensusDAO toCensusDAO(Object censusCSV) {
+        if(censusCSV instanceof IndiaCensusCSV)
+            return new CensusDAO((IndiaCensusCSV) censusCSV);
+        return new CensusDAO((USCensusCSV) censusCSV);
+    }
+
 }
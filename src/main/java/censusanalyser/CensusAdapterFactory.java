@@ -4,12 +4,27 @@ import java.util.Map;
 
 public class CensusAdapterFactory {
     public static Map<String,CensusDAO> getCensusData(CensusAnalyser.Country country,String... csvFilePath) throws CensusAnalyserException {
+        return getCensusData(country, CensusAdapter.LoadMode.SERIAL, csvFilePath);
+    }
+
+    public static Map<String,CensusDAO> getCensusData(CensusAnalyser.Country country, CensusAdapter.LoadMode loadMode,
+                                                      String... csvFilePath) throws CensusAnalyserException {
+        CensusAdapter censusAdapter = getCensusAdapter(country);
+        censusAdapter.setLoadMode(loadMode);
+        return censusAdapter.loadCensusData(csvFilePath);
+    }
+
+    public static CensusAdapter getCensusAdapter(CensusAnalyser.Country country) throws CensusAnalyserException {
         if(country.equals(CensusAnalyser.Country.INDIA))
-            return new IndiaCensusAdapter().loadCensusData(csvFilePath);
+            return new IndiaCensusAdapter();
         else if(country.equals(CensusAnalyser.Country.US))
-            return new USCensusAdapter().loadCensusData(csvFilePath);
+            return new USCensusAdapter();
         else
             throw new CensusAnalyserException("Unknown Country", CensusAnalyserException.ExceptionType.INVALID_COUNTRY);
     }
 
+    public static CensusAdapter getCensusAdapter(CensusSchema censusSchema) {
+        return new SchemaCensusAdapter(censusSchema);
+    }
+
 }
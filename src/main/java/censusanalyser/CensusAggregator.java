@@ -0,0 +1,314 @@
+package censusanalyser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+// Group-by rollups over the columns of a CensusTable. Counts, sums, means, minimums, maximums and the
+// population weighted density of every metric are collected in one pass: a fork-join task per row range fills
+// primitive per-group accumulators and the halves are merged on the way back up. Percentiles are read off the
+// table's cached sort orders afterwards, one linear walk per metric.
+public class CensusAggregator {
+    public enum Metric {POPULATION, TOTAL_AREA, POPULATION_DENSITY}
+
+    public static final String UNKNOWN_GROUP = "UNKNOWN";
+    private static final int SEQUENTIAL_THRESHOLD = 1 << 14;
+
+    public interface GroupBy {
+        Grouping group(CensusTable censusTable);
+    }
+
+    // Rows are assigned dictionary ids of groupNames. A grouping with rows that fall in no group puts them in one
+    // extra group, numbered groupNames.size(), so a real group named UNKNOWN is never merged with them.
+    public static class Grouping {
+        final int[] rowGroups;
+        final StringDictionary groupNames;
+        final boolean hasUnknownGroup;
+
+        public Grouping(int[] rowGroups, StringDictionary groupNames) {
+            this(rowGroups, groupNames, false);
+        }
+
+        public Grouping(int[] rowGroups, StringDictionary groupNames, boolean hasUnknownGroup) {
+            this.rowGroups = rowGroups;
+            this.groupNames = groupNames;
+            this.hasUnknownGroup = hasUnknownGroup;
+        }
+
+        int size() {
+            return groupNames.size() + (hasUnknownGroup ? 1 : 0);
+        }
+
+        String name(int group) {
+            return group == groupNames.size() ? UNKNOWN_GROUP : groupNames.decode(group);
+        }
+    }
+
+    public static class MetricSummary {
+        public double sum;
+        public double mean;
+        public double min;
+        public double max;
+        public Map<String, Double> percentiles;
+    }
+
+    public static class GroupAggregate {
+        public String group;
+        // set for the rows that fall in no group, which are reported under UNKNOWN_GROUP
+        public boolean unknown;
+        public long count;
+        public MetricSummary population;
+        public MetricSummary totalArea;
+        public MetricSummary populationDensity;
+        public double weightedPopulationDensity;
+    }
+
+    private final CensusTable censusTable;
+
+    public CensusAggregator(CensusTable censusTable) {
+        this.censusTable = censusTable;
+    }
+
+    public static GroupBy national() {
+        return censusTable -> {
+            StringDictionary groupNames = new StringDictionary();
+            groupNames.encode("ALL");
+            return new Grouping(new int[censusTable.size()], groupNames);
+        };
+    }
+
+    // Groups by the first prefixLength characters of the state code; rows without a code go to the unknown group.
+    public static GroupBy stateCodePrefix(int prefixLength) {
+        if(prefixLength < 0)
+            throw new IllegalArgumentException("Prefix length must not be negative: " + prefixLength);
+        return censusTable -> {
+            StringDictionary stateCodes = censusTable.getStateCodes();
+            StringDictionary groupNames = new StringDictionary();
+            int[] groupOfStateCode = new int[stateCodes.size()];
+            for (int id = 0; id < groupOfStateCode.length; id++) {
+                String stateCode = stateCodes.decode(id);
+                groupOfStateCode[id] = groupNames.encode(stateCode.length() > prefixLength
+                        ? stateCode.substring(0, prefixLength) : stateCode);
+            }
+            int unknownGroup = groupNames.size();
+            int[] stateCodeIds = censusTable.getStateCodeIdColumn();
+            int[] rowGroups = new int[censusTable.size()];
+            for (int row = 0; row < rowGroups.length; row++)
+                rowGroups[row] = stateCodeIds[row] == StringDictionary.NULL_ID ? unknownGroup
+                        : groupOfStateCode[stateCodeIds[row]];
+            return new Grouping(rowGroups, groupNames, true);
+        };
+    }
+
+    // Groups by a state -> region lookup; states missing from it go to the unknown group.
+    public static GroupBy region(Map<String, String> regionOfState) {
+        return censusTable -> {
+            StringDictionary groupNames = new StringDictionary();
+            for (String region : regionOfState.values())
+                if(region != null)
+                    groupNames.encode(region);
+            int unknownGroup = groupNames.size();
+            int[] rowGroups = new int[censusTable.size()];
+            for (int row = 0; row < rowGroups.length; row++) {
+                String region = regionOfState.get(censusTable.getState(row));
+                rowGroups[row] = region == null ? unknownGroup : groupNames.encode(region);
+            }
+            return new Grouping(rowGroups, groupNames, true);
+        };
+    }
+
+    // Percentiles are given in [0, 100] and use the nearest-rank definition.
+    public List<GroupAggregate> aggregate(GroupBy groupBy, double... percentiles) {
+        for (double percentile : percentiles)
+            if(!(percentile >= 0 && percentile <= 100))
+                throw new IllegalArgumentException("Percentile must be between 0 and 100: " + percentile);
+        Grouping grouping = groupBy.group(censusTable);
+        int groups = grouping.size();
+        // Every leaf task allocates accumulators for all groups, so leaves grow with the number of groups.
+        int leafSize = (int) Math.min(Integer.MAX_VALUE, Math.max(SEQUENTIAL_THRESHOLD, 4L * groups));
+        Accumulator total = ForkJoinPool.commonPool().invoke(
+                new AggregateTask(censusTable, grouping.rowGroups, groups, leafSize, 0, censusTable.size()));
+        double[][][] percentileValues = new double[Metric.values().length][][];
+        if(percentiles.length > 0)
+            for (Metric metric : Metric.values())
+                percentileValues[metric.ordinal()] = this.percentiles(metric, grouping.rowGroups, total.count, percentiles);
+
+        List<GroupAggregate> aggregates = new ArrayList<>();
+        for (int group = 0; group < groups; group++) {
+            if(total.count[group] == 0)
+                continue;
+            GroupAggregate aggregate = new GroupAggregate();
+            aggregate.group = grouping.name(group);
+            aggregate.unknown = grouping.hasUnknownGroup && group == grouping.groupNames.size();
+            aggregate.count = total.count[group];
+            aggregate.population = total.summary(Metric.POPULATION, group, percentiles, percentileValues);
+            aggregate.totalArea = total.summary(Metric.TOTAL_AREA, group, percentiles, percentileValues);
+            aggregate.populationDensity = total.summary(Metric.POPULATION_DENSITY, group, percentiles, percentileValues);
+            aggregate.weightedPopulationDensity = total.sums[0][group] == 0 ? 0
+                    : total.weightedDensitySum[group] / total.sums[0][group];
+            aggregates.add(aggregate);
+        }
+        return aggregates;
+    }
+
+    // Walks the metric's cached sort order from the smallest value up, counting ranks per group.
+    private double[][] percentiles(Metric metric, int[] rowGroups, long[] counts, double[] percentiles) {
+        int groups = counts.length;
+        double[] sortedPercentiles = percentiles.clone();
+        Arrays.sort(sortedPercentiles);
+        long[][] targetRanks = new long[groups][sortedPercentiles.length];
+        for (int group = 0; group < groups; group++)
+            for (int index = 0; index < sortedPercentiles.length; index++)
+                targetRanks[group][index] = Math.max(1, (long) Math.ceil(sortedPercentiles[index] / 100 * counts[group])) - 1;
+        double[][] sortedValues = new double[groups][sortedPercentiles.length];
+        long[] seen = new long[groups];
+        int[] next = new int[groups];
+        int[] order = censusTable.sortOrder(sortField(metric));
+        for (int index = order.length - 1; index >= 0; index--) {
+            int row = order[index];
+            int group = rowGroups[row];
+            long rank = seen[group]++;
+            while (next[group] < sortedPercentiles.length && targetRanks[group][next[group]] == rank)
+                sortedValues[group][next[group]++] = value(censusTable, metric, row);
+        }
+        double[][] values = new double[groups][percentiles.length];
+        for (int group = 0; group < groups; group++)
+            for (int index = 0; index < percentiles.length; index++)
+                values[group][index] = sortedValues[group][Arrays.binarySearch(sortedPercentiles, percentiles[index])];
+        return values;
+    }
+
+    private static CensusAnalyser.SortField sortField(Metric metric) {
+        switch (metric) {
+            case POPULATION:
+                return CensusAnalyser.SortField.POPULATION;
+            case TOTAL_AREA:
+                return CensusAnalyser.SortField.AREA;
+            default:
+                return CensusAnalyser.SortField.POPULATION_DENSITY;
+        }
+    }
+
+    private static double value(CensusTable censusTable, Metric metric, int row) {
+        switch (metric) {
+            case POPULATION:
+                return censusTable.getPopulation(row);
+            case TOTAL_AREA:
+                return censusTable.getTotalArea(row);
+            default:
+                return censusTable.getPopulationDensity(row);
+        }
+    }
+
+    private static String percentileName(double percentile) {
+        return "p" + (percentile == Math.rint(percentile) ? String.valueOf((long) percentile) : String.valueOf(percentile));
+    }
+
+    private static class Accumulator {
+        final long[] count;
+        final double[][] sums;
+        final double[][] minimums;
+        final double[][] maximums;
+        final double[] weightedDensitySum;
+
+        Accumulator(int groups) {
+            int metrics = Metric.values().length;
+            count = new long[groups];
+            sums = new double[metrics][groups];
+            minimums = new double[metrics][groups];
+            maximums = new double[metrics][groups];
+            weightedDensitySum = new double[groups];
+            for (int metric = 0; metric < metrics; metric++) {
+                Arrays.fill(minimums[metric], Double.POSITIVE_INFINITY);
+                Arrays.fill(maximums[metric], Double.NEGATIVE_INFINITY);
+            }
+        }
+
+        void add(int group, double population, double totalArea, double populationDensity) {
+            count[group]++;
+            add(0, group, population);
+            add(1, group, totalArea);
+            add(2, group, populationDensity);
+            weightedDensitySum[group] += population * populationDensity;
+        }
+
+        private void add(int metric, int group, double value) {
+            sums[metric][group] += value;
+            if(value < minimums[metric][group])
+                minimums[metric][group] = value;
+            if(value > maximums[metric][group])
+                maximums[metric][group] = value;
+        }
+
+        Accumulator merge(Accumulator other) {
+            for (int group = 0; group < count.length; group++) {
+                count[group] += other.count[group];
+                weightedDensitySum[group] += other.weightedDensitySum[group];
+                for (int metric = 0; metric < sums.length; metric++) {
+                    sums[metric][group] += other.sums[metric][group];
+                    minimums[metric][group] = Math.min(minimums[metric][group], other.minimums[metric][group]);
+                    maximums[metric][group] = Math.max(maximums[metric][group], other.maximums[metric][group]);
+                }
+            }
+            return this;
+        }
+
+        MetricSummary summary(Metric metric, int group, double[] percentiles, double[][][] percentileValues) {
+            MetricSummary summary = new MetricSummary();
+            int index = metric.ordinal();
+            summary.sum = sums[index][group];
+            summary.mean = sums[index][group] / count[group];
+            summary.min = minimums[index][group];
+            summary.max = maximums[index][group];
+            if(percentiles.length > 0) {
+                summary.percentiles = new LinkedHashMap<>();
+                for (int percentile = 0; percentile < percentiles.length; percentile++)
+                    summary.percentiles.put(percentileName(percentiles[percentile]),
+                            percentileValues[index][group][percentile]);
+            }
+            return summary;
+        }
+    }
+
+    private static class AggregateTask extends RecursiveTask<Accumulator> {
+        private static final long serialVersionUID = 1L;
+
+        private final CensusTable censusTable;
+        private final int[] rowGroups;
+        private final int groups;
+        private final int leafSize;
+        private final int from;
+        private final int to;
+
+        AggregateTask(CensusTable censusTable, int[] rowGroups, int groups, int leafSize, int from, int to) {
+            this.censusTable = censusTable;
+            this.rowGroups = rowGroups;
+            this.groups = groups;
+            this.leafSize = leafSize;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Accumulator compute() {
+            if(to - from <= leafSize) {
+                Accumulator accumulator = new Accumulator(groups);
+                int[] population = censusTable.getPopulationColumn();
+                double[] totalArea = censusTable.getTotalAreaColumn();
+                double[] populationDensity = censusTable.getPopulationDensityColumn();
+                for (int row = from; row < to; row++)
+                    accumulator.add(rowGroups[row], population[row], totalArea[row], populationDensity[row]);
+                return accumulator;
+            }
+            int middle = (from + to) >>> 1;
+            AggregateTask left = new AggregateTask(censusTable, rowGroups, groups, leafSize, from, middle);
+            left.fork();
+            Accumulator right = new AggregateTask(censusTable, rowGroups, groups, leafSize, middle, to).compute();
+            return left.join().merge(right);
+        }
+    }
+}
@@ -1,61 +1,340 @@
 package censusanalyser;
 
 import com.google.gson.Gson;
-import java.util.*;
-import java.util.stream.Collectors;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
 
 
 
 public class CensusAnalyser {
     public enum Country {INDIA,US}
-    Map<String, CensusDAO> censusStateMap = null;
-    private Country country;
+    public enum SortField {STATE_NAME,STATE_CODE,POPULATION,POPULATION_DENSITY,AREA}
+    public enum SortOrder {ASCENDING,DESCENDING}
+    private static final Gson GSON = new Gson();
+    // Queries read the table and its country from one published LoadedCensus; reloads build a new one and swap it in.
+    private final AtomicReference<LoadedCensus> loaded = new AtomicReference<>();
+    private volatile CensusAdapter.LoadMode loadMode = CensusAdapter.LoadMode.SERIAL;
+    private volatile CensusDataCache dataCache;
+    private volatile QuarantinePolicy quarantinePolicy;
+    private volatile CensusProjection projection = CensusProjection.all();
+    private volatile LoadReport loadReport;
+    private volatile IncrementalCensusLoader incrementalLoader;
 
     public CensusAnalyser(Country country) {
-        this.country = country;
+        this.loaded.set(new LoadedCensus(country, null));
+    }
+
+    public void setLoadMode(CensusAdapter.LoadMode loadMode) {
+        this.loadMode = loadMode;
+    }
+
+    public void setDataCache(CensusDataCache dataCache) {
+        this.dataCache = dataCache;
+    }
+
+    public void setQuarantinePolicy(QuarantinePolicy quarantinePolicy) {
+        this.quarantinePolicy = quarantinePolicy;
+    }
+
+    // Columns the next loads parse up front, e.g. CensusProjection.forQueries(SortField.POPULATION); the rest are
+    // read from the same files the first time they are needed. Top-k, page, range and prefix queries write these
+    // columns plus the one they sort or filter on; the sorted dumps write whole rows, so the first of them reads all
+    // the rest in one pass. Projected loads parse serially, bypass the data cache, and lenient loads still read
+    // every column.
+    public void setProjection(CensusProjection projection) {
+        this.projection = projection == null ? CensusProjection.all() : projection;
+    }
+
+    // Report of the last lenient load.
+    public LoadReport getLoadReport() {
+        return loadReport;
     }
 
     public int loadCensusData(Country country, String... csvFilePath) throws CensusAnalyserException {
-        censusStateMap = CensusAdapterFactory.getCensusData(country,csvFilePath);
-        return censusStateMap.size();
+        CensusAdapter.LoadMode loadMode = this.loadMode;
+        CensusDataCache dataCache = this.dataCache;
+        QuarantinePolicy quarantinePolicy = this.quarantinePolicy;
+        CensusProjection projection = this.projection;
+        CensusTable censusTable;
+        // The cache does not know how a table was loaded, so lenient and projected loads always read the files.
+        if(quarantinePolicy == null && !projection.isAll())
+            censusTable = this.loadProjectedCensusTable(projection, columns -> {
+                CensusAdapter censusAdapter = CensusAdapterFactory.getCensusAdapter(country);
+                censusAdapter.setProjection(columns);
+                return censusAdapter.loadCensusData(csvFilePath);
+            });
+        else if(quarantinePolicy != null)
+            censusTable = CensusTable.from(this.loadCensusData(CensusAdapterFactory.getCensusAdapter(country), loadMode,
+                    quarantinePolicy, csvFilePath));
+        else if(dataCache == null)
+            censusTable = CensusTable.from(CensusAdapterFactory.getCensusData(country,loadMode,csvFilePath));
+        else
+            censusTable = dataCache.get(country, csvFilePath,
+                    () -> CensusTable.from(CensusAdapterFactory.getCensusData(country,loadMode,csvFilePath)));
+        loaded.set(new LoadedCensus(country, censusTable));
+        return censusTable.size();
+    }
+
+    // Loads a country that has a CensusSchema instead of an adapter of its own; queries use the schema's format.
+    public int loadCensusData(CensusSchema censusSchema, String csvFilePath) throws CensusAnalyserException {
+        QuarantinePolicy quarantinePolicy = this.quarantinePolicy;
+        CensusProjection projection = this.projection;
+        CensusTable censusTable;
+        if(quarantinePolicy == null && !projection.isAll())
+            censusTable = this.loadProjectedCensusTable(projection, columns -> {
+                CensusAdapter censusAdapter = CensusAdapterFactory.getCensusAdapter(censusSchema);
+                censusAdapter.setProjection(columns);
+                return censusAdapter.loadCensusData(csvFilePath);
+            });
+        else
+            censusTable = CensusTable.from(this.loadCensusData(CensusAdapterFactory.getCensusAdapter(censusSchema),
+                    this.loadMode, quarantinePolicy, csvFilePath));
+        loaded.set(new LoadedCensus(censusSchema.getFormat(), censusTable));
+        return censusTable.size();
+    }
+
+    private Map<String, CensusDAO> loadCensusData(CensusAdapter censusAdapter, CensusAdapter.LoadMode loadMode,
+                                                  QuarantinePolicy quarantinePolicy, String... csvFilePath) throws CensusAnalyserException {
+        censusAdapter.setLoadMode(loadMode);
+        censusAdapter.setQuarantinePolicy(quarantinePolicy);
+        try {
+            return censusAdapter.loadCensusData(csvFilePath);
+        } finally {
+            if(quarantinePolicy != null)
+                loadReport = censusAdapter.getLoadReport();
+        }
+    }
+
+    // The table keeps the loader to read the columns the projection left out when they are first needed.
+    private CensusTable loadProjectedCensusTable(CensusProjection projection, CensusTable.ColumnLoader columnLoader)
+            throws CensusAnalyserException {
+        CensusTable censusTable = CensusTable.from(columnLoader.load(projection));
+        censusTable.setMissingColumns(projection, columnLoader);
+        return censusTable;
+    }
+
+    // Remembers where parsing stopped so that refreshCensusData only reads rows appended since.
+    public int loadCensusDataIncrementally(Country country, String... csvFilePath) throws CensusAnalyserException {
+        IncrementalCensusLoader incrementalLoader = new IncrementalCensusLoader(country, csvFilePath);
+        CensusTable censusTable = incrementalLoader.refresh();
+        this.incrementalLoader = incrementalLoader;
+        loaded.set(new LoadedCensus(country, censusTable));
+        return censusTable.size();
+    }
+
+    public int refreshCensusData() throws CensusAnalyserException {
+        IncrementalCensusLoader incrementalLoader = this.incrementalLoader;
+        if(incrementalLoader == null)
+            throw new CensusAnalyserException("No incremental census load to refresh",
+                    CensusAnalyserException.ExceptionType.NO_CENSUS_DATA);
+        synchronized (incrementalLoader) {
+            LoadedCensus current = loaded.get();
+            CensusTable censusTable = incrementalLoader.refresh();
+            if(current.getCensusTable() != censusTable)
+                loaded.set(new LoadedCensus(current.getCountry(), censusTable));
+            return censusTable.size();
+        }
+    }
+
+    void setCensusTable(CensusTable censusTable) {
+        loaded.updateAndGet(current -> new LoadedCensus(current.getCountry(), censusTable));
+    }
+
+    public void saveSnapshot(String snapshotFilePath) throws CensusAnalyserException {
+        try {
+            LoadedCensus census = this.getLoadedCensus();
+            census.getCensusTable().loadColumns(CensusProjection.all());
+            CensusSnapshot.write(census.getCensusTable(), census.getCountry(), Paths.get(snapshotFilePath));
+        } catch (IOException e) {
+            throw new CensusAnalyserException(e.getMessage(),
+                    CensusAnalyserException.ExceptionType.CENSUS_FILE_PROBLEM);
+        }
+    }
+
+    public int loadSnapshot(String snapshotFilePath) throws CensusAnalyserException {
+        try {
+            CensusSnapshot loadedSnapshot = CensusSnapshot.open(Paths.get(snapshotFilePath));
+            LoadedCensus published = loaded.updateAndGet(current -> new LoadedCensus(
+                    loadedSnapshot.getCountry() != null ? loadedSnapshot.getCountry() : current.getCountry(),
+                    loadedSnapshot.getCensusTable()));
+            return published.getCensusTable().size();
+        } catch (IOException e) {
+            throw new CensusAnalyserException(e.getMessage(),
+                    CensusAnalyserException.ExceptionType.CENSUS_FILE_PROBLEM);
+        }
     }
 
     public String getSortedCensusDataAccordingToStateName(Country country) throws CensusAnalyserException {
-        Comparator<CensusDAO> censusComparator = Comparator.comparing(census -> census.state);
-        return this.getSortedCensusData(censusComparator,country);
+        return this.getSortedCensusData(SortField.STATE_NAME,country);
     }
 
     public String getSortedCensusDataAccordingToStateCode(Country country) throws CensusAnalyserException {
-        Comparator<CensusDAO> censusComparator = Comparator.comparing(census -> census.stateCode);
-        return this.getSortedCensusData(censusComparator,country);
+        return this.getSortedCensusData(SortField.STATE_CODE,country);
     }
 
 
     public String getSortedCensusDataAccordingToPopulation(Country country) throws CensusAnalyserException {
-        Comparator<CensusDAO> censusComparator = Comparator.comparing(census -> census.population);
-        return this.getSortedCensusData(censusComparator.reversed(),country);
+        return this.getSortedCensusData(SortField.POPULATION,country);
     }
 
     public String getSortedCensusDataAccordingToPopulationDensity(Country country) throws CensusAnalyserException {
-        Comparator<CensusDAO> censusComparator = Comparator.comparing(census -> census.populationDensity);
-        return this.getSortedCensusData(censusComparator.reversed(),country);
+        return this.getSortedCensusData(SortField.POPULATION_DENSITY,country);
     }
 
     public String getSortedCensusDataAccordingToArea(Country country) throws CensusAnalyserException {
-        Comparator<CensusDAO> censusComparator = Comparator.comparing(census -> census.totalArea);
-        return this.getSortedCensusData(censusComparator.reversed(),country);
+        return this.getSortedCensusData(SortField.AREA,country);
+    }
+
+    public CensusTable getCensusTable() {
+        return loaded.get().getCensusTable();
     }
 
-    private String getSortedCensusData(Comparator<CensusDAO> censusComparator, Country country) throws CensusAnalyserException {
-        if(censusStateMap == null || censusStateMap.size() ==0 ) {
+    public String getTopK(SortField sortField, int k, SortOrder sortOrder) throws CensusAnalyserException {
+        if(k < 0)
+            throw new IllegalArgumentException("k must not be negative: " + k);
+        LoadedCensus census = this.getLoadedCensus();
+        CensusTable censusTable = census.getCensusTable();
+        int[] topRows = censusTable.getTopK(sortField, k, !sortOrder.equals(getDefaultSortOrder(sortField)));
+        return this.toJson(censusTable, topRows, 0, topRows.length, census.getCountry(), queryColumns(censusTable, sortField));
+    }
+
+    public String getPage(SortField sortField, int offset, int limit) throws CensusAnalyserException {
+        if(offset < 0 || limit < 0)
+            throw new IllegalArgumentException("offset and limit must not be negative: " + offset + ", " + limit);
+        LoadedCensus census = this.getLoadedCensus();
+        CensusTable censusTable = census.getCensusTable();
+        int[] sortOrder = censusTable.sortOrder(sortField);
+        int from = Math.min(offset, sortOrder.length);
+        int to = (int) Math.min((long) from + limit, sortOrder.length);
+        return this.toJson(censusTable, sortOrder, from, to, census.getCountry(), queryColumns(censusTable, sortField));
+    }
+
+    // Rows with min <= value <= max of a numeric field, in that field's default order.
+    public String getCensusDataInRange(SortField numericField, double min, double max) throws CensusAnalyserException {
+        LoadedCensus census = this.getLoadedCensus();
+        CensusTable censusTable = census.getCensusTable();
+        int[] bounds = censusTable.getRangeBounds(numericField, min, max);
+        return this.toJson(censusTable, censusTable.sortOrder(numericField), bounds[0], bounds[1], census.getCountry(),
+                queryColumns(censusTable, numericField));
+    }
+
+    // Rows whose state name or state code starts with prefix, A-Z.
+    public String getCensusDataWithPrefix(SortField nameField, String prefix) throws CensusAnalyserException {
+        LoadedCensus census = this.getLoadedCensus();
+        CensusTable censusTable = census.getCensusTable();
+        int[] bounds = censusTable.getPrefixBounds(nameField, prefix);
+        return this.toJson(censusTable, censusTable.sortOrder(nameField), bounds[0], bounds[1], census.getCountry(),
+                queryColumns(censusTable, nameField));
+    }
+
+    // Builds every sort order up front so range, prefix and sorted queries never pay for the first sort.
+    public void buildIndexes() throws CensusAnalyserException {
+        CensusTable censusTable = this.getLoadedCensusTable();
+        censusTable.loadColumns(CensusProjection.all());
+        censusTable.buildSortOrders();
+    }
+
+    // Rollups of the loaded data per group, e.g. CensusAggregator.stateCodePrefix(1), as a JSON array.
+    public String getAggregates(CensusAggregator.GroupBy groupBy, double... percentiles) throws CensusAnalyserException {
+        CensusTable censusTable = this.getLoadedCensusTable();
+        censusTable.loadColumns(CensusProjection.all());
+        List<CensusAggregator.GroupAggregate> aggregates = new CensusAggregator(censusTable).aggregate(groupBy, percentiles);
+        return GSON.toJson(aggregates);
+    }
+
+    public void writeSortedCensusData(SortField sortField, Country country, Writer writer) throws CensusAnalyserException, IOException {
+        CensusTable censusTable = this.getLoadedRows().getCensusTable();
+        int[] sortOrder = censusTable.sortOrder(sortField);
+        CensusJsonWriter.write(writer, censusTable, sortOrder, 0, sortOrder.length, country);
+    }
+
+    public void writeSortedCensusData(SortField sortField, Country country, OutputStream outputStream) throws CensusAnalyserException, IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+        this.writeSortedCensusData(sortField, country, writer);
+        writer.flush();
+    }
+
+    // Streams the loaded data in the layout of the country it was loaded as, table and country from one LoadedCensus.
+    public void writeSortedCensusData(SortField sortField, OutputStream outputStream) throws CensusAnalyserException, IOException {
+        LoadedCensus census = this.getLoadedRows();
+        CensusTable censusTable = census.getCensusTable();
+        int[] sortOrder = censusTable.sortOrder(sortField);
+        Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+        CensusJsonWriter.write(writer, censusTable, sortOrder, 0, sortOrder.length, census.getCountry());
+        writer.flush();
+    }
+
+    private String getSortedCensusData(SortField sortField, Country country) throws CensusAnalyserException {
+        CensusTable censusTable = this.getLoadedRows().getCensusTable();
+        LoadTimer timer = LoadTimer.start();
+        long start = timer.now();
+        int[] sortOrder = censusTable.sortOrder(sortField);
+        start = timer.stage(CensusMetrics.Stage.SORT, start);
+        String sortedCensusJson = this.toJson(censusTable, sortOrder, 0, sortOrder.length, country);
+        timer.stage(CensusMetrics.Stage.SERIALIZE, start);
+        timer.finish();
+        return sortedCensusJson;
+    }
+
+    // Names are listed A-Z and numeric fields largest first, as in the getSortedCensusDataAccordingTo* queries.
+    public static SortOrder getDefaultSortOrder(SortField sortField) {
+        if(sortField.equals(SortField.STATE_NAME) || sortField.equals(SortField.STATE_CODE))
+            return SortOrder.ASCENDING;
+        return SortOrder.DESCENDING;
+    }
+
+    private CensusTable getLoadedCensusTable() throws CensusAnalyserException {
+        return this.getLoadedCensus().getCensusTable();
+    }
+
+    private LoadedCensus getLoadedCensus() throws CensusAnalyserException {
+        LoadedCensus census = this.loaded.get();
+        CensusTable censusTable = census.getCensusTable();
+        if(censusTable == null || censusTable.size() ==0 ) {
             throw new CensusAnalyserException("No Census Data", CensusAnalyserException.ExceptionType.NO_CENSUS_DATA);
         }
-        List sortedCensusData = censusStateMap.values().stream().
-                sorted(censusComparator).
-                map(censusDAO -> censusDAO.getCensusDTO(country)).
-                collect(Collectors.toList());
-        String sortedStateCensusDataInJson = new Gson().toJson(sortedCensusData);
-        return sortedStateCensusDataInJson;
+        return census;
+    }
+
+    // For the sorted dumps, which answer with whole rows: reads every column a projected load left out before the
+    // first row is written, so no column is being filled in while rows are serialized.
+    private LoadedCensus getLoadedRows() throws CensusAnalyserException {
+        LoadedCensus census = this.getLoadedCensus();
+        census.getCensusTable().loadColumns(CensusProjection.all());
+        return census;
+    }
+
+    // Columns a query writes: those its load parsed plus the one it sorts or filters on. They depend only on the
+    // load and the query, not on which columns earlier queries happened to read in.
+    private static CensusProjection queryColumns(CensusTable censusTable, SortField sortField) throws CensusAnalyserException {
+        CensusProjection columns = censusTable.getProjection().with(CensusProjection.forQueries(sortField));
+        censusTable.loadColumns(columns);
+        return columns;
+    }
+
+    private String toJson(CensusTable censusTable, int[] rows, int from, int to, Country country) {
+        return this.toJson(censusTable, rows, from, to, country, CensusProjection.all());
+    }
+
+    private String toJson(CensusTable censusTable, int[] rows, int from, int to, Country country, CensusProjection columns) {
+        StringWriter censusDataInJson = new StringWriter();
+        try {
+            CensusJsonWriter.write(censusDataInJson, censusTable, rows, from, to, country, columns);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return censusDataInJson.toString();
     }
 
 }
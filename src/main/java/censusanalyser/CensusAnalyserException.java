@@ -3,7 +3,7 @@ package censusanalyser;
 public class CensusAnalyserException extends Exception {
 
     enum ExceptionType {
-        CENSUS_FILE_PROBLEM,UNABLE_TO_PARSE,NO_CENSUS_DATA,INVALID_COUNTRY
+        CENSUS_FILE_PROBLEM,UNABLE_TO_PARSE,NO_CENSUS_DATA,INVALID_COUNTRY,ERROR_BUDGET_EXCEEDED,INVALID_SCHEMA
     }
 
     ExceptionType type;
@@ -0,0 +1,114 @@
+package censusanalyser;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Loads many (country, files) jobs at once. At most maxConcurrentJobs jobs run at a time, on virtual threads
+// when the JDK has them and on a fixed pool of platform threads otherwise. Every job gets its own result, so
+// one bad file only fails its own job.
+public class CensusBatchLoader {
+    private final int maxConcurrentJobs;
+    private CensusAdapter.LoadMode loadMode = CensusAdapter.LoadMode.SERIAL;
+
+    public CensusBatchLoader(int maxConcurrentJobs) {
+        if(maxConcurrentJobs < 1)
+            throw new IllegalArgumentException("maxConcurrentJobs must be positive: " + maxConcurrentJobs);
+        this.maxConcurrentJobs = maxConcurrentJobs;
+    }
+
+    public void setLoadMode(CensusAdapter.LoadMode loadMode) {
+        this.loadMode = loadMode;
+    }
+
+    public static class Job {
+        public final CensusAnalyser.Country country;
+        public final String[] csvFilePath;
+
+        public Job(CensusAnalyser.Country country, String... csvFilePath) {
+            this.country = country;
+            this.csvFilePath = csvFilePath;
+        }
+    }
+
+    public static class JobResult {
+        public final Job job;
+        public final CensusTable censusTable;
+        public final CensusAnalyserException error;
+
+        JobResult(Job job, CensusTable censusTable, CensusAnalyserException error) {
+            this.job = job;
+            this.censusTable = censusTable;
+            this.error = error;
+        }
+
+        public boolean isSuccessful() {
+            return error == null;
+        }
+    }
+
+    // Results are in the order of the jobs.
+    public List<JobResult> loadAll(List<Job> jobs) throws InterruptedException {
+        ExecutorService executor = newExecutor();
+        Semaphore permits = new Semaphore(maxConcurrentJobs);
+        List<CompletableFuture<JobResult>> results = new ArrayList<>();
+        try {
+            for (Job job : jobs) {
+                permits.acquire();
+                CompletableFuture<JobResult> result = new CompletableFuture<>();
+                results.add(result);
+                executor.execute(() -> {
+                    try {
+                        result.complete(this.load(job, executor));
+                    } catch (Throwable e) {
+                        result.completeExceptionally(e);
+                    } finally {
+                        permits.release();
+                    }
+                });
+            }
+            List<JobResult> jobResults = new ArrayList<>();
+            for (CompletableFuture<JobResult> result : results)
+                jobResults.add(result.join());
+            return jobResults;
+        } finally {
+            executor.shutdownNow();
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        }
+    }
+
+    private JobResult load(Job job, ExecutorService executor) {
+        try {
+            CensusAdapter censusAdapter = CensusAdapterFactory.getCensusAdapter(job.country);
+            censusAdapter.setLoadMode(loadMode);
+            return new JobResult(job, CensusTable.from(censusAdapter.loadCensusData(executor, job.csvFilePath)), null);
+        } catch (CensusAnalyserException e) {
+            return new JobResult(job, null, e);
+        } catch (RuntimeException e) {
+            return new JobResult(job, null, new CensusAnalyserException(String.valueOf(e.getMessage()),
+                    CensusAnalyserException.ExceptionType.CENSUS_FILE_PROBLEM, e));
+        }
+    }
+
+    // A job may hand one side read (the India state code table) to the executor while it parses, so the
+    // platform pool has two threads per job and can never be exhausted by jobs waiting on their side reads.
+    private ExecutorService newExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            AtomicInteger threadNumber = new AtomicInteger();
+            ThreadFactory threadFactory = runnable -> {
+                Thread thread = new Thread(runnable, "census-batch-loader-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            };
+            return Executors.newFixedThreadPool(2 * maxConcurrentJobs, threadFactory);
+        }
+    }
+}
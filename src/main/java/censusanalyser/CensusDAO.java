@@ -23,6 +23,14 @@ public class CensusDAO {
         populationDensity = usCensusCSV.populationDensity;
     }
 
+    public CensusDAO(String state, String stateCode, int population, double totalArea, double populationDensity) {
+        this.state = state;
+        this.stateCode = stateCode;
+        this.population = population;
+        this.totalArea = totalArea;
+        this.populationDensity = populationDensity;
+    }
+
     public Object getCensusDTO(CensusAnalyser.Country country) {
         if(country.equals(CensusAnalyser.Country.INDIA))
             return new IndiaCensusCSV(state,population,(int)populationDensity,(int)totalArea,stateCode);
@@ -0,0 +1,209 @@
+package censusanalyser;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Process-wide cache of loaded census tables, keyed by country and a fingerprint of every input file.
+// Content hashes are only recomputed when a file's size or modification time changes, so a warm
+// lookup costs one stat per file. Concurrent misses for the same key share a single load: callers that wait
+// for another thread's load are counted as shared loads, neither hits nor misses. A table larger than the
+// memory budget is never cached, so each request for it loads it again.
+public class CensusDataCache {
+    private static final CensusDataCache INSTANCE = new CensusDataCache(Runtime.getRuntime().maxMemory() / 4);
+
+    public interface CensusTableLoader {
+        CensusTable load() throws CensusAnalyserException;
+    }
+
+    private final long memoryBudgetBytes;
+    private final LinkedHashMap<CacheKey, CensusTable> tables = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<CacheKey, CompletableFuture<CensusTable>> loadsInFlight = new ConcurrentHashMap<>();
+    private final Map<Path, FileFingerprint> fingerprints = new ConcurrentHashMap<>();
+    private long cachedBytes;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong sharedLoads = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public CensusDataCache(long memoryBudgetBytes) {
+        this.memoryBudgetBytes = memoryBudgetBytes;
+    }
+
+    public static CensusDataCache getInstance() {
+        return INSTANCE;
+    }
+
+    public CensusTable get(CensusAnalyser.Country country, String[] csvFilePath, CensusTableLoader loader) throws CensusAnalyserException {
+        CacheKey cacheKey = new CacheKey(country, fingerprint(csvFilePath));
+        CensusTable cachedTable = this.getCached(cacheKey);
+        if(cachedTable != null)
+            return cachedTable;
+        CompletableFuture<CensusTable> load = new CompletableFuture<>();
+        CompletableFuture<CensusTable> loadInFlight = loadsInFlight.putIfAbsent(cacheKey, load);
+        if(loadInFlight != null) {
+            sharedLoads.incrementAndGet();
+            return await(loadInFlight);
+        }
+        try {
+            // A load that finished between the first lookup and putIfAbsent has already cached its table.
+            CensusTable censusTable = this.getCached(cacheKey);
+            if(censusTable == null) {
+                misses.incrementAndGet();
+                censusTable = loader.load();
+                put(cacheKey, censusTable);
+            }
+            load.complete(censusTable);
+            return censusTable;
+        } catch (Throwable e) {
+            // Errors too, or every caller waiting on this load would block forever.
+            load.completeExceptionally(e);
+            throw e;
+        } finally {
+            loadsInFlight.remove(cacheKey);
+        }
+    }
+
+    private CensusTable getCached(CacheKey cacheKey) {
+        synchronized (tables) {
+            CensusTable censusTable = tables.get(cacheKey);
+            if(censusTable != null)
+                hits.incrementAndGet();
+            return censusTable;
+        }
+    }
+
+    public void clear() {
+        synchronized (tables) {
+            tables.clear();
+            cachedBytes = 0;
+        }
+        fingerprints.clear();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    // Callers that found another thread already loading the same files and waited for its table.
+    public long getSharedLoads() {
+        return sharedLoads.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public long getCachedBytes() {
+        synchronized (tables) {
+            return cachedBytes;
+        }
+    }
+
+    public int size() {
+        synchronized (tables) {
+            return tables.size();
+        }
+    }
+
+    private void put(CacheKey cacheKey, CensusTable censusTable) {
+        long tableBytes = censusTable.estimateHeapBytes();
+        if(tableBytes > memoryBudgetBytes)
+            return;
+        synchronized (tables) {
+            CensusTable replaced = tables.put(cacheKey, censusTable);
+            if(replaced != null)
+                cachedBytes -= replaced.estimateHeapBytes();
+            cachedBytes += tableBytes;
+            Iterator<Map.Entry<CacheKey, CensusTable>> leastRecentlyUsed = tables.entrySet().iterator();
+            while (cachedBytes > memoryBudgetBytes && leastRecentlyUsed.hasNext()) {
+                Map.Entry<CacheKey, CensusTable> entry = leastRecentlyUsed.next();
+                if(entry.getKey().equals(cacheKey))
+                    continue;
+                cachedBytes -= entry.getValue().estimateHeapBytes();
+                leastRecentlyUsed.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    private List<FileFingerprint> fingerprint(String[] csvFilePath) throws CensusAnalyserException {
+        List<FileFingerprint> fileFingerprints = new ArrayList<>(csvFilePath.length);
+        try {
+            for (String filePath : csvFilePath) {
+                Path path = Paths.get(filePath).toAbsolutePath().normalize();
+                BasicFileAttributes attributes = FileFingerprint.readAttributes(path);
+                long lastModified = attributes.lastModifiedTime().toMillis();
+                FileFingerprint fingerprint = fingerprints.get(path);
+                if(fingerprint == null || fingerprint.size != attributes.size() || fingerprint.lastModified != lastModified) {
+                    fingerprint = new FileFingerprint(path, attributes.size(), lastModified, FileFingerprint.contentHash(path));
+                    fingerprints.put(path, fingerprint);
+                }
+                fileFingerprints.add(fingerprint);
+            }
+        } catch (IOException e) {
+            throw new CensusAnalyserException(e.getMessage(),
+                    CensusAnalyserException.ExceptionType.CENSUS_FILE_PROBLEM);
+        }
+        return fileFingerprints;
+    }
+
+    private static CensusTable await(CompletableFuture<CensusTable> load) throws CensusAnalyserException {
+        try {
+            return load.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CensusAnalyserException(e.getMessage(), CensusAnalyserException.ExceptionType.CENSUS_FILE_PROBLEM, e);
+        } catch (ExecutionException e) {
+            if(e.getCause() instanceof CensusAnalyserException)
+                throw (CensusAnalyserException) e.getCause();
+            if(e.getCause() instanceof Error)
+                throw (Error) e.getCause();
+            throw (RuntimeException) e.getCause();
+        }
+    }
+
+    private static class CacheKey {
+        private final CensusAnalyser.Country country;
+        private final List<FileFingerprint> fingerprints;
+
+        CacheKey(CensusAnalyser.Country country, List<FileFingerprint> fingerprints) {
+            this.country = country;
+            this.fingerprints = fingerprints;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if(!(other instanceof CacheKey))
+                return false;
+            CacheKey that = (CacheKey) other;
+            return country == that.country && fingerprints.equals(that.fingerprints);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(country, fingerprints);
+        }
+
+        @Override
+        public String toString() {
+            return country + Arrays.toString(fingerprints.toArray());
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package censusanalyser;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+// Opens census files for the loaders. Gzip input is recognised by its magic bytes, whatever the file name, and
+// inflated while it is read: a decompressor thread fills buffers and hands them to the parsing thread through a
+// small queue, so inflating and parsing overlap. Blocked gzip files (see BlockedGzip) have their members
+// inflated on the common pool, several at a time, and handed over in file order.
+public class CensusFileReader {
+    private static final int BUFFER_SIZE = 64 << 10;
+    private static final int QUEUED_BUFFERS = 4;
+
+    private CensusFileReader() {
+    }
+
+    public static Reader open(Path csvFile) throws IOException {
+        byte[] head = readHead(csvFile);
+        if(!isGzip(head))
+            return Files.newBufferedReader(csvFile);
+        InputStream input = new DecompressingInputStream(csvFile, BlockedGzip.isBlocked(head));
+        return new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8.newDecoder()));
+    }
+
+    public static boolean isCompressed(Path csvFile) throws IOException {
+        return isGzip(readHead(csvFile));
+    }
+
+    private static boolean isGzip(byte[] head) {
+        return head.length >= 2 && (head[0] & 0xff) == 0x1f && (head[1] & 0xff) == 0x8b;
+    }
+
+    private static byte[] readHead(Path csvFile) throws IOException {
+        try (InputStream input = Files.newInputStream(csvFile)) {
+            byte[] head = new byte[32];
+            int length = 0;
+            int read;
+            while (length < head.length && (read = input.read(head, length, head.length - length)) > 0)
+                length += read;
+            return Arrays.copyOf(head, length);
+        }
+    }
+
+    private static class DecompressingInputStream extends InputStream {
+        private static final Object END = new Object();
+
+        private final BlockingQueue<Object> buffers;
+        private final Thread decompressor;
+        private volatile boolean closed;
+        private byte[] current = new byte[0];
+        private int position;
+        private boolean ended;
+
+        DecompressingInputStream(Path csvFile, boolean blocked) {
+            int window = blocked ? 2 * Math.max(1, ForkJoinPool.getCommonPoolParallelism()) : 0;
+            this.buffers = new ArrayBlockingQueue<>(QUEUED_BUFFERS + window);
+            this.decompressor = new Thread(() -> this.decompress(csvFile, blocked, window), "census-decompressor");
+            this.decompressor.setDaemon(true);
+            this.decompressor.start();
+        }
+
+        @Override
+        public int read() throws IOException {
+            if(!this.fill())
+                return -1;
+            return current[position++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if(length == 0)
+                return 0;
+            if(!this.fill())
+                return -1;
+            int read = Math.min(length, current.length - position);
+            System.arraycopy(current, position, buffer, offset, read);
+            position += read;
+            return read;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            decompressor.interrupt();
+            buffers.clear();
+        }
+
+        private boolean fill() throws IOException {
+            while (position == current.length) {
+                if(ended || closed)
+                    return false;
+                Object buffer;
+                try {
+                    buffer = buffers.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while decompressing census file");
+                }
+                if(buffer == END) {
+                    ended = true;
+                    return false;
+                }
+                if(buffer instanceof Error)
+                    throw (Error) buffer;
+                if(buffer instanceof Throwable)
+                    throw new IOException(((Throwable) buffer).getMessage(), (Throwable) buffer);
+                current = (byte[]) buffer;
+                position = 0;
+            }
+            return true;
+        }
+
+        // Always ends with END or the failure, whatever was thrown, so the reader's take() cannot wait forever.
+        private void decompress(Path csvFile, boolean blocked, int window) {
+            Object last = END;
+            try (InputStream input = new BufferedInputStream(Files.newInputStream(csvFile), BUFFER_SIZE)) {
+                if(blocked)
+                    this.inflateBlocks(new DataInputStream(input), window);
+                else
+                    this.inflateStream(new GZIPInputStream(input, BUFFER_SIZE));
+            } catch (InterruptedException e) {
+                // closed by the reader
+                return;
+            } catch (Throwable e) {
+                last = e instanceof UncheckedIOException ? e.getCause() : e;
+            }
+            try {
+                this.hand(last);
+            } catch (InterruptedException e) {
+                // closed by the reader
+            }
+        }
+
+        // GZIPInputStream also reads concatenated members, one after the other.
+        private void inflateStream(InputStream input) throws IOException, InterruptedException {
+            while (true) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int length = 0;
+                int read;
+                while (length < buffer.length && (read = input.read(buffer, length, buffer.length - length)) > 0)
+                    length += read;
+                if(length > 0)
+                    this.hand(length == buffer.length ? buffer : Arrays.copyOf(buffer, length));
+                if(length < buffer.length)
+                    return;
+            }
+        }
+
+        private void inflateBlocks(DataInputStream input, int window) throws IOException, InterruptedException {
+            Deque<CompletableFuture<byte[]>> pending = new ArrayDeque<>();
+            boolean ended = false;
+            byte[] block;
+            while ((block = BlockedGzip.readBlock(input)) != null) {
+                ended = BlockedGzip.isEndOfFileBlock(block);
+                if(ended)
+                    continue;
+                // with a single worker, handing blocks to the pool only adds scheduling
+                if(ForkJoinPool.getCommonPoolParallelism() < 2) {
+                    this.hand(BlockedGzip.inflateBlock(block));
+                    continue;
+                }
+                byte[] compressed = block;
+                pending.add(CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return BlockedGzip.inflateBlock(compressed);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }, ForkJoinPool.commonPool()));
+                if(pending.size() >= window)
+                    this.hand(join(pending.poll()));
+            }
+            while (!pending.isEmpty())
+                this.hand(join(pending.poll()));
+            if(!ended)
+                throw new EOFException("Blocked gzip file does not end with an empty member, it was truncated");
+        }
+
+        private static byte[] join(CompletableFuture<byte[]> inflated) throws IOException {
+            try {
+                return inflated.join();
+            } catch (CompletionException e) {
+                if(e.getCause() instanceof UncheckedIOException)
+                    throw ((UncheckedIOException) e.getCause()).getCause();
+                if(e.getCause() instanceof Error)
+                    throw (Error) e.getCause();
+                throw e;
+            }
+        }
+
+        private void hand(Object buffer) throws InterruptedException {
+            if(buffer instanceof byte[] && ((byte[]) buffer).length == 0)
+                return;
+            while (!closed && !buffers.offer(buffer, 100, TimeUnit.MILLISECONDS))
+                ;
+        }
+    }
+}
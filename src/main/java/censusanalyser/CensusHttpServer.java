@@ -0,0 +1,321 @@
+package censusanalyser;
+
+import com.google.gson.Gson;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Serves the queries of an already loaded CensusAnalyser over HTTP, on the JDK's built-in server:
+//
+//   GET /census/sorted?field=POPULATION                         whole table in the field's default order, streamed
+//   GET /census/top?field=AREA&k=10&order=ASCENDING             order defaults to the field's default order
+//   GET /census/page?field=STATE_NAME&offset=0&limit=20
+//   GET /census/range?field=POPULATION_DENSITY&min=100&max=500
+//   GET /census/prefix?field=STATE_NAME&prefix=Ma
+//   GET /census/aggregates?prefixLength=1&percentiles=50,99     national totals when prefixLength is left out
+//   GET /stats                                                  request count and latency percentiles per endpoint
+//
+// Queries read the analyser's currently loaded data, so the data can be reloaded while the server runs. Connections are
+// kept alive between requests, as HttpServer does for HTTP/1.1 clients when every response body is closed.
+// Latencies are measured from the start of the handler to the end of the response, so they leave out time spent
+// waiting for a handler thread.
+//
+// HttpServer writes headers and body separately, so with Nagle on, small responses on a kept-alive connection wait
+// for the client's delayed ACK, about 40ms each. Start the JVM with -Dsun.net.httpserver.nodelay=true to turn it
+// off; the JDK reads that once, for every HttpServer in the JVM, so this class leaves the choice to the launcher.
+public class CensusHttpServer implements AutoCloseable {
+    public enum Endpoint {
+        SORTED("/census/sorted"), TOP("/census/top"), PAGE("/census/page"), RANGE("/census/range"),
+        PREFIX("/census/prefix"), AGGREGATES("/census/aggregates"), STATS("/stats");
+
+        final String path;
+
+        Endpoint(String path) {
+            this.path = path;
+        }
+    }
+
+    public static class EndpointStats {
+        public long count;
+        public double meanMicros;
+        public double p50Micros;
+        public double p99Micros;
+        public double p999Micros;
+        public double maxMicros;
+    }
+
+    private static final String JSON_CONTENT_TYPE = "application/json; charset=utf-8";
+
+    private final CensusAnalyser censusAnalyser;
+    private final Map<String, Endpoint> endpoints = new HashMap<>();
+    private final Map<Endpoint, LatencyHistogram> latencies = new EnumMap<>(Endpoint.class);
+    private Executor executor;
+    private ExecutorService ownExecutor;
+    private HttpServer server;
+
+    public CensusHttpServer(CensusAnalyser censusAnalyser) {
+        this.censusAnalyser = censusAnalyser;
+        for (Endpoint endpoint : Endpoint.values()) {
+            endpoints.put(endpoint.path, endpoint);
+            latencies.put(endpoint, new LatencyHistogram());
+        }
+    }
+
+    // Runs the request handlers; by default a virtual thread per request where the JVM has them, else a pool.
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    // Listens on the loopback interface only; port 0 picks a free port, see getPort.
+    public void start(int port) throws IOException {
+        this.start(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+    }
+
+    public synchronized void start(InetSocketAddress address) throws IOException {
+        if(server != null)
+            throw new IllegalStateException("Server already started on port " + this.getPort());
+        HttpServer server = HttpServer.create(address, 0);
+        server.createContext("/", this::handle);
+        if(executor == null)
+            ownExecutor = newExecutor();
+        server.setExecutor(executor != null ? executor : ownExecutor);
+        server.start();
+        this.server = server;
+    }
+
+    public synchronized int getPort() {
+        if(server == null)
+            throw new IllegalStateException("Server not started");
+        return server.getAddress().getPort();
+    }
+
+    public LatencyHistogram getLatency(Endpoint endpoint) {
+        return latencies.get(endpoint);
+    }
+
+    public Map<Endpoint, EndpointStats> getStats() {
+        Map<Endpoint, EndpointStats> stats = new LinkedHashMap<>();
+        for (Endpoint endpoint : Endpoint.values()) {
+            LatencyHistogram latency = latencies.get(endpoint);
+            EndpointStats endpointStats = new EndpointStats();
+            endpointStats.count = latency.getCount();
+            endpointStats.meanMicros = latency.getMeanNanos() / 1e3;
+            endpointStats.p50Micros = latency.getPercentileNanos(50) / 1e3;
+            endpointStats.p99Micros = latency.getPercentileNanos(99) / 1e3;
+            endpointStats.p999Micros = latency.getPercentileNanos(99.9) / 1e3;
+            endpointStats.maxMicros = latency.getMaxNanos() / 1e3;
+            stats.put(endpoint, endpointStats);
+        }
+        return stats;
+    }
+
+    public void resetStats() {
+        for (LatencyHistogram latency : latencies.values())
+            latency.reset();
+    }
+
+    @Override
+    public synchronized void close() {
+        if(server == null)
+            return;
+        server.stop(0);
+        server = null;
+        if(ownExecutor != null) {
+            ownExecutor.shutdownNow();
+            ownExecutor = null;
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        long start = System.nanoTime();
+        Endpoint endpoint = endpoints.get(exchange.getRequestURI().getPath());
+        try {
+            if(endpoint == null) {
+                sendError(exchange, 404, "No such endpoint " + exchange.getRequestURI().getPath(), null);
+                return;
+            }
+            if(!exchange.getRequestMethod().equals("GET")) {
+                exchange.getResponseHeaders().set("Allow", "GET");
+                sendError(exchange, 405, "Only GET is supported", null);
+                return;
+            }
+            this.serve(endpoint, exchange, parseQuery(exchange.getRequestURI().getRawQuery()));
+        } catch (CensusAnalyserException e) {
+            sendError(exchange, e.type.equals(CensusAnalyserException.ExceptionType.NO_CENSUS_DATA) ? 503 : 500,
+                    e.getMessage(), e.type.name());
+        } catch (IllegalArgumentException e) {
+            sendError(exchange, 400, e.getMessage(), null);
+        } catch (RuntimeException e) {
+            // a bug, not a bad request: still answer instead of dropping the connection
+            sendError(exchange, 500, e.toString(), null);
+        } finally {
+            exchange.close();
+            if(endpoint != null)
+                latencies.get(endpoint).record(System.nanoTime() - start);
+        }
+    }
+
+    private void serve(Endpoint endpoint, HttpExchange exchange, Map<String, String> query)
+            throws CensusAnalyserException, IOException {
+        switch (endpoint) {
+            case SORTED:
+                // headers go out with the first bytes, so a query that fails up front can still answer with an error
+                exchange.getResponseHeaders().set("Content-Type", JSON_CONTENT_TYPE);
+                censusAnalyser.writeSortedCensusData(sortField(query), new StreamedBody(exchange));
+                break;
+            case TOP:
+                CensusAnalyser.SortField sortField = sortField(query);
+                CensusAnalyser.SortOrder sortOrder = query.containsKey("order")
+                        ? CensusAnalyser.SortOrder.valueOf(query.get("order").toUpperCase(Locale.ROOT))
+                        : CensusAnalyser.getDefaultSortOrder(sortField);
+                send(exchange, 200, censusAnalyser.getTopK(sortField, intParameter(query, "k"), sortOrder));
+                break;
+            case PAGE:
+                send(exchange, 200, censusAnalyser.getPage(sortField(query), intParameter(query, "offset"),
+                        intParameter(query, "limit")));
+                break;
+            case RANGE:
+                send(exchange, 200, censusAnalyser.getCensusDataInRange(sortField(query),
+                        doubleParameter(query, "min"), doubleParameter(query, "max")));
+                break;
+            case PREFIX:
+                send(exchange, 200, censusAnalyser.getCensusDataWithPrefix(sortField(query), parameter(query, "prefix")));
+                break;
+            case AGGREGATES:
+                CensusAggregator.GroupBy groupBy = query.containsKey("prefixLength")
+                        ? CensusAggregator.stateCodePrefix(intParameter(query, "prefixLength"))
+                        : CensusAggregator.national();
+                send(exchange, 200, censusAnalyser.getAggregates(groupBy, percentiles(query)));
+                break;
+            default:
+                send(exchange, 200, new Gson().toJson(this.getStats()));
+        }
+    }
+
+    private static CensusAnalyser.SortField sortField(Map<String, String> query) {
+        return CensusAnalyser.SortField.valueOf(parameter(query, "field").toUpperCase(Locale.ROOT));
+    }
+
+    private static String parameter(Map<String, String> query, String name) {
+        String value = query.get(name);
+        if(value == null)
+            throw new IllegalArgumentException("Missing query parameter " + name);
+        return value;
+    }
+
+    private static int intParameter(Map<String, String> query, String name) {
+        return Integer.parseInt(parameter(query, name));
+    }
+
+    private static double doubleParameter(Map<String, String> query, String name) {
+        return Double.parseDouble(parameter(query, name));
+    }
+
+    private static double[] percentiles(Map<String, String> query) {
+        if(!query.containsKey("percentiles") || query.get("percentiles").isEmpty())
+            return new double[0];
+        String[] values = query.get("percentiles").split(",");
+        double[] percentiles = new double[values.length];
+        for (int index = 0; index < values.length; index++)
+            percentiles[index] = Double.parseDouble(values[index].trim());
+        return percentiles;
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) throws UnsupportedEncodingException {
+        Map<String, String> query = new HashMap<>();
+        if(rawQuery == null)
+            return query;
+        for (String pair : rawQuery.split("&")) {
+            if(pair.isEmpty())
+                continue;
+            int equals = pair.indexOf('=');
+            String name = URLDecoder.decode(equals < 0 ? pair : pair.substring(0, equals), "UTF-8");
+            query.put(name, equals < 0 ? "" : URLDecoder.decode(pair.substring(equals + 1), "UTF-8"));
+        }
+        return query;
+    }
+
+    private static void send(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", JSON_CONTENT_TYPE);
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream responseBody = exchange.getResponseBody()) {
+            responseBody.write(body);
+        }
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message, String type) throws IOException {
+        if(exchange.getResponseCode() != -1)
+            return;
+        Map<String, String> error = new LinkedHashMap<>();
+        error.put("error", message);
+        if(type != null)
+            error.put("type", type);
+        send(exchange, status, new Gson().toJson(error));
+    }
+
+    private ExecutorService newExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            AtomicInteger threadNumber = new AtomicInteger();
+            ThreadFactory threadFactory = runnable -> {
+                Thread thread = new Thread(runnable, "census-http-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            };
+            return Executors.newFixedThreadPool(Math.max(4, 2 * Runtime.getRuntime().availableProcessors()),
+                    threadFactory);
+        }
+    }
+
+    // Chunked 200 response whose headers are sent with the first write.
+    private static class StreamedBody extends OutputStream {
+        private final HttpExchange exchange;
+        private OutputStream body;
+
+        StreamedBody(HttpExchange exchange) {
+            this.exchange = exchange;
+        }
+
+        @Override
+        public void write(int value) throws IOException {
+            this.body().write(value);
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) throws IOException {
+            this.body().write(buffer, offset, length);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            this.body().flush();
+        }
+
+        private OutputStream body() throws IOException {
+            if(body == null) {
+                exchange.sendResponseHeaders(200, 0);
+                body = exchange.getResponseBody();
+            }
+            return body;
+        }
+    }
+}
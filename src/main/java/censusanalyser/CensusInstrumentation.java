@@ -0,0 +1,21 @@
+package censusanalyser;
+
+// Process-wide CensusMetrics used by the loaders and queries. Off (NOOP) unless the system property
+// censusanalyser.metrics=jmx is set or a sink is installed with setMetrics.
+public class CensusInstrumentation {
+    private static final String METRICS_PROPERTY = "censusanalyser.metrics";
+
+    private static volatile CensusMetrics metrics = "jmx".equalsIgnoreCase(System.getProperty(METRICS_PROPERTY))
+            ? JmxCensusMetrics.register() : CensusMetrics.NOOP;
+
+    private CensusInstrumentation() {
+    }
+
+    public static CensusMetrics getMetrics() {
+        return metrics;
+    }
+
+    public static void setMetrics(CensusMetrics censusMetrics) {
+        metrics = censusMetrics == null ? CensusMetrics.NOOP : censusMetrics;
+    }
+}
@@ -0,0 +1,101 @@
+package censusanalyser;
+
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.Writer;
+
+// Writes census rows in the same JSON shape Gson produces for IndiaCensusCSV / USCensusCSV DTOs,
+// straight from the table columns and without building the DTOs or the whole document in memory.
+public class CensusJsonWriter {
+    private final JsonWriter jsonWriter;
+    private final CensusAnalyser.Country country;
+
+    public CensusJsonWriter(Writer writer, CensusAnalyser.Country country) {
+        this.jsonWriter = new JsonWriter(writer);
+        this.jsonWriter.setHtmlSafe(true);
+        this.country = country;
+    }
+
+    public static void write(Writer writer, CensusTable censusTable, int[] rows, int from, int to,
+                             CensusAnalyser.Country country) throws IOException {
+        write(writer, censusTable, rows, from, to, country, censusTable.getLoadedColumns());
+    }
+
+    // Writes just the given columns, which the caller has loaded; state names are always written.
+    public static void write(Writer writer, CensusTable censusTable, int[] rows, int from, int to,
+                             CensusAnalyser.Country country, CensusProjection columns) throws IOException {
+        CensusJsonWriter censusJsonWriter = new CensusJsonWriter(writer, country);
+        censusJsonWriter.beginArray();
+        for (int index = from; index < to; index++)
+            censusJsonWriter.writeRow(censusTable, rows[index], columns);
+        censusJsonWriter.endArray();
+    }
+
+    public void beginArray() throws IOException {
+        jsonWriter.beginArray();
+    }
+
+    public void endArray() throws IOException {
+        jsonWriter.endArray();
+        jsonWriter.flush();
+    }
+
+    // Columns a projected load has not read yet are left out of the row rather than written as 0. The loaded
+    // columns are read before the values: a column seen as loaded has all its values visible, while one that
+    // another thread may still be filling in is not read at all.
+    public void writeRow(CensusTable censusTable, int row) throws IOException {
+        writeRow(censusTable, row, censusTable.getLoadedColumns());
+    }
+
+    public void writeRow(CensusTable censusTable, int row, CensusProjection columns) throws IOException {
+        boolean hasStateCode = columns.contains(CensusProjection.Column.STATE_CODE);
+        boolean hasPopulation = columns.contains(CensusProjection.Column.POPULATION);
+        boolean hasTotalArea = columns.contains(CensusProjection.Column.TOTAL_AREA);
+        boolean hasPopulationDensity = columns.contains(CensusProjection.Column.POPULATION_DENSITY);
+        writeRow(censusTable.getState(row), hasStateCode ? censusTable.getStateCode(row) : null,
+                hasPopulation ? censusTable.getPopulation(row) : 0, hasTotalArea ? censusTable.getTotalArea(row) : 0,
+                hasPopulationDensity ? censusTable.getPopulationDensity(row) : 0,
+                hasPopulation, hasTotalArea, hasPopulationDensity);
+    }
+
+    public void writeRow(CensusDAO censusDAO) throws IOException {
+        writeRow(censusDAO.state, censusDAO.stateCode, censusDAO.population, censusDAO.totalArea,
+                censusDAO.populationDensity);
+    }
+
+    public void writeRow(String state, String stateCode, int population, double totalArea,
+                         double populationDensity) throws IOException {
+        writeRow(state, stateCode, population, totalArea, populationDensity, true, true, true);
+    }
+
+    private void writeRow(String state, String stateCode, int population, double totalArea, double populationDensity,
+                          boolean hasPopulation, boolean hasTotalArea, boolean hasPopulationDensity) throws IOException {
+        jsonWriter.beginObject();
+        if(country.equals(CensusAnalyser.Country.INDIA)) {
+            writeString("state", state);
+            if(hasPopulation)
+                jsonWriter.name("population").value(population);
+            if(hasTotalArea)
+                jsonWriter.name("areaInSqKm").value((int) totalArea);
+            if(hasPopulationDensity)
+                jsonWriter.name("densityPerSqKm").value((int) populationDensity);
+            writeString("stateCode", stateCode);
+        } else {
+            writeString("stateId", stateCode);
+            writeString("state", state);
+            if(hasPopulation)
+                jsonWriter.name("population").value(population);
+            if(hasTotalArea)
+                jsonWriter.name("totalArea").value(totalArea);
+            if(hasPopulationDensity)
+                jsonWriter.name("populationDensity").value(populationDensity);
+        }
+        jsonWriter.endObject();
+    }
+
+    private void writeString(String name, String value) throws IOException {
+        if(value != null)
+            jsonWriter.name(name).value(value);
+    }
+}
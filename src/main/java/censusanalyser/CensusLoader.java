@@ -2,7 +2,6 @@ package censusanalyser;
 
 import java.io.IOException;
 import java.io.Reader;
-import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -22,20 +21,14 @@ public class CensusLoader {
     private <E> Map<String, CensusDAO> loadCensusData(Class<E> censusCSVClass, String... csvFilePath) throws CensusAnalyserException {
 
         Map<String, CensusDAO> censusStateMap = new HashMap<>();
-        try ( Reader reader = Files.newBufferedReader(Paths.get(csvFilePath[0])))
+        try ( Reader reader = CensusFileReader.open(Paths.get(csvFilePath[0])))
         {
             ICSVBuilder csvBuilder = CSVBuilderFactory.createCSVBuilder();
             Iterator<E> csvFileIterator = csvBuilder.getCSVFileIterator(reader, censusCSVClass);
             Iterable<E> csvIterable = () -> csvFileIterator;
-            if(censusCSVClass.getName().equals("censusanalyser.IndiaCensusCSV")) {
-                StreamSupport.stream(csvIterable.spliterator(), false)
-                              .map(IndiaCensusCSV.class::cast)
-                              .forEach(censusCSV -> censusStateMap.put(censusCSV.state, new CensusDAO(censusCSV)));
-            } else if(censusCSVClass.getName().equals("censusanalyser.USCensusCSV")) {
-                StreamSupport.stream(csvIterable.spliterator(), false)
-                               .map(USCensusCSV.class::cast)
-                               .forEach(censusCSV -> censusStateMap.put(censusCSV.state, new CensusDAO(censusCSV)));
-            }
+            StreamSupport.stream(csvIterable.spliterator(), false)
+                          .map(CensusAdapter::toCensusDAO)
+                          .forEach(censusDAO -> censusStateMap.put(censusDAO.state, censusDAO));
 
             if(csvFilePath.length == 1)
                 return censusStateMap;
@@ -53,23 +46,7 @@ public class CensusLoader {
     }
 
     public Map<String, CensusDAO> loadIndiaStateCode(Map<String, CensusDAO> censusStateMap, String csvFilePath) throws CensusAnalyserException {
-        try ( Reader reader = Files.newBufferedReader(Paths.get(csvFilePath)))
-        {
-            ICSVBuilder csvBuilder = CSVBuilderFactory.createCSVBuilder();
-            Iterator<IndiaStateCodeCSV> csvFileIterator = csvBuilder.getCSVFileIterator(reader, IndiaStateCodeCSV.class);
-            Iterable<IndiaStateCodeCSV> csvIterable = () -> csvFileIterator;
-            StreamSupport.stream(csvIterable.spliterator(),false)
-                    .filter(csvState -> censusStateMap.get(csvState.state) != null)
-                    .forEach(csvState -> censusStateMap.get(csvState.state).stateCode = csvState.stateCode);
-            return censusStateMap;
-        } catch (IOException e) {
-            throw new CensusAnalyserException(e.getMessage(),
-                    CensusAnalyserException.ExceptionType.CENSUS_FILE_PROBLEM);
-        }catch (RuntimeException e) {
-            throw new CensusAnalyserException(e.getMessage(),CensusAnalyserException.ExceptionType.CENSUS_FILE_PROBLEM);
-        } catch (CSVBuilderException e) {
-            throw new CensusAnalyserException(e.getMessage(),e.type.name());
-        }
+        return new IndiaCensusAdapter().loadIndiaStateCode(censusStateMap, csvFilePath);
     }
 
 }
@@ -0,0 +1,36 @@
+package censusanalyser;
+
+// Receives load and query measurements. Loads check isEnabled() once and skip all timing when it is false,
+// so NOOP costs nothing on the hot paths.
+public interface CensusMetrics {
+    enum Stage {LOAD, READ, PARSE, BUILD_DAO, STATE_CODE_INDEX, STATE_CODE_JOIN, SORT, SERIALIZE}
+
+    CensusMetrics NOOP = new CensusMetrics() {
+        public boolean isEnabled() {
+            return false;
+        }
+
+        public void recordStage(Stage stage, long nanos) {
+        }
+
+        public void recordRows(long rows, long bytes) {
+        }
+
+        public void recordRejectedRows(long rows) {
+        }
+
+        public void recordAllocatedBytes(long bytes) {
+        }
+    };
+
+    boolean isEnabled();
+
+    // Called once per load or query with the total time spent in that stage.
+    void recordStage(Stage stage, long nanos);
+
+    void recordRows(long rows, long bytes);
+
+    void recordRejectedRows(long rows);
+
+    void recordAllocatedBytes(long bytes);
+}
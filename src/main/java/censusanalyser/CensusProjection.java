@@ -0,0 +1,111 @@
+package censusanalyser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+// Census columns a load should parse. State names are always read, since rows are keyed by them; every other
+// column can be left out, e.g. forQueries(SortField.POPULATION) reads only states and populations. Columns left
+// out stay unparsed until the loaded CensusTable needs them; a sort or top-k on the table reads just its own
+// column, and only CensusAnalyser's sorted dumps, which write whole rows, read them all.
+public class CensusProjection {
+    public enum Column {STATE_CODE, POPULATION, TOTAL_AREA, POPULATION_DENSITY}
+
+    private static final CensusProjection ALL = new CensusProjection(EnumSet.allOf(Column.class));
+
+    private final Set<Column> columns;
+
+    private CensusProjection(Set<Column> columns) {
+        this.columns = Collections.unmodifiableSet(columns);
+    }
+
+    public static CensusProjection all() {
+        return ALL;
+    }
+
+    public static CensusProjection of(Column... columns) {
+        EnumSet<Column> projected = EnumSet.noneOf(Column.class);
+        projected.addAll(Arrays.asList(columns));
+        return new CensusProjection(projected);
+    }
+
+    // Columns that sorting, ranking or filtering on the given fields reads.
+    public static CensusProjection forQueries(CensusAnalyser.SortField... sortFields) {
+        EnumSet<Column> projected = EnumSet.noneOf(Column.class);
+        for (CensusAnalyser.SortField sortField : sortFields) {
+            Column column = column(sortField);
+            if(column != null)
+                projected.add(column);
+        }
+        return new CensusProjection(projected);
+    }
+
+    // Column a sort field reads, or null for state names, which are always loaded.
+    public static Column column(CensusAnalyser.SortField sortField) {
+        switch (sortField) {
+            case STATE_CODE:
+                return Column.STATE_CODE;
+            case POPULATION:
+                return Column.POPULATION;
+            case POPULATION_DENSITY:
+                return Column.POPULATION_DENSITY;
+            case AREA:
+                return Column.TOTAL_AREA;
+            default:
+                return null;
+        }
+    }
+
+    public CensusProjection with(CensusProjection other) {
+        EnumSet<Column> projected = EnumSet.noneOf(Column.class);
+        projected.addAll(columns);
+        projected.addAll(other.columns);
+        return new CensusProjection(projected);
+    }
+
+    public boolean contains(Column column) {
+        return columns.contains(column);
+    }
+
+    public boolean isAll() {
+        return columns.size() == Column.values().length;
+    }
+
+    public Set<Column> getColumns() {
+        return columns;
+    }
+
+    // Headers of the state column and the projected columns in a file of the given CSV class.
+    List<String> getHeaders(Class<?> censusCSVClass) {
+        List<String> headers = new ArrayList<>();
+        headers.add("State");
+        boolean india = censusCSVClass.equals(IndiaCensusCSV.class);
+        if(!india && contains(Column.STATE_CODE))
+            headers.add("State Id");
+        if(contains(Column.POPULATION))
+            headers.add("Population");
+        if(contains(Column.TOTAL_AREA))
+            headers.add(india ? "AreaInSqKm" : "Total area");
+        if(contains(Column.POPULATION_DENSITY))
+            headers.add(india ? "DensityPerSqKm" : "Population Density");
+        return headers;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof CensusProjection && columns.equals(((CensusProjection) other).columns);
+    }
+
+    @Override
+    public int hashCode() {
+        return columns.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return columns.toString();
+    }
+}
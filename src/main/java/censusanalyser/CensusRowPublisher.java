@@ -0,0 +1,219 @@
+package censusanalyser;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Streams the rows of a census file to a Reactive Streams subscriber as they are parsed, instead of collecting
+// them into a map first. Every subscription parses the file again on its own producer, in batches that start
+// small (so the first row arrives quickly) and grow to prefetch / 4 rows. At most four batches wait for demand,
+// so a slow subscriber holds the parser back instead of letting rows pile up. Rows are not de-duplicated by
+// state, and India rows get their state code when the state code file is given.
+public class CensusRowPublisher implements Publisher<CensusDAO> {
+    private static final int QUEUED_BATCHES = 4;
+    private static final int FIRST_BATCH_SIZE = 16;
+    private static final Object COMPLETE = new Object();
+
+    private final CensusAnalyser.Country country;
+    private final String[] csvFilePath;
+    private int prefetch = 1024;
+    private Executor executor;
+
+    public CensusRowPublisher(CensusAnalyser.Country country, String... csvFilePath) throws CensusAnalyserException {
+        if(!country.equals(CensusAnalyser.Country.INDIA) && !country.equals(CensusAnalyser.Country.US))
+            throw new CensusAnalyserException("Unknown Country", CensusAnalyserException.ExceptionType.INVALID_COUNTRY);
+        this.country = country;
+        this.csvFilePath = csvFilePath;
+    }
+
+    public void setPrefetch(int prefetch) {
+        if(prefetch < 1)
+            throw new IllegalArgumentException("prefetch must be positive: " + prefetch);
+        this.prefetch = prefetch;
+    }
+
+    // Runs each subscription's parser; by default every subscription gets its own daemon thread.
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super CensusDAO> subscriber) {
+        if(subscriber == null)
+            throw new NullPointerException("subscriber");
+        RowSubscription subscription = new RowSubscription(subscriber, Math.max(1, prefetch / QUEUED_BATCHES));
+        subscriber.onSubscribe(subscription);
+        Executor executor = this.executor;
+        try {
+            if(executor != null) {
+                executor.execute(subscription::produce);
+            } else {
+                Thread producer = new Thread(subscription::produce, "census-row-publisher");
+                producer.setDaemon(true);
+                producer.start();
+            }
+        } catch (Throwable e) {
+            // e.g. a RejectedExecutionException: no producer will ever run, so fail the subscription now
+            subscription.hand(e);
+        }
+    }
+
+    private class RowSubscription implements Subscription {
+        private final Subscriber<? super CensusDAO> subscriber;
+        private final int batchSize;
+        private final BlockingQueue<Object> batches = new ArrayBlockingQueue<>(QUEUED_BATCHES);
+        private final AtomicLong requested = new AtomicLong();
+        private final AtomicInteger wip = new AtomicInteger();
+        private volatile boolean cancelled;
+        private volatile Throwable invalidRequest;
+        // only touched inside drain, which never runs on two threads at once
+        private List<CensusDAO> current;
+        private int index;
+        private boolean done;
+
+        RowSubscription(Subscriber<? super CensusDAO> subscriber, int batchSize) {
+            this.subscriber = subscriber;
+            this.batchSize = batchSize;
+        }
+
+        @Override
+        public void request(long n) {
+            if(n <= 0) {
+                invalidRequest = new IllegalArgumentException("Requested " + n + " rows, must be positive");
+            } else {
+                long current;
+                do {
+                    current = requested.get();
+                    if(current == Long.MAX_VALUE)
+                        break;
+                } while (!requested.compareAndSet(current, current + n < 0 ? Long.MAX_VALUE : current + n));
+            }
+            this.drain();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            batches.clear();
+        }
+
+        void produce() {
+            try (Reader reader = CensusFileReader.open(Paths.get(csvFilePath[0]))) {
+                HashJoinIndex<IndiaStateCodeCSV> stateCodeIndex = country.equals(CensusAnalyser.Country.INDIA)
+                        && csvFilePath.length > 1 ? new IndiaCensusAdapter().loadIndiaStateCodeIndex(csvFilePath[1]) : null;
+                Class<?> censusCSVClass = country.equals(CensusAnalyser.Country.INDIA) ? IndiaCensusCSV.class : USCensusCSV.class;
+                Iterator<?> csvFileIterator = CSVBuilderFactory.createCSVBuilder().getCSVFileIterator(reader, censusCSVClass);
+                int size = Math.min(FIRST_BATCH_SIZE, batchSize);
+                List<CensusDAO> batch = new ArrayList<>(size);
+                while (!cancelled && csvFileIterator.hasNext()) {
+                    CensusDAO censusDAO = CensusAdapter.toCensusDAO(csvFileIterator.next());
+                    if(stateCodeIndex != null) {
+                        IndiaStateCodeCSV stateCodeCSV = stateCodeIndex.probe(censusDAO.state);
+                        if(stateCodeCSV != null)
+                            censusDAO.stateCode = stateCodeCSV.stateCode;
+                    }
+                    batch.add(censusDAO);
+                    if(batch.size() == size) {
+                        if(!this.hand(batch))
+                            return;
+                        size = Math.min(size * 2, batchSize);
+                        batch = new ArrayList<>(size);
+                    }
+                }
+                if(!batch.isEmpty() && !this.hand(batch))
+                    return;
+                this.hand(COMPLETE);
+            } catch (IOException e) {
+                this.hand(new CensusAnalyserException(e.getMessage(),
+                        CensusAnalyserException.ExceptionType.CENSUS_FILE_PROBLEM, e));
+            } catch (RuntimeException e) {
+                this.hand(new CensusAnalyserException(e.getMessage(),
+                        CensusAnalyserException.ExceptionType.CENSUS_FILE_PROBLEM, e));
+            } catch (CSVBuilderException e) {
+                this.hand(new CensusAnalyserException(e.getMessage(), e.type.name()));
+            } catch (Throwable e) {
+                // CensusAnalyserException as it is, and Errors too, so the subscriber is never left waiting
+                this.hand(e);
+            }
+        }
+
+        // Waits for room in the queue; false once the subscriber has cancelled.
+        private boolean hand(Object batch) {
+            try {
+                while (!cancelled) {
+                    if(batches.offer(batch, 100, TimeUnit.MILLISECONDS)) {
+                        this.drain();
+                        return true;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return false;
+        }
+
+        // Emits queued rows while there is demand. Whichever thread gets here first (the producer after queueing
+        // a batch, or the subscriber in request) emits for both, so signals are never concurrent.
+        @SuppressWarnings("unchecked")
+        private void drain() {
+            if(wip.getAndIncrement() != 0)
+                return;
+            int missed = 1;
+            do {
+                if(done || cancelled) {
+                    batches.clear();
+                } else if(invalidRequest != null) {
+                    this.terminate(invalidRequest);
+                } else {
+                    long demand = requested.get();
+                    long emitted = 0;
+                    while (!cancelled) {
+                        if(current != null && index < current.size()) {
+                            if(emitted == demand)
+                                break;
+                            subscriber.onNext(current.get(index++));
+                            emitted++;
+                            continue;
+                        }
+                        Object next = batches.peek();
+                        if(next == null)
+                            break;
+                        if(next == COMPLETE || next instanceof Throwable) {
+                            this.terminate(next);
+                            break;
+                        }
+                        batches.poll();
+                        current = (List<CensusDAO>) next;
+                        index = 0;
+                    }
+                    if(emitted != 0 && demand != Long.MAX_VALUE)
+                        requested.addAndGet(-emitted);
+                }
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void terminate(Object signal) {
+            done = true;
+            cancelled = true;
+            batches.clear();
+            if(signal == COMPLETE)
+                subscriber.onComplete();
+            else
+                subscriber.onError((Throwable) signal);
+        }
+    }
+}
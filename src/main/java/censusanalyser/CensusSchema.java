@@ -0,0 +1,224 @@
+package censusanalyser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+
+// Declarative mapping of one country's census file onto CensusDAO, read from a properties file such as
+// censusschema/us.properties:
+//
+//   format=US                     layout of query results (INDIA or US)
+//   delimiter=,
+//   state.column=State            header of the column that feeds the CensusDAO field
+//   stateCode.required=false      the column may be missing from the file; empty codes are read as no code
+//   totalArea.unit=SQ_MI          converted to square kilometres while parsing
+//   population.scale=1000         plain multiplier, e.g. for populations given in thousands
+//
+// state, population and totalArea need a column; populationDensity is derived from population and totalArea
+// when it has none. The schema is compiled once into a CSVSchema whose setters are lambdas picked per field and
+// conversion, so rows bind without reflection, the same way as the hand-written schemas in CSVSchemas.
+//
+// A schema maps a single file. It cannot join a lookup table, so a country whose codes live in a second file
+// (India's state code file) loads without state codes here; load it through its own adapter to get them.
+public class CensusSchema {
+    public enum Unit {
+        SQ_KM(1, false), SQ_MI(2.589988110336, false), HECTARE(0.01, false),
+        PER_SQ_KM(1, true), PER_SQ_MI(1 / 2.589988110336, true), PER_HECTARE(100, true);
+
+        final double toMetric;
+        final boolean density;
+
+        Unit(double toMetric, boolean density) {
+            this.toMetric = toMetric;
+            this.density = density;
+        }
+    }
+
+    private static final String RESOURCE_DIRECTORY = "censusschema/";
+    private static final List<String> FIELDS = Arrays.asList("state", "stateCode", "population", "totalArea",
+            "populationDensity");
+    private static final List<String> FIELD_OPTIONS = Arrays.asList("column", "required", "unit", "scale");
+
+    private final String name;
+    private final CensusAnalyser.Country format;
+    private final char delimiter;
+    private final CSVSchema<CensusDAO> csvSchema;
+    private final Map<String, String> columns;
+    private final boolean derivedDensity;
+
+    private CensusSchema(String name, CensusAnalyser.Country format, char delimiter, CSVSchema<CensusDAO> csvSchema,
+                         Map<String, String> columns, boolean derivedDensity) {
+        this.name = name;
+        this.format = format;
+        this.delimiter = delimiter;
+        this.csvSchema = csvSchema;
+        this.columns = columns;
+        this.derivedDensity = derivedDensity;
+    }
+
+    public static CensusSchema load(Path schemaFile) throws CensusAnalyserException {
+        try (Reader reader = Files.newBufferedReader(schemaFile, StandardCharsets.UTF_8)) {
+            Properties properties = new Properties();
+            properties.load(reader);
+            String fileName = schemaFile.getFileName().toString();
+            return compile(fileName.endsWith(".properties") ? fileName.substring(0, fileName.length() - 11) : fileName,
+                    properties);
+        } catch (IOException e) {
+            throw new CensusAnalyserException(e.getMessage(), CensusAnalyserException.ExceptionType.INVALID_SCHEMA, e);
+        }
+    }
+
+    // Schemas shipped on the classpath under censusschema/, e.g. fromResource("india").
+    public static CensusSchema fromResource(String name) throws CensusAnalyserException {
+        try (InputStream input = CensusSchema.class.getClassLoader()
+                .getResourceAsStream(RESOURCE_DIRECTORY + name + ".properties")) {
+            if(input == null)
+                throw new CensusAnalyserException("No census schema named " + name,
+                        CensusAnalyserException.ExceptionType.INVALID_SCHEMA);
+            Properties properties = new Properties();
+            properties.load(new InputStreamReader(input, StandardCharsets.UTF_8));
+            return compile(name, properties);
+        } catch (IOException e) {
+            throw new CensusAnalyserException(e.getMessage(), CensusAnalyserException.ExceptionType.INVALID_SCHEMA, e);
+        }
+    }
+
+    public static CensusSchema compile(String name, Properties properties) throws CensusAnalyserException {
+        for (String key : properties.stringPropertyNames()) {
+            int dot = key.indexOf('.');
+            boolean known = dot < 0 ? key.equals("format") || key.equals("delimiter")
+                    : FIELDS.contains(key.substring(0, dot)) && FIELD_OPTIONS.contains(key.substring(dot + 1));
+            if(!known)
+                throw invalid(name, "unknown key " + key);
+        }
+        CensusAnalyser.Country format;
+        try {
+            format = CensusAnalyser.Country.valueOf(properties.getProperty("format", "US").trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw invalid(name, "unknown format " + properties.getProperty("format"));
+        }
+        String delimiter = properties.getProperty("delimiter", ",");
+        if(delimiter.length() != 1)
+            throw invalid(name, "delimiter must be one character");
+
+        CSVSchema<CensusDAO> csvSchema = new CSVSchema<>(() -> new CensusDAO(null, null, 0, 0, 0));
+        Map<String, String> columns = new HashMap<>();
+        for (String field : FIELDS) {
+            String column = properties.getProperty(field + ".column");
+            if(column == null) {
+                if(!field.equals("stateCode") && !field.equals("populationDensity"))
+                    throw invalid(name, field + ".column is required");
+                continue;
+            }
+            columns.put(field, column.trim());
+            boolean required = Boolean.parseBoolean(properties.getProperty(field + ".required", "true"));
+            csvSchema.column(column.trim(), required, setter(name, field, conversion(name, field, properties)));
+        }
+        return new CensusSchema(name, format, delimiter.charAt(0), csvSchema, columns,
+                properties.getProperty("populationDensity.column") == null);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public CensusAnalyser.Country getFormat() {
+        return format;
+    }
+
+    char getDelimiter() {
+        return delimiter;
+    }
+
+    CSVSchema<CensusDAO> getCSVSchema() {
+        return csvSchema;
+    }
+
+    // Columns feeding the state field and the projected fields; a derived density needs population and area.
+    CSVSchema<CensusDAO> getCSVSchema(CensusProjection projection) {
+        if(projection.isAll())
+            return csvSchema;
+        boolean density = projection.contains(CensusProjection.Column.POPULATION_DENSITY);
+        List<String> projected = new ArrayList<>();
+        projected.add(columns.get("state"));
+        if(projection.contains(CensusProjection.Column.STATE_CODE) && columns.containsKey("stateCode"))
+            projected.add(columns.get("stateCode"));
+        if(projection.contains(CensusProjection.Column.POPULATION) || density && derivedDensity)
+            projected.add(columns.get("population"));
+        if(projection.contains(CensusProjection.Column.TOTAL_AREA) || density && derivedDensity)
+            projected.add(columns.get("totalArea"));
+        if(density && !derivedDensity)
+            projected.add(columns.get("populationDensity"));
+        return csvSchema.project(projected);
+    }
+
+    // Fills in what the setters cannot: the derived density once population and area are both known.
+    CensusDAO complete(CensusDAO censusDAO) {
+        if(derivedDensity && censusDAO.totalArea > 0)
+            censusDAO.populationDensity = censusDAO.population / censusDAO.totalArea;
+        return censusDAO;
+    }
+
+    private static double conversion(String name, String field, Properties properties) throws CensusAnalyserException {
+        double factor;
+        try {
+            factor = Double.parseDouble(properties.getProperty(field + ".scale", "1").trim());
+        } catch (NumberFormatException e) {
+            throw invalid(name, field + ".scale is not a number");
+        }
+        String unitName = properties.getProperty(field + ".unit");
+        if(unitName == null)
+            return factor;
+        if(!field.equals("totalArea") && !field.equals("populationDensity"))
+            throw invalid(name, field + " has no unit");
+        Unit unit;
+        try {
+            unit = Unit.valueOf(unitName.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw invalid(name, "unknown unit " + unitName);
+        }
+        if(unit.density != field.equals("populationDensity"))
+            throw invalid(name, unit + " is not a unit of " + field);
+        return factor * unit.toMetric;
+    }
+
+    // Conversions are decided here, once, so the common unconverted columns cost no multiply per row.
+    private static CSVFieldSetter<CensusDAO> setter(String name, String field, double factor) throws CensusAnalyserException {
+        switch (field) {
+            case "state":
+                return (censusDAO, row, column) -> censusDAO.state = row.getString(column);
+            case "stateCode":
+                return (censusDAO, row, column) -> censusDAO.stateCode = row.isEmpty(column) ? null : row.getString(column);
+            case "population":
+                if(factor == 1)
+                    return (censusDAO, row, column) -> censusDAO.population = row.getInt(column);
+                return (censusDAO, row, column) -> censusDAO.population = (int) Math.round(row.getDouble(column) * factor);
+            case "totalArea":
+                if(factor == 1)
+                    return (censusDAO, row, column) -> censusDAO.totalArea = row.getDouble(column);
+                return (censusDAO, row, column) -> censusDAO.totalArea = row.getDouble(column) * factor;
+            case "populationDensity":
+                if(factor == 1)
+                    return (censusDAO, row, column) -> censusDAO.populationDensity = row.getDouble(column);
+                return (censusDAO, row, column) -> censusDAO.populationDensity = row.getDouble(column) * factor;
+            default:
+                throw invalid(name, "unknown field " + field);
+        }
+    }
+
+    private static CensusAnalyserException invalid(String name, String problem) {
+        return new CensusAnalyserException("Census schema " + name + ": " + problem,
+                CensusAnalyserException.ExceptionType.INVALID_SCHEMA);
+    }
+}
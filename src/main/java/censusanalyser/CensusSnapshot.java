@@ -0,0 +1,193 @@
+package censusanalyser;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+// Versioned binary image of a CensusTable. Layout (little endian):
+//   header  magic, version, country, rows, states, state codes, payload length, CRC32 of header and payload
+//   payload int[rows] population, state ids, state code ids, padding to 8 bytes,
+//           double[rows] total area, population density,
+//           per dictionary: int[entries + 1] offsets, UTF-8 bytes, padding to 8 bytes
+// Opening maps the file, checks the checksum and that every size in it fits the file before allocating anything,
+// and bulk-copies the numeric columns;
+// dictionary strings stay in the mapped buffer and are decoded on first use. An opened snapshot is the
+// file's content, table and country; what CensusAnalyser publishes to its queries is a LoadedCensus.
+public class CensusSnapshot {
+    public static final int MAGIC = 0x53534E43;
+    public static final int VERSION = 2;
+    private static final int HEADER_SIZE = 40;
+    private static final int CRC_OFFSET = 32;
+
+    private final CensusAnalyser.Country country;
+    private final CensusTable censusTable;
+
+    CensusSnapshot(CensusAnalyser.Country country, CensusTable censusTable) {
+        this.country = country;
+        this.censusTable = censusTable;
+    }
+
+    public CensusAnalyser.Country getCountry() {
+        return country;
+    }
+
+    public CensusTable getCensusTable() {
+        return censusTable;
+    }
+
+    public static void write(CensusTable censusTable, CensusAnalyser.Country country, Path snapshotFile) throws IOException {
+        int rows = censusTable.size();
+        byte[][] states = encode(censusTable.getStates());
+        byte[][] stateCodes = encode(censusTable.getStateCodes());
+        long payloadLength = align(12L * rows) + 16L * rows + dictionaryLength(states) + dictionaryLength(stateCodes);
+        if(HEADER_SIZE + payloadLength > Integer.MAX_VALUE)
+            throw new IOException("Census table too large for a single snapshot: " + payloadLength + " bytes");
+        ByteBuffer buffer = ByteBuffer.allocate((int) (HEADER_SIZE + payloadLength)).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.position(HEADER_SIZE);
+        buffer.asIntBuffer().put(censusTable.getPopulationColumn(), 0, rows);
+        buffer.position(buffer.position() + 4 * rows);
+        buffer.asIntBuffer().put(censusTable.getStateIdColumn(), 0, rows);
+        buffer.position(buffer.position() + 4 * rows);
+        buffer.asIntBuffer().put(censusTable.getStateCodeIdColumn(), 0, rows);
+        buffer.position((int) align(buffer.position() + 4L * rows));
+        buffer.asDoubleBuffer().put(censusTable.getTotalAreaColumn(), 0, rows);
+        buffer.position(buffer.position() + 8 * rows);
+        buffer.asDoubleBuffer().put(censusTable.getPopulationDensityColumn(), 0, rows);
+        buffer.position(buffer.position() + 8 * rows);
+        putDictionary(buffer, states);
+        putDictionary(buffer, stateCodes);
+
+        buffer.putInt(0, MAGIC)
+                .putInt(4, VERSION)
+                .putInt(8, country == null ? -1 : country.ordinal())
+                .putInt(12, rows)
+                .putInt(16, states.length)
+                .putInt(20, stateCodes.length)
+                .putLong(24, payloadLength);
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, CRC_OFFSET);
+        crc.update(buffer.array(), HEADER_SIZE, (int) payloadLength);
+        buffer.putLong(CRC_OFFSET, crc.getValue());
+
+        Path partialFile = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+        Files.write(partialFile, buffer.array());
+        Files.move(partialFile, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public static CensusSnapshot open(Path snapshotFile) throws IOException {
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(snapshotFile, StandardOpenOption.READ)) {
+            if(channel.size() < HEADER_SIZE)
+                throw new IOException("Not a census snapshot: " + snapshotFile);
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        if(buffer.getInt(0) != MAGIC)
+            throw new IOException("Not a census snapshot: " + snapshotFile);
+        if(buffer.getInt(4) != VERSION)
+            throw new IOException("Unsupported census snapshot version " + buffer.getInt(4) + ", expected " + VERSION);
+        long payloadLength = buffer.getLong(24);
+        if(HEADER_SIZE + payloadLength != buffer.capacity())
+            throw new IOException("Truncated census snapshot: " + snapshotFile);
+        CRC32 crc = new CRC32();
+        ByteBuffer checksummed = buffer.duplicate();
+        checksummed.limit(CRC_OFFSET);
+        crc.update(checksummed);
+        checksummed.limit(checksummed.capacity()).position(HEADER_SIZE);
+        crc.update(checksummed);
+        if(crc.getValue() != buffer.getLong(CRC_OFFSET))
+            throw new IOException("Census snapshot checksum mismatch: " + snapshotFile);
+        int countryOrdinal = buffer.getInt(8);
+        int rows = buffer.getInt(12);
+        int stateCount = buffer.getInt(16);
+        int stateCodeCount = buffer.getInt(20);
+        // a matching checksum does not make the sizes sane, e.g. for a file written by something else
+        if(countryOrdinal < -1 || countryOrdinal >= CensusAnalyser.Country.values().length || rows < 0
+                || stateCount < 0 || stateCodeCount < 0
+                || align(12L * rows) + 16L * rows + 4L * (stateCount + 1) + 4L * (stateCodeCount + 1) > payloadLength)
+            throw new IOException("Corrupt census snapshot header: " + snapshotFile);
+
+        buffer.position(HEADER_SIZE);
+        int[] population = new int[rows];
+        int[] stateIds = new int[rows];
+        int[] stateCodeIds = new int[rows];
+        double[] totalArea = new double[rows];
+        double[] populationDensity = new double[rows];
+        buffer.asIntBuffer().get(population);
+        buffer.position(buffer.position() + 4 * rows);
+        buffer.asIntBuffer().get(stateIds);
+        buffer.position(buffer.position() + 4 * rows);
+        buffer.asIntBuffer().get(stateCodeIds);
+        buffer.position((int) align(buffer.position() + 4L * rows));
+        buffer.asDoubleBuffer().get(totalArea);
+        buffer.position(buffer.position() + 8 * rows);
+        buffer.asDoubleBuffer().get(populationDensity);
+        buffer.position(buffer.position() + 8 * rows);
+        StringDictionary states = getDictionary(buffer, stateCount, snapshotFile);
+        StringDictionary stateCodes = getDictionary(buffer, stateCodeCount, snapshotFile);
+        if(buffer.position() != buffer.capacity() || !allIn(stateIds, 0, stateCount)
+                || !allIn(stateCodeIds, StringDictionary.NULL_ID, stateCodeCount))
+            throw new IOException("Corrupt census snapshot: " + snapshotFile);
+        CensusAnalyser.Country country = countryOrdinal < 0 ? null : CensusAnalyser.Country.values()[countryOrdinal];
+        return new CensusSnapshot(country, new CensusTable(rows, population, totalArea, populationDensity,
+                stateIds, stateCodeIds, states, stateCodes));
+    }
+
+    private static byte[][] encode(StringDictionary dictionary) {
+        byte[][] values = new byte[dictionary.size()][];
+        for (int id = 0; id < values.length; id++)
+            values[id] = dictionary.decode(id).getBytes(StandardCharsets.UTF_8);
+        return values;
+    }
+
+    private static long dictionaryLength(byte[][] values) {
+        long length = 4L * (values.length + 1);
+        for (byte[] value : values)
+            length += value.length;
+        return align(length);
+    }
+
+    private static void putDictionary(ByteBuffer buffer, byte[][] values) {
+        int offset = 0;
+        buffer.putInt(offset);
+        for (byte[] value : values)
+            buffer.putInt(offset += value.length);
+        for (byte[] value : values)
+            buffer.put(value);
+        buffer.position((int) align(buffer.position()));
+    }
+
+    // Offsets must fit the file, ascend from 0 and point inside it.
+    private static StringDictionary getDictionary(ByteBuffer buffer, int entries, Path snapshotFile) throws IOException {
+        if(4L * (entries + 1) > buffer.remaining())
+            throw new IOException("Corrupt census snapshot dictionary: " + snapshotFile);
+        int[] offsets = new int[entries + 1];
+        buffer.asIntBuffer().get(offsets);
+        buffer.position(buffer.position() + 4 * offsets.length);
+        if(offsets[0] != 0 || offsets[entries] > buffer.remaining())
+            throw new IOException("Corrupt census snapshot dictionary: " + snapshotFile);
+        for (int entry = 0; entry < entries; entry++)
+            if(offsets[entry + 1] < offsets[entry])
+                throw new IOException("Corrupt census snapshot dictionary: " + snapshotFile);
+        ByteBuffer encodedValues = buffer.slice();
+        buffer.position((int) Math.min(buffer.capacity(), align(buffer.position() + (long) offsets[entries])));
+        return new StringDictionary(encodedValues, offsets);
+    }
+
+    private static boolean allIn(int[] ids, int min, int end) {
+        for (int id : ids)
+            if(id < min || id >= end)
+                return false;
+        return true;
+    }
+
+    private static long align(long position) {
+        return (position + 7) & ~7L;
+    }
+}
@@ -0,0 +1,534 @@
+package censusanalyser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.IntFunction;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+// Column-oriented store for loaded census rows: one primitive array per metric and dictionary-encoded
+// state / state code columns. CensusDAO objects are only created when rows are asked for. Columns that a
+// projected load skipped are read in the first time a sort, a row or a column array needs them; until then
+// the per-row getters return 0 (or no state code) for them. Filling a column in publishes it through isLoaded,
+// so code that may run while another thread fills it checks isLoaded before reading its values.
+public class CensusTable {
+    // Reads the given columns of the same file again, keyed by state like the load that built the table.
+    interface ColumnLoader {
+        Map<String, CensusDAO> load(CensusProjection projection) throws CensusAnalyserException;
+    }
+
+    private final int size;
+    private final int[] population;
+    private final double[] totalArea;
+    private final double[] populationDensity;
+    private final int[] stateIds;
+    private final int[] stateCodeIds;
+    private final StringDictionary states;
+    private StringDictionary stateCodes;
+    private volatile Set<CensusProjection.Column> missingColumns = Collections.emptySet();
+    private CensusProjection projection = CensusProjection.all();
+    private ColumnLoader columnLoader;
+    private final AtomicReferenceArray<int[]> sortOrders =
+            new AtomicReferenceArray<>(CensusAnalyser.SortField.values().length);
+    private final AtomicReferenceArray<int[]> dictionaryRanks = new AtomicReferenceArray<>(2);
+
+    private CensusTable(Builder builder) {
+        this(builder.size, Arrays.copyOf(builder.population, builder.size), Arrays.copyOf(builder.totalArea, builder.size),
+                Arrays.copyOf(builder.populationDensity, builder.size), Arrays.copyOf(builder.stateIds, builder.size),
+                Arrays.copyOf(builder.stateCodeIds, builder.size), builder.states.freeze(), builder.stateCodes.freeze());
+    }
+
+    CensusTable(int size, int[] population, double[] totalArea, double[] populationDensity, int[] stateIds,
+                int[] stateCodeIds, StringDictionary states, StringDictionary stateCodes) {
+        this.size = size;
+        this.population = population;
+        this.totalArea = totalArea;
+        this.populationDensity = populationDensity;
+        this.stateIds = stateIds;
+        this.stateCodeIds = stateCodeIds;
+        this.states = states;
+        this.stateCodes = stateCodes;
+    }
+
+    public static CensusTable from(Map<String, CensusDAO> censusStateMap) {
+        return from(censusStateMap.values());
+    }
+
+    public static CensusTable from(Collection<CensusDAO> censusDAOs) {
+        Builder builder = new Builder(censusDAOs.size());
+        censusDAOs.forEach(builder::add);
+        return builder.build();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Marks the columns a projected load left out, to be read through columnLoader when first needed.
+    void setMissingColumns(CensusProjection loaded, ColumnLoader columnLoader) {
+        Set<CensusProjection.Column> missing = EnumSet.allOf(CensusProjection.Column.class);
+        missing.removeAll(loaded.getColumns());
+        this.projection = loaded;
+        this.columnLoader = columnLoader;
+        this.missingColumns = Collections.unmodifiableSet(missing);
+    }
+
+    // Columns the load that built this table parsed; others may have been read in since.
+    public CensusProjection getProjection() {
+        return projection;
+    }
+
+    public boolean isLoaded(CensusProjection.Column column) {
+        return !missingColumns.contains(column);
+    }
+
+    // Columns loaded right now, read at one point so that every row written with them has the same fields.
+    public CensusProjection getLoadedColumns() {
+        Set<CensusProjection.Column> loaded = EnumSet.allOf(CensusProjection.Column.class);
+        loaded.removeAll(missingColumns);
+        return CensusProjection.of(loaded.toArray(new CensusProjection.Column[0]));
+    }
+
+    // Reads whichever columns of the projection are still missing, in one pass over the file. Rows the second
+    // read does not find (the file changed in between) keep 0 and no state code.
+    public void loadColumns(CensusProjection projection) throws CensusAnalyserException {
+        if(Collections.disjoint(missingColumns, projection.getColumns()))
+            return;
+        synchronized (this) {
+            Set<CensusProjection.Column> loading = EnumSet.noneOf(CensusProjection.Column.class);
+            for (CensusProjection.Column column : projection.getColumns())
+                if(missingColumns.contains(column))
+                    loading.add(column);
+            if(loading.isEmpty())
+                return;
+            Map<String, CensusDAO> censusStateMap = columnLoader.load(
+                    CensusProjection.of(loading.toArray(new CensusProjection.Column[0])));
+            StringDictionary loadedStateCodes = loading.contains(CensusProjection.Column.STATE_CODE)
+                    ? new StringDictionary() : null;
+            for (int row = 0; row < size; row++) {
+                CensusDAO censusDAO = censusStateMap.get(getState(row));
+                if(censusDAO == null)
+                    continue;
+                if(loading.contains(CensusProjection.Column.POPULATION))
+                    population[row] = censusDAO.population;
+                if(loading.contains(CensusProjection.Column.TOTAL_AREA))
+                    totalArea[row] = censusDAO.totalArea;
+                if(loading.contains(CensusProjection.Column.POPULATION_DENSITY))
+                    populationDensity[row] = censusDAO.populationDensity;
+                if(loadedStateCodes != null)
+                    stateCodeIds[row] = loadedStateCodes.encode(censusDAO.stateCode);
+            }
+            if(loadedStateCodes != null)
+                stateCodes = loadedStateCodes.freeze();
+            Set<CensusProjection.Column> missing = EnumSet.noneOf(CensusProjection.Column.class);
+            missing.addAll(missingColumns);
+            missing.removeAll(loading);
+            missingColumns = Collections.unmodifiableSet(missing);
+        }
+    }
+
+    private void ensureLoaded(CensusProjection projection) {
+        try {
+            loadColumns(projection);
+        } catch (CensusAnalyserException e) {
+            throw new IllegalStateException("Could not load census columns " + projection + ": " + e.getMessage(), e);
+        }
+    }
+
+    private void ensureLoaded(CensusProjection.Column column) {
+        if(column != null && missingColumns.contains(column))
+            ensureLoaded(CensusProjection.of(column));
+    }
+
+    public int getPopulation(int row) {
+        return population[row];
+    }
+
+    public double getTotalArea(int row) {
+        return totalArea[row];
+    }
+
+    public double getPopulationDensity(int row) {
+        return populationDensity[row];
+    }
+
+    public String getState(int row) {
+        return states.decode(stateIds[row]);
+    }
+
+    public String getStateCode(int row) {
+        return stateCodes.decode(stateCodeIds[row]);
+    }
+
+    int[] getPopulationColumn() {
+        ensureLoaded(CensusProjection.Column.POPULATION);
+        return population;
+    }
+
+    double[] getTotalAreaColumn() {
+        ensureLoaded(CensusProjection.Column.TOTAL_AREA);
+        return totalArea;
+    }
+
+    double[] getPopulationDensityColumn() {
+        ensureLoaded(CensusProjection.Column.POPULATION_DENSITY);
+        return populationDensity;
+    }
+
+    int[] getStateIdColumn() {
+        return stateIds;
+    }
+
+    int[] getStateCodeIdColumn() {
+        ensureLoaded(CensusProjection.Column.STATE_CODE);
+        return stateCodeIds;
+    }
+
+    StringDictionary getStates() {
+        return states;
+    }
+
+    StringDictionary getStateCodes() {
+        ensureLoaded(CensusProjection.Column.STATE_CODE);
+        return stateCodes;
+    }
+
+    // Rough retained size: the primitive columns plus the dictionary strings.
+    public long estimateHeapBytes() {
+        return 64L + size * 28L + states.estimateHeapBytes() + stateCodes.estimateHeapBytes();
+    }
+
+    public CensusDAO getCensusDAO(int row) {
+        ensureLoaded(CensusProjection.all());
+        return new CensusDAO(getState(row), getStateCode(row), population[row], totalArea[row], populationDensity[row]);
+    }
+
+    public List<CensusDAO> getCensusDAOs() {
+        List<CensusDAO> censusDAOs = new ArrayList<>(size);
+        for (int row = 0; row < size; row++)
+            censusDAOs.add(getCensusDAO(row));
+        return censusDAOs;
+    }
+
+    // Row permutation for a sort field, built on first use and kept for the lifetime of this table.
+    // Names sort ascending and numeric fields descending, like the getSortedCensusDataAccordingTo* queries.
+    // Callers get their own copy; the cached permutation is shared by every later query.
+    public int[] getSortOrder(CensusAnalyser.SortField sortField) {
+        return sortOrder(sortField).clone();
+    }
+
+    // The cached permutation itself, for code in this package that only reads it.
+    int[] sortOrder(CensusAnalyser.SortField sortField) {
+        int[] sortOrder = sortOrders.get(sortField.ordinal());
+        if(sortOrder == null) {
+            ensureLoaded(CensusProjection.column(sortField));
+            sortOrders.compareAndSet(sortField.ordinal(), null, IndexSort.sortByKey(getSortKeys(sortField)));
+            sortOrder = sortOrders.get(sortField.ordinal());
+        }
+        return sortOrder;
+    }
+
+    public boolean hasSortOrder(CensusAnalyser.SortField sortField) {
+        return sortOrders.get(sortField.ordinal()) != null;
+    }
+
+    // Slice [from, to) of getSortOrder(numericField) holding the rows with min <= value <= max,
+    // found by binary search over the sort order.
+    public int[] getRangeBounds(CensusAnalyser.SortField numericField, double min, double max) {
+        if(numericField.equals(CensusAnalyser.SortField.STATE_NAME) || numericField.equals(CensusAnalyser.SortField.STATE_CODE))
+            throw new IllegalArgumentException("Not a numeric field: " + numericField);
+        int[] sortOrder = sortOrder(numericField);
+        int from = firstIndex(sortOrder, row -> getNumericValue(numericField, row) <= max);
+        int to = firstIndex(sortOrder, row -> getNumericValue(numericField, row) < min);
+        return new int[]{from, Math.max(from, to)};
+    }
+
+    // Slice [from, to) of getSortOrder(nameField) holding the rows whose name or code starts with prefix.
+    public int[] getPrefixBounds(CensusAnalyser.SortField nameField, String prefix) {
+        if(!nameField.equals(CensusAnalyser.SortField.STATE_NAME) && !nameField.equals(CensusAnalyser.SortField.STATE_CODE))
+            throw new IllegalArgumentException("Not a name field: " + nameField);
+        int[] sortOrder = sortOrder(nameField);
+        IntFunction<String> name = nameField.equals(CensusAnalyser.SortField.STATE_NAME) ? this::getState : this::getStateCode;
+        int from = firstIndex(sortOrder, row -> name.apply(row) == null || name.apply(row).compareTo(prefix) >= 0);
+        // names before from also fail startsWith, so the end is searched for only past from
+        int to = firstIndex(sortOrder, from, row -> name.apply(row) == null || !name.apply(row).startsWith(prefix));
+        return new int[]{from, Math.max(from, to)};
+    }
+
+    public int[] getRowsInRange(CensusAnalyser.SortField numericField, double min, double max) {
+        int[] bounds = getRangeBounds(numericField, min, max);
+        return Arrays.copyOfRange(sortOrder(numericField), bounds[0], bounds[1]);
+    }
+
+    public int[] getRowsWithPrefix(CensusAnalyser.SortField nameField, String prefix) {
+        int[] bounds = getPrefixBounds(nameField, prefix);
+        return Arrays.copyOfRange(sortOrder(nameField), bounds[0], bounds[1]);
+    }
+
+    private double getNumericValue(CensusAnalyser.SortField numericField, int row) {
+        switch (numericField) {
+            case POPULATION:
+                return population[row];
+            case POPULATION_DENSITY:
+                return populationDensity[row];
+            default:
+                return totalArea[row];
+        }
+    }
+
+    // First position in the sort order whose row satisfies a predicate that is false and then true along the order.
+    private static int firstIndex(int[] sortOrder, IntPredicate predicate) {
+        return firstIndex(sortOrder, 0, predicate);
+    }
+
+    private static int firstIndex(int[] sortOrder, int from, IntPredicate predicate) {
+        int low = from, high = sortOrder.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if(predicate.test(sortOrder[middle]))
+                high = middle;
+            else
+                low = middle + 1;
+        }
+        return low;
+    }
+
+    // Carries the cached sort orders of an earlier build of the same Builder over to this table. Rows keep
+    // their indexes between builds, so only the changed rows are sorted and merged into each earlier order.
+    void mergeSortOrders(CensusTable previous, int[] changedRows) {
+        int[] previousStateRanks = previous.dictionaryRanks.get(0);
+        if(previousStateRanks != null)
+            dictionaryRanks.compareAndSet(0, null, states.ranks(previousStateRanks));
+        int[] previousStateCodeRanks = previous.dictionaryRanks.get(1);
+        if(previousStateCodeRanks != null)
+            dictionaryRanks.compareAndSet(1, null, stateCodes.ranks(previousStateCodeRanks));
+        boolean[] changed = new boolean[size];
+        for (int row : changedRows)
+            changed[row] = true;
+        for (int row = previous.size; row < size; row++)
+            changed[row] = true;
+        int[] rows = IntStream.range(0, size).filter(row -> changed[row]).toArray();
+        for (CensusAnalyser.SortField sortField : CensusAnalyser.SortField.values()) {
+            int[] previousOrder = previous.sortOrders.get(sortField.ordinal());
+            if(previousOrder == null)
+                continue;
+            long[] keys = new long[rows.length];
+            for (int index = 0; index < rows.length; index++)
+                keys[index] = getSortKey(sortField, rows[index]);
+            int[] changedOrder = IndexSort.sortByKey(keys);
+            int[] order = new int[size];
+            int position = 0, added = 0;
+            for (int row : previousOrder) {
+                if(changed[row])
+                    continue;
+                long key = getSortKey(sortField, row);
+                while (added < changedOrder.length && (keys[changedOrder[added]] < key
+                        || keys[changedOrder[added]] == key && rows[changedOrder[added]] < row))
+                    order[position++] = rows[changedOrder[added++]];
+                order[position++] = row;
+            }
+            while (added < changedOrder.length)
+                order[position++] = rows[changedOrder[added++]];
+            sortOrders.compareAndSet(sortField.ordinal(), null, order);
+        }
+    }
+
+    public void buildSortOrders() {
+        Stream.of(CensusAnalyser.SortField.values()).parallel().forEach(this::sortOrder);
+    }
+
+    // First k rows in sort field order (reversed for the opposite direction), ties broken by row position.
+    // Uses the cached permutation when it already exists, otherwise a bounded heap in O(n log k).
+    public int[] getTopK(CensusAnalyser.SortField sortField, int k, boolean reversed) {
+        k = Math.min(k, size);
+        ensureLoaded(CensusProjection.column(sortField));
+        if(!reversed && hasSortOrder(sortField))
+            return Arrays.copyOf(sortOrder(sortField), k);
+        int[] heapRows = new int[k];
+        long[] heapKeys = new long[k];
+        int heapSize = 0;
+        for (int row = 0; row < size && k > 0; row++) {
+            long key = getSortKey(sortField, row);
+            if(reversed)
+                key = ~key;
+            if(heapSize < k) {
+                heapRows[heapSize] = row;
+                heapKeys[heapSize] = key;
+                siftUp(heapRows, heapKeys, heapSize++);
+            } else if(key < heapKeys[0]) {
+                heapRows[0] = row;
+                heapKeys[0] = key;
+                siftDown(heapRows, heapKeys, heapSize);
+            }
+        }
+        for (int end = heapSize - 1; end > 0; end--) {
+            swap(heapRows, heapKeys, 0, end);
+            siftDown(heapRows, heapKeys, end);
+        }
+        return heapRows;
+    }
+
+    // Keys the sort order is built from, one per row; package-private for the sort benchmarks.
+    long[] sortKeys(CensusAnalyser.SortField sortField) {
+        ensureLoaded(CensusProjection.column(sortField));
+        return getSortKeys(sortField);
+    }
+
+    private long[] getSortKeys(CensusAnalyser.SortField sortField) {
+        long[] keys = new long[size];
+        for (int row = 0; row < size; row++)
+            keys[row] = getSortKey(sortField, row);
+        return keys;
+    }
+
+    private long getSortKey(CensusAnalyser.SortField sortField, int row) {
+        switch (sortField) {
+            case STATE_NAME:
+                return stateIds[row] == StringDictionary.NULL_ID ? Long.MAX_VALUE
+                        : getDictionaryRanks(0, states)[stateIds[row]];
+            case STATE_CODE:
+                return stateCodeIds[row] == StringDictionary.NULL_ID ? Long.MAX_VALUE
+                        : getDictionaryRanks(1, stateCodes)[stateCodeIds[row]];
+            case POPULATION:
+                return ~(long) population[row];
+            case POPULATION_DENSITY:
+                return ~IndexSort.sortableKey(populationDensity[row]);
+            default:
+                return ~IndexSort.sortableKey(totalArea[row]);
+        }
+    }
+
+    private int[] getDictionaryRanks(int column, StringDictionary dictionary) {
+        int[] ranks = dictionaryRanks.get(column);
+        if(ranks == null) {
+            dictionaryRanks.compareAndSet(column, null, dictionary.ranks());
+            ranks = dictionaryRanks.get(column);
+        }
+        return ranks;
+    }
+
+    // Max-heap on (key, row) so the root is always the worst of the current top k.
+    private static boolean after(long[] keys, int[] rows, int first, int second) {
+        return keys[first] > keys[second] || (keys[first] == keys[second] && rows[first] > rows[second]);
+    }
+
+    private static void siftUp(int[] rows, long[] keys, int index) {
+        while (index > 0) {
+            int parent = (index - 1) / 2;
+            if(!after(keys, rows, index, parent))
+                return;
+            swap(rows, keys, index, parent);
+            index = parent;
+        }
+    }
+
+    private static void siftDown(int[] rows, long[] keys, int heapSize) {
+        int index = 0;
+        while (true) {
+            int largest = index, left = 2 * index + 1, right = left + 1;
+            if(left < heapSize && after(keys, rows, left, largest))
+                largest = left;
+            if(right < heapSize && after(keys, rows, right, largest))
+                largest = right;
+            if(largest == index)
+                return;
+            swap(rows, keys, index, largest);
+            index = largest;
+        }
+    }
+
+    private static void swap(int[] rows, long[] keys, int first, int second) {
+        int row = rows[first];
+        rows[first] = rows[second];
+        rows[second] = row;
+        long key = keys[first];
+        keys[first] = keys[second];
+        keys[second] = key;
+    }
+
+    public static class Builder {
+        private int size;
+        private int[] population;
+        private double[] totalArea;
+        private double[] populationDensity;
+        private int[] stateIds;
+        private int[] stateCodeIds;
+        private final StringDictionary states = new StringDictionary();
+        private final StringDictionary stateCodes = new StringDictionary();
+        private final Map<String, Integer> rowsByState = new HashMap<>();
+
+        public Builder() {
+            this(16);
+        }
+
+        public Builder(int expectedRows) {
+            int capacity = Math.max(16, expectedRows);
+            population = new int[capacity];
+            totalArea = new double[capacity];
+            populationDensity = new double[capacity];
+            stateIds = new int[capacity];
+            stateCodeIds = new int[capacity];
+        }
+
+        public Builder add(CensusDAO censusDAO) {
+            return add(censusDAO.state, censusDAO.stateCode, censusDAO.population, censusDAO.totalArea,
+                    censusDAO.populationDensity);
+        }
+
+        // Rows are keyed by state like the census state map: a later row for the same state replaces the earlier one.
+        public Builder add(String state, String stateCode, int population, double totalArea, double populationDensity) {
+            upsert(state, stateCode, population, totalArea, populationDensity);
+            return this;
+        }
+
+        // Same as add, returning the index of the row that was inserted or replaced.
+        public int upsert(CensusDAO censusDAO) {
+            return upsert(censusDAO.state, censusDAO.stateCode, censusDAO.population, censusDAO.totalArea,
+                    censusDAO.populationDensity);
+        }
+
+        public int upsert(String state, String stateCode, int population, double totalArea, double populationDensity) {
+            Integer row = rowsByState.get(state);
+            if(row == null) {
+                ensureCapacity(size + 1);
+                row = size++;
+                rowsByState.put(state, row);
+                stateIds[row] = states.encode(state);
+            }
+            this.stateCodeIds[row] = stateCodes.encode(stateCode);
+            this.population[row] = population;
+            this.totalArea[row] = totalArea;
+            this.populationDensity[row] = populationDensity;
+            return row;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        // Each build copies the columns, so the builder can keep growing after a table has been built from it.
+        public CensusTable build() {
+            return new CensusTable(this);
+        }
+
+        private void ensureCapacity(int capacity) {
+            if(capacity <= population.length)
+                return;
+            int newCapacity = Math.max(capacity, population.length * 2);
+            population = Arrays.copyOf(population, newCapacity);
+            totalArea = Arrays.copyOf(totalArea, newCapacity);
+            populationDensity = Arrays.copyOf(populationDensity, newCapacity);
+            stateIds = Arrays.copyOf(stateIds, newCapacity);
+            stateCodeIds = Arrays.copyOf(stateCodeIds, newCapacity);
+        }
+    }
+}
@@ -0,0 +1,388 @@
+package censusanalyser;
+
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// Column-oriented rows of a DatasetSchema, the dataset-agnostic counterpart of CensusTable: INT columns are int
+// arrays, DOUBLE columns double arrays (NaN when missing) and TEXT columns dictionary ids. A DatasetOrder is
+// compiled into one long key array per sort key, with direction and missing values folded in, so ranking compares
+// primitives only; the resulting permutation is cached per order for the lifetime of the dataset.
+public class Dataset {
+    private final DatasetSchema schema;
+    private final DatasetSchema.ColumnType[] types;
+    private final int size;
+    private final int[][] intColumns;
+    private final double[][] doubleColumns;
+    private final BitSet[] missingInts;
+    private final StringDictionary[] dictionaries;
+    private final AtomicReferenceArray<int[]> dictionaryRanks;
+    private final Map<DatasetOrder, int[]> sortOrders = new ConcurrentHashMap<>();
+
+    private Dataset(Builder builder) {
+        this.schema = builder.schema;
+        this.types = builder.types;
+        this.size = builder.size;
+        int columnCount = types.length;
+        this.intColumns = new int[columnCount][];
+        this.doubleColumns = new double[columnCount][];
+        this.missingInts = new BitSet[columnCount];
+        this.dictionaries = new StringDictionary[columnCount];
+        this.dictionaryRanks = new AtomicReferenceArray<>(columnCount);
+        for (int column = 0; column < columnCount; column++) {
+            if(builder.intColumns[column] != null)
+                intColumns[column] = Arrays.copyOf(builder.intColumns[column], size);
+            if(builder.doubleColumns[column] != null)
+                doubleColumns[column] = Arrays.copyOf(builder.doubleColumns[column], size);
+            if(builder.missingInts[column] != null)
+                missingInts[column] = (BitSet) builder.missingInts[column].clone();
+            if(builder.dictionaries[column] != null)
+                dictionaries[column] = builder.dictionaries[column].freeze();
+        }
+    }
+
+    // Reads the file (plain or gzip) with CSVTokenizer straight into the columns, without a bean per row.
+    public static Dataset load(DatasetSchema schema, Path csvFile) throws CensusAnalyserException {
+        LoadTimer timer = LoadTimer.start();
+        try (Reader reader = timer.timeReads(CensusFileReader.open(csvFile))) {
+            CSVTokenizer tokenizer = new CSVTokenizer(reader, schema.getDelimiter());
+            Builder builder = new Builder(schema, tokenizer.readHeader());
+            long start = timer.now();
+            while (tokenizer.nextRow())
+                builder.add(tokenizer);
+            // reads inside the loop are taken out of PARSE again by finishLoad
+            timer.stage(CensusMetrics.Stage.PARSE, start);
+            timer.countRows(builder.size());
+            timer.finishLoad(csvFile);
+            return builder.build();
+        } catch (IOException e) {
+            throw new CensusAnalyserException(e.getMessage(),
+                    CensusAnalyserException.ExceptionType.CENSUS_FILE_PROBLEM, e);
+        } catch (RuntimeException e) {
+            timer.reject(1);
+            throw new CensusAnalyserException(e.getMessage(), CensusAnalyserException.ExceptionType.CENSUS_FILE_PROBLEM, e);
+        }
+    }
+
+    public DatasetSchema getSchema() {
+        return schema;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isMissing(String columnName, int row) {
+        int column = this.column(columnName);
+        switch (types[column]) {
+            case TEXT:
+                return intColumns[column][row] == StringDictionary.NULL_ID;
+            case INT:
+                return missingInts[column].get(row);
+            default:
+                return Double.isNaN(doubleColumns[column][row]);
+        }
+    }
+
+    public String getText(String columnName, int row) {
+        int column = this.column(columnName, DatasetSchema.ColumnType.TEXT);
+        return dictionaries[column].decode(intColumns[column][row]);
+    }
+
+    // Missing values read as 0; see isMissing.
+    public int getInt(String columnName, int row) {
+        return intColumns[this.column(columnName, DatasetSchema.ColumnType.INT)][row];
+    }
+
+    // Any numeric column; missing values read as NaN.
+    public double getDouble(String columnName, int row) {
+        int column = this.column(columnName);
+        if(types[column].equals(DatasetSchema.ColumnType.INT))
+            return missingInts[column].get(row) ? Double.NaN : intColumns[column][row];
+        return doubleColumns[this.column(columnName, DatasetSchema.ColumnType.DOUBLE)][row];
+    }
+
+    // Row permutation for an order, built on first use and kept for the lifetime of this dataset.
+    // Callers get their own copy; the cached permutation is shared by every later query.
+    public int[] getSortOrder(DatasetOrder order) {
+        return sortOrder(order).clone();
+    }
+
+    // The cached permutation itself, for code in this package that only reads it.
+    int[] sortOrder(DatasetOrder order) {
+        int[] sortOrder = sortOrders.get(order);
+        if(sortOrder == null) {
+            sortOrder = IndexSort.sortByKeys(this.compile(order));
+            int[] cached = sortOrders.putIfAbsent(order, sortOrder);
+            if(cached != null)
+                sortOrder = cached;
+        }
+        return sortOrder;
+    }
+
+    public int[] getTopK(DatasetOrder order, int k) {
+        if(k < 0)
+            throw new IllegalArgumentException("k must not be negative: " + k);
+        return Arrays.copyOf(this.sortOrder(order), Math.min(k, size));
+    }
+
+    // Rows as JSON objects named after the schema columns; missing values are left out, as null fields are by Gson.
+    public void writeJson(Writer writer, int[] rows, int from, int to) throws IOException {
+        JsonWriter jsonWriter = new JsonWriter(writer);
+        jsonWriter.setHtmlSafe(true);
+        List<DatasetSchema.Column> columns = schema.getColumns();
+        jsonWriter.beginArray();
+        for (int index = from; index < to; index++) {
+            int row = rows[index];
+            jsonWriter.beginObject();
+            for (int column = 0; column < types.length; column++) {
+                switch (types[column]) {
+                    case TEXT:
+                        if(intColumns[column][row] != StringDictionary.NULL_ID)
+                            jsonWriter.name(columns.get(column).name).value(dictionaries[column].decode(intColumns[column][row]));
+                        break;
+                    case INT:
+                        if(!missingInts[column].get(row))
+                            jsonWriter.name(columns.get(column).name).value(intColumns[column][row]);
+                        break;
+                    default:
+                        if(!Double.isNaN(doubleColumns[column][row]))
+                            jsonWriter.name(columns.get(column).name).value(doubleColumns[column][row]);
+                }
+            }
+            jsonWriter.endObject();
+        }
+        jsonWriter.endArray();
+        jsonWriter.flush();
+    }
+
+    // One key array per sort key, ascending in the wanted order; missing values get the largest key either way.
+    private long[][] compile(DatasetOrder order) {
+        List<DatasetOrder.Key> orderKeys = order.getKeys();
+        long[][] keys = new long[orderKeys.size()][];
+        for (int index = 0; index < keys.length; index++) {
+            DatasetOrder.Key orderKey = orderKeys.get(index);
+            int column = this.column(orderKey.column);
+            boolean descending = orderKey.sortOrder.equals(CensusAnalyser.SortOrder.DESCENDING);
+            long[] key = new long[size];
+            switch (types[column]) {
+                case TEXT:
+                    int[] ranks = this.getDictionaryRanks(column);
+                    int[] ids = intColumns[column];
+                    for (int row = 0; row < size; row++)
+                        key[row] = ids[row] == StringDictionary.NULL_ID ? Long.MAX_VALUE
+                                : descending ? ~(long) ranks[ids[row]] : ranks[ids[row]];
+                    break;
+                case INT:
+                    int[] values = intColumns[column];
+                    BitSet missing = missingInts[column];
+                    for (int row = 0; row < size; row++)
+                        key[row] = missing.get(row) ? Long.MAX_VALUE : descending ? ~(long) values[row] : values[row];
+                    break;
+                default:
+                    double[] doubles = doubleColumns[column];
+                    for (int row = 0; row < size; row++)
+                        key[row] = Double.isNaN(doubles[row]) ? Long.MAX_VALUE
+                                : descending ? ~IndexSort.sortableKey(doubles[row]) : IndexSort.sortableKey(doubles[row]);
+            }
+            keys[index] = key;
+        }
+        return keys;
+    }
+
+    private int[] getDictionaryRanks(int column) {
+        int[] ranks = dictionaryRanks.get(column);
+        if(ranks == null) {
+            dictionaryRanks.compareAndSet(column, null, dictionaries[column].ranks());
+            ranks = dictionaryRanks.get(column);
+        }
+        return ranks;
+    }
+
+    private int column(String columnName) {
+        int column = schema.indexOf(columnName);
+        if(column < 0)
+            throw new IllegalArgumentException("No column " + columnName + " in dataset " + schema.getName());
+        return column;
+    }
+
+    private int column(String columnName, DatasetSchema.ColumnType type) {
+        int column = this.column(columnName);
+        if(!types[column].equals(type))
+            throw new IllegalArgumentException("Column " + columnName + " is " + types[column] + ", not " + type);
+        return column;
+    }
+
+    public static class Builder {
+        private final DatasetSchema schema;
+        private final DatasetSchema.ColumnType[] types;
+        private final int[] fields;
+        private final int fieldCount;
+        private final int keyColumn;
+        private final String[] missingValues;
+        private final char numberSuffix;
+        private final int[][] intColumns;
+        private final double[][] doubleColumns;
+        private final BitSet[] missingInts;
+        private final StringDictionary[] dictionaries;
+        private final Map<String, Integer> rowsByKey = new HashMap<>();
+        private int size;
+        private int capacity = 16;
+
+        // Binds the schema to a file header; columns are matched by name and may come in any order.
+        public Builder(DatasetSchema schema, String[] header) {
+            if(header == null)
+                throw new IllegalArgumentException("Error capturing CSV header!");
+            this.schema = schema;
+            List<DatasetSchema.Column> columns = schema.getColumns();
+            int columnCount = columns.size();
+            this.types = new DatasetSchema.ColumnType[columnCount];
+            this.fields = new int[columnCount];
+            this.intColumns = new int[columnCount][];
+            this.doubleColumns = new double[columnCount][];
+            this.missingInts = new BitSet[columnCount];
+            this.dictionaries = new StringDictionary[columnCount];
+            List<String> missingColumns = new ArrayList<>();
+            int lastField = -1;
+            for (int column = 0; column < columnCount; column++) {
+                DatasetSchema.Column declared = columns.get(column);
+                types[column] = declared.type;
+                fields[column] = indexOf(header, declared.name);
+                if(fields[column] < 0 && declared.required)
+                    missingColumns.add(declared.name);
+                lastField = Math.max(lastField, fields[column]);
+                if(declared.type.equals(DatasetSchema.ColumnType.DOUBLE)) {
+                    doubleColumns[column] = new double[capacity];
+                } else {
+                    intColumns[column] = new int[capacity];
+                    if(declared.type.equals(DatasetSchema.ColumnType.INT))
+                        missingInts[column] = new BitSet();
+                    else
+                        dictionaries[column] = new StringDictionary();
+                }
+            }
+            if(!missingColumns.isEmpty())
+                throw new IllegalArgumentException("Header is missing required fields " + missingColumns);
+            this.fieldCount = lastField + 1;
+            this.keyColumn = schema.getKeyColumn() == null ? -1 : schema.indexOf(schema.getKeyColumn());
+            this.missingValues = schema.getMissingValues().toArray(new String[0]);
+            this.numberSuffix = schema.getNumberSuffix();
+        }
+
+        // Adds the tokenizer's current row; rows whose declared columns are all empty, such as the trailing
+        // ",,,," lines spreadsheets export, are skipped.
+        public Builder add(CSVTokenizer row) {
+            if(row.getFieldCount() < fieldCount) {
+                if(row.getFieldCount() == 1 && row.isEmpty(0))
+                    return this;
+                throw new IllegalArgumentException("Number of data fields does not match number of headers at line "
+                        + row.getLineNumber());
+            }
+            boolean blank = true;
+            for (int field : fields)
+                if(field >= 0 && !row.isEmpty(field))
+                    blank = false;
+            if(blank)
+                return this;
+            int target = size;
+            if(keyColumn >= 0 && fields[keyColumn] >= 0 && !row.isEmpty(fields[keyColumn])) {
+                String key = row.getString(fields[keyColumn]).trim();
+                Integer existing = rowsByKey.putIfAbsent(key, size);
+                if(existing != null)
+                    target = existing;
+            }
+            if(target == size)
+                this.ensureCapacity(++size);
+            for (int column = 0; column < types.length; column++)
+                this.set(column, target, row);
+            return this;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public Dataset build() {
+            return new Dataset(this);
+        }
+
+        private void set(int column, int target, CSVTokenizer row) {
+            int field = fields[column];
+            boolean missing = field < 0 || row.isEmpty(field) || this.isMissingValue(row, field);
+            switch (types[column]) {
+                case TEXT:
+                    intColumns[column][target] = missing ? StringDictionary.NULL_ID
+                            : dictionaries[column].encode(row.getString(field).trim());
+                    break;
+                case INT:
+                    missingInts[column].set(target, missing);
+                    intColumns[column][target] = missing ? 0 : this.parseInt(row, field, column);
+                    break;
+                default:
+                    doubleColumns[column][target] = missing ? Double.NaN : this.parseDouble(row, field, column);
+            }
+        }
+
+        private boolean isMissingValue(CSVTokenizer row, int field) {
+            for (String missingValue : missingValues)
+                if(row.isValue(field, missingValue))
+                    return true;
+            return false;
+        }
+
+        private int parseInt(CSVTokenizer row, int field, int column) {
+            if(numberSuffix != 0)
+                row.dropSuffix(field, numberSuffix);
+            try {
+                return row.getInt(field);
+            } catch (NumberFormatException e) {
+                throw this.unparseable(row, column, e);
+            }
+        }
+
+        private double parseDouble(CSVTokenizer row, int field, int column) {
+            if(numberSuffix != 0)
+                row.dropSuffix(field, numberSuffix);
+            try {
+                return row.getDouble(field);
+            } catch (NumberFormatException e) {
+                throw this.unparseable(row, column, e);
+            }
+        }
+
+        private IllegalArgumentException unparseable(CSVTokenizer row, int column, NumberFormatException e) {
+            return new IllegalArgumentException("Column " + schema.getColumns().get(column).name + " at line "
+                    + row.getLineNumber() + ": " + e.getMessage(), e);
+        }
+
+        private void ensureCapacity(int rows) {
+            if(rows <= capacity)
+                return;
+            capacity = Math.max(rows, capacity * 2);
+            for (int column = 0; column < types.length; column++) {
+                if(intColumns[column] != null)
+                    intColumns[column] = Arrays.copyOf(intColumns[column], capacity);
+                if(doubleColumns[column] != null)
+                    doubleColumns[column] = Arrays.copyOf(doubleColumns[column], capacity);
+            }
+        }
+
+        private static int indexOf(String[] header, String name) {
+            for (int field = 0; field < header.length; field++)
+                if(header[field].equalsIgnoreCase(name))
+                    return field;
+            return -1;
+        }
+    }
+}
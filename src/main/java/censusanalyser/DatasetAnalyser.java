@@ -0,0 +1,71 @@
+package censusanalyser;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.file.Paths;
+import java.util.concurrent.atomic.AtomicReference;
+
+// CensusAnalyser's load-then-rank workflow for any DatasetSchema: load a file once, then ask for rankings as
+// JSON. Like CensusAnalyser, queries read the dataset published by the last load.
+public class DatasetAnalyser {
+    private final DatasetSchema schema;
+    private final AtomicReference<Dataset> dataset = new AtomicReference<>();
+
+    public DatasetAnalyser(DatasetSchema schema) {
+        this.schema = schema;
+    }
+
+    public int loadData(String csvFilePath) throws CensusAnalyserException {
+        Dataset loaded = Dataset.load(schema, Paths.get(csvFilePath));
+        dataset.set(loaded);
+        return loaded.size();
+    }
+
+    public Dataset getDataset() {
+        return dataset.get();
+    }
+
+    public String getSortedData(DatasetOrder order) throws CensusAnalyserException {
+        Dataset dataset = this.getLoadedDataset();
+        LoadTimer timer = LoadTimer.start();
+        long start = timer.now();
+        int[] sortOrder = dataset.sortOrder(order);
+        start = timer.stage(CensusMetrics.Stage.SORT, start);
+        String sortedJson = toJson(dataset, sortOrder, sortOrder.length);
+        timer.stage(CensusMetrics.Stage.SERIALIZE, start);
+        timer.finish();
+        return sortedJson;
+    }
+
+    public String getTopK(DatasetOrder order, int k) throws CensusAnalyserException {
+        Dataset dataset = this.getLoadedDataset();
+        int[] topRows = dataset.getTopK(order, k);
+        return toJson(dataset, topRows, topRows.length);
+    }
+
+    public void writeSortedData(DatasetOrder order, Writer writer) throws CensusAnalyserException, IOException {
+        Dataset dataset = this.getLoadedDataset();
+        int[] sortOrder = dataset.sortOrder(order);
+        dataset.writeJson(writer, sortOrder, 0, sortOrder.length);
+    }
+
+    private Dataset getLoadedDataset() throws CensusAnalyserException {
+        Dataset dataset = this.dataset.get();
+        if(dataset == null || dataset.size() == 0)
+            throw new CensusAnalyserException("No " + schema.getName() + " Data",
+                    CensusAnalyserException.ExceptionType.NO_CENSUS_DATA);
+        return dataset;
+    }
+
+    private static String toJson(Dataset dataset, int[] rows, int to) {
+        StringWriter json = new StringWriter();
+        try {
+            dataset.writeJson(json, rows, 0, to);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return json.toString();
+    }
+}
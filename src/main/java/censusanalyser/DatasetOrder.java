@@ -0,0 +1,75 @@
+package censusanalyser;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+// Multi-key ranking over the columns of a Dataset, e.g. most runs, then best average:
+//
+//   DatasetOrder.by("Runs", SortOrder.DESCENDING).then("Avg", SortOrder.DESCENDING)
+//
+// Missing values rank last whichever the direction, and rows that tie on every key keep their file order.
+// Orders are values, so a Dataset can cache the row permutation it compiled for one.
+public class DatasetOrder {
+    public static class Key {
+        public final String column;
+        public final CensusAnalyser.SortOrder sortOrder;
+
+        Key(String column, CensusAnalyser.SortOrder sortOrder) {
+            this.column = column;
+            this.sortOrder = sortOrder;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if(!(other instanceof Key))
+                return false;
+            Key key = (Key) other;
+            return column.equalsIgnoreCase(key.column) && sortOrder.equals(key.sortOrder);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(column.toUpperCase(), sortOrder);
+        }
+    }
+
+    private final List<Key> keys;
+
+    private DatasetOrder(List<Key> keys) {
+        this.keys = keys;
+    }
+
+    public static DatasetOrder by(String column, CensusAnalyser.SortOrder sortOrder) {
+        return new DatasetOrder(Collections.singletonList(new Key(column, sortOrder)));
+    }
+
+    public DatasetOrder then(String column, CensusAnalyser.SortOrder sortOrder) {
+        List<Key> keys = new ArrayList<>(this.keys);
+        keys.add(new Key(column, sortOrder));
+        return new DatasetOrder(Collections.unmodifiableList(keys));
+    }
+
+    public List<Key> getKeys() {
+        return keys;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof DatasetOrder && keys.equals(((DatasetOrder) other).keys);
+    }
+
+    @Override
+    public int hashCode() {
+        return keys.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder order = new StringBuilder();
+        for (Key key : keys)
+            order.append(order.length() == 0 ? "" : ", ").append(key.column).append(' ').append(key.sortOrder);
+        return order.toString();
+    }
+}
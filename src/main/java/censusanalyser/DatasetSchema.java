@@ -0,0 +1,111 @@
+package censusanalyser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+// Typed columns of a tabular file that is not census data, e.g. the IPL factsheets in IPLDatasets. Only the
+// declared columns are loaded, into one primitive or dictionary-encoded array each. Empty fields and the missing
+// value tokens ("-" by default) load as missing; numbers may carry a marker suffix, such as the '*' of a not-out
+// score, which is dropped. With a key column, a later row for the same key replaces the earlier one, the way
+// census rows are keyed by state.
+public class DatasetSchema {
+    public enum ColumnType {TEXT, INT, DOUBLE}
+
+    public static class Column {
+        public final String name;
+        public final ColumnType type;
+        public final boolean required;
+
+        Column(String name, ColumnType type, boolean required) {
+            this.name = name;
+            this.type = type;
+            this.required = required;
+        }
+    }
+
+    private final String name;
+    private final List<Column> columns = new ArrayList<>();
+    private String keyColumn;
+    private char delimiter = ',';
+    private List<String> missingValues = Collections.singletonList("-");
+    private char numberSuffix;
+
+    public DatasetSchema(String name) {
+        this.name = name;
+    }
+
+    public DatasetSchema column(String name, ColumnType type, boolean required) {
+        if(this.indexOf(name) >= 0)
+            throw new IllegalArgumentException("Column " + name + " is declared twice");
+        columns.add(new Column(name, type, required));
+        return this;
+    }
+
+    public DatasetSchema text(String name) {
+        return this.column(name, ColumnType.TEXT, true);
+    }
+
+    public DatasetSchema integer(String name) {
+        return this.column(name, ColumnType.INT, true);
+    }
+
+    public DatasetSchema decimal(String name) {
+        return this.column(name, ColumnType.DOUBLE, true);
+    }
+
+    public DatasetSchema key(String column) {
+        if(this.indexOf(column) < 0)
+            throw new IllegalArgumentException("No column " + column + " in dataset " + name);
+        this.keyColumn = column;
+        return this;
+    }
+
+    public DatasetSchema delimiter(char delimiter) {
+        this.delimiter = delimiter;
+        return this;
+    }
+
+    public DatasetSchema missingValues(String... missingValues) {
+        this.missingValues = Arrays.asList(missingValues);
+        return this;
+    }
+
+    public DatasetSchema numberSuffix(char numberSuffix) {
+        this.numberSuffix = numberSuffix;
+        return this;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public List<Column> getColumns() {
+        return Collections.unmodifiableList(columns);
+    }
+
+    // Declared position of the column, matched case-insensitively like CSV headers, or -1.
+    public int indexOf(String column) {
+        for (int index = 0; index < columns.size(); index++)
+            if(columns.get(index).name.equalsIgnoreCase(column))
+                return index;
+        return -1;
+    }
+
+    String getKeyColumn() {
+        return keyColumn;
+    }
+
+    char getDelimiter() {
+        return delimiter;
+    }
+
+    List<String> getMissingValues() {
+        return missingValues;
+    }
+
+    char getNumberSuffix() {
+        return numberSuffix;
+    }
+}
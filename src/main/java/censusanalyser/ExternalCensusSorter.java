@@ -0,0 +1,299 @@
+package censusanalyser;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+// Sorts census files that do not fit in memory. Rows are streamed through ICSVBuilder into a run buffer; each
+// full buffer is sorted and spilled to a temp file in a compact binary row format, and the runs are k-way
+// merged (in several passes if there are more runs than the budget has read buffers for) into streamed JSON or
+// CSV. Sort orders match the getSortedCensusDataAccordingTo* queries. Unlike the in-memory loaders, rows are
+// not de-duplicated by state and rows with equal keys keep their file order.
+// The budget covers the run buffer, the state code index, the run file write buffer and the merge read buffers;
+// it must hold at least one write buffer and two read buffers. The CSV parser's own input buffer is not counted.
+public class ExternalCensusSorter {
+    public enum OutputFormat {JSON, CSV}
+
+    private static final int READ_BUFFER_SIZE = 8 << 10;
+    private static final int WRITE_BUFFER_SIZE = 64 << 10;
+    private static final int ROW_OVERHEAD_BYTES = 128;
+    private static final int HAS_STATE = 1, HAS_STATE_CODE = 2;
+    public static final long MIN_MEMORY_BUDGET_BYTES = WRITE_BUFFER_SIZE + 2 * READ_BUFFER_SIZE;
+
+    private final CensusAnalyser.Country country;
+    private final long memoryBudgetBytes;
+    private final Path tempDirectory;
+    private int runCount;
+
+    public ExternalCensusSorter(CensusAnalyser.Country country, long memoryBudgetBytes, Path tempDirectory) {
+        if(memoryBudgetBytes < MIN_MEMORY_BUDGET_BYTES)
+            throw new IllegalArgumentException("Memory budget must be at least " + MIN_MEMORY_BUDGET_BYTES
+                    + " bytes: " + memoryBudgetBytes);
+        this.country = country;
+        this.memoryBudgetBytes = memoryBudgetBytes;
+        this.tempDirectory = tempDirectory;
+    }
+
+    // csvFilePath is the census file, followed for India by the state code file when codes are wanted.
+    public void sort(CensusAnalyser.SortField sortField, OutputFormat outputFormat, Writer writer,
+                     String... csvFilePath) throws CensusAnalyserException {
+        Comparator<CensusDAO> comparator = comparator(sortField);
+        List<Path> tempFiles = new ArrayList<>();
+        try {
+            List<Path> runs = this.writeRuns(comparator, tempFiles, csvFilePath);
+            runCount = runs.size();
+            // an intermediate merge holds one read buffer per run and one write buffer
+            int fanIn = (int) Math.min(Integer.MAX_VALUE, (memoryBudgetBytes - WRITE_BUFFER_SIZE) / READ_BUFFER_SIZE);
+            while (runs.size() > fanIn) {
+                List<Path> mergedRuns = new ArrayList<>();
+                for (int from = 0; from < runs.size(); from += fanIn) {
+                    List<Path> group = runs.subList(from, Math.min(from + fanIn, runs.size()));
+                    Path mergedRun = this.newRunFile(tempFiles);
+                    mergedRuns.add(mergedRun);
+                    try (DataOutputStream output = newRunOutput(mergedRun)) {
+                        merge(group, comparator, censusDAO -> writeRow(output, censusDAO));
+                    }
+                    for (Path run : group)
+                        Files.deleteIfExists(run);
+                }
+                runs = mergedRuns;
+            }
+            RowSink sink = this.newSink(outputFormat, writer);
+            merge(runs, comparator, sink);
+            sink.close();
+        } catch (IOException e) {
+            throw new CensusAnalyserException(e.getMessage(),
+                    CensusAnalyserException.ExceptionType.CENSUS_FILE_PROBLEM);
+        } catch (RuntimeException e) {
+            throw new CensusAnalyserException(e.getMessage(),CensusAnalyserException.ExceptionType.CENSUS_FILE_PROBLEM);
+        } catch (CSVBuilderException e) {
+            throw new CensusAnalyserException(e.getMessage(),e.type.name());
+        } finally {
+            for (Path tempFile : tempFiles)
+                try {
+                    Files.deleteIfExists(tempFile);
+                } catch (IOException e) {
+                    // best effort, the temp directory is cleaned up by its owner
+                }
+        }
+    }
+
+    // Number of sorted runs the last sort spilled before merging.
+    public int getRunCount() {
+        return runCount;
+    }
+
+    public static Comparator<CensusDAO> comparator(CensusAnalyser.SortField sortField) {
+        switch (sortField) {
+            case STATE_NAME:
+                return Comparator.comparing((CensusDAO censusDAO) -> censusDAO.state,
+                        Comparator.nullsLast(Comparator.naturalOrder()));
+            case STATE_CODE:
+                return Comparator.comparing((CensusDAO censusDAO) -> censusDAO.stateCode,
+                        Comparator.nullsLast(Comparator.naturalOrder()));
+            case POPULATION:
+                return (first, second) -> Integer.compare(second.population, first.population);
+            case POPULATION_DENSITY:
+                return (first, second) -> Double.compare(second.populationDensity, first.populationDensity);
+            default:
+                return (first, second) -> Double.compare(second.totalArea, first.totalArea);
+        }
+    }
+
+    private List<Path> writeRuns(Comparator<CensusDAO> comparator, List<Path> tempFiles, String... csvFilePath)
+            throws IOException, CSVBuilderException, CensusAnalyserException {
+        List<Path> runs = new ArrayList<>();
+        HashJoinIndex<IndiaStateCodeCSV> stateCodeIndex = country.equals(CensusAnalyser.Country.INDIA)
+                && csvFilePath.length > 1 ? new IndiaCensusAdapter().loadIndiaStateCodeIndex(csvFilePath[1]) : null;
+        // the run is spilled through one write buffer while the index is held for the whole pass
+        long runBudget = memoryBudgetBytes - WRITE_BUFFER_SIZE - (stateCodeIndex == null ? 0 : estimateBytes(stateCodeIndex));
+        if(runBudget < ROW_OVERHEAD_BYTES)
+            throw new CensusAnalyserException("Memory budget of " + memoryBudgetBytes
+                    + " bytes does not fit the state code index", CensusAnalyserException.ExceptionType.CENSUS_FILE_PROBLEM);
+        CensusDAO[] run = new CensusDAO[1024];
+        int runSize = 0;
+        long runBytes = 0;
+        try (Reader reader = CensusFileReader.open(Paths.get(csvFilePath[0]))) {
+            ICSVBuilder<?> csvBuilder = CSVBuilderFactory.createCSVBuilder();
+            Class<?> censusCSVClass = country.equals(CensusAnalyser.Country.INDIA) ? IndiaCensusCSV.class : USCensusCSV.class;
+            Iterator<?> csvFileIterator = csvBuilder.getCSVFileIterator(reader, censusCSVClass);
+            while (csvFileIterator.hasNext()) {
+                CensusDAO censusDAO = CensusAdapter.toCensusDAO(csvFileIterator.next());
+                if(stateCodeIndex != null) {
+                    IndiaStateCodeCSV stateCodeCSV = stateCodeIndex.probe(censusDAO.state);
+                    if(stateCodeCSV != null)
+                        censusDAO.stateCode = stateCodeCSV.stateCode;
+                }
+                if(runSize == run.length)
+                    run = Arrays.copyOf(run, runSize * 2);
+                run[runSize++] = censusDAO;
+                runBytes += estimateBytes(censusDAO);
+                if(runBytes >= runBudget) {
+                    runs.add(this.spill(run, runSize, comparator, tempFiles));
+                    Arrays.fill(run, 0, runSize, null);
+                    runSize = 0;
+                    runBytes = 0;
+                }
+            }
+        }
+        if(runSize > 0 || runs.isEmpty())
+            runs.add(this.spill(run, runSize, comparator, tempFiles));
+        return runs;
+    }
+
+    private Path spill(CensusDAO[] run, int runSize, Comparator<CensusDAO> comparator,
+                       List<Path> tempFiles) throws IOException {
+        Arrays.sort(run, 0, runSize, comparator);
+        Path runFile = this.newRunFile(tempFiles);
+        try (DataOutputStream output = newRunOutput(runFile)) {
+            for (int row = 0; row < runSize; row++)
+                writeRow(output, run[row]);
+        }
+        return runFile;
+    }
+
+    // Ties go to the earlier run, and runs hold consecutive stretches of the file, so equal keys keep file order.
+    private static void merge(List<Path> runs, Comparator<CensusDAO> comparator, RowSink sink) throws IOException {
+        List<RunReader> readers = new ArrayList<>();
+        try {
+            PriorityQueue<RunReader> queue = new PriorityQueue<>(Math.max(1, runs.size()), (first, second) -> {
+                int order = comparator.compare(first.current, second.current);
+                return order != 0 ? order : Integer.compare(first.index, second.index);
+            });
+            for (int index = 0; index < runs.size(); index++) {
+                RunReader reader = new RunReader(runs.get(index), index);
+                readers.add(reader);
+                if(reader.advance())
+                    queue.add(reader);
+            }
+            while (!queue.isEmpty()) {
+                RunReader reader = queue.poll();
+                sink.accept(reader.current);
+                if(reader.advance())
+                    queue.add(reader);
+            }
+        } finally {
+            for (RunReader reader : readers)
+                reader.input.close();
+        }
+    }
+
+    private Path newRunFile(List<Path> tempFiles) throws IOException {
+        Path runFile = tempDirectory == null ? Files.createTempFile("census-run-", ".bin")
+                : Files.createTempFile(tempDirectory, "census-run-", ".bin");
+        tempFiles.add(runFile);
+        return runFile;
+    }
+
+    private static DataOutputStream newRunOutput(Path runFile) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(runFile), WRITE_BUFFER_SIZE));
+    }
+
+    private static long estimateBytes(CensusDAO censusDAO) {
+        return ROW_OVERHEAD_BYTES + 2L * ((censusDAO.state == null ? 0 : censusDAO.state.length())
+                + (censusDAO.stateCode == null ? 0 : censusDAO.stateCode.length()));
+    }
+
+    // Index slots plus one state code row, with its normalized key, per entry.
+    private static long estimateBytes(HashJoinIndex<IndiaStateCodeCSV> stateCodeIndex) {
+        return 17L * stateCodeIndex.capacity() + 2L * ROW_OVERHEAD_BYTES * stateCodeIndex.size();
+    }
+
+    private static void writeRow(DataOutputStream output, CensusDAO censusDAO) throws IOException {
+        output.writeByte((censusDAO.state != null ? HAS_STATE : 0) | (censusDAO.stateCode != null ? HAS_STATE_CODE : 0));
+        if(censusDAO.state != null)
+            output.writeUTF(censusDAO.state);
+        if(censusDAO.stateCode != null)
+            output.writeUTF(censusDAO.stateCode);
+        output.writeInt(censusDAO.population);
+        output.writeDouble(censusDAO.totalArea);
+        output.writeDouble(censusDAO.populationDensity);
+    }
+
+    private interface RowSink {
+        void accept(CensusDAO censusDAO) throws IOException;
+
+        default void close() throws IOException {
+        }
+    }
+
+    private RowSink newSink(OutputFormat outputFormat, Writer writer) throws IOException {
+        if(outputFormat.equals(OutputFormat.JSON)) {
+            CensusJsonWriter censusJsonWriter = new CensusJsonWriter(writer, country);
+            censusJsonWriter.beginArray();
+            return new RowSink() {
+                public void accept(CensusDAO censusDAO) throws IOException {
+                    censusJsonWriter.writeRow(censusDAO);
+                }
+
+                public void close() throws IOException {
+                    censusJsonWriter.endArray();
+                }
+            };
+        }
+        boolean india = country.equals(CensusAnalyser.Country.INDIA);
+        writer.write(india ? "State,Population,AreaInSqKm,DensityPerSqKm,StateCode\n"
+                : "State Id,State,Population,Total area,Population Density\n");
+        return new RowSink() {
+            public void accept(CensusDAO censusDAO) throws IOException {
+                if(india)
+                    writer.write(csvField(censusDAO.state) + "," + censusDAO.population + "," + (int) censusDAO.totalArea
+                            + "," + (int) censusDAO.populationDensity + "," + csvField(censusDAO.stateCode) + "\n");
+                else
+                    writer.write(csvField(censusDAO.stateCode) + "," + csvField(censusDAO.state) + "," + censusDAO.population
+                            + "," + censusDAO.totalArea + "," + censusDAO.populationDensity + "\n");
+            }
+
+            public void close() throws IOException {
+                writer.flush();
+            }
+        };
+    }
+
+    private static String csvField(String value) {
+        if(value == null)
+            return "";
+        if(value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0)
+            return value;
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    private static class RunReader {
+        final DataInputStream input;
+        final int index;
+        CensusDAO current;
+
+        RunReader(Path runFile, int index) throws IOException {
+            this.input = new DataInputStream(new BufferedInputStream(Files.newInputStream(runFile), READ_BUFFER_SIZE));
+            this.index = index;
+        }
+
+        boolean advance() throws IOException {
+            int flags;
+            try {
+                flags = input.readUnsignedByte();
+            } catch (EOFException e) {
+                current = null;
+                return false;
+            }
+            String state = (flags & HAS_STATE) != 0 ? input.readUTF() : null;
+            String stateCode = (flags & HAS_STATE_CODE) != 0 ? input.readUTF() : null;
+            current = new CensusDAO(state, stateCode, input.readInt(), input.readDouble(), input.readDouble());
+            return true;
+        }
+    }
+}
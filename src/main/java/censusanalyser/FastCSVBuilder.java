@@ -0,0 +1,75 @@
+package censusanalyser;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+public class FastCSVBuilder<E> implements ICSVBuilder<E> {
+    private final char delimiter;
+
+    public FastCSVBuilder() {
+        this(',');
+    }
+
+    public FastCSVBuilder(char delimiter) {
+        this.delimiter = delimiter;
+    }
+
+    // ICSVBuilder takes the bean class raw; it is the class of E for every caller.
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    public Iterator<E> getCSVFileIterator(Reader reader, Class csvClass) throws CSVBuilderException {
+        return this.iterator(reader, (Class<E>) csvClass);
+    }
+
+    private Iterator<E> iterator(Reader reader, Class<E> csvClass) throws CSVBuilderException {
+        CSVSchema<E> schema = CSVSchemas.forClass(csvClass);
+        if(schema == null)
+            return new OpenCSVBuilder<E>().getCSVFileIterator(reader, csvClass);
+        CSVTokenizer tokenizer = new CSVTokenizer(reader, delimiter);
+        CSVRowBinder<E> binder = schema.bind(readHeader(tokenizer));
+        return new Iterator<E>() {
+            private boolean hasRow;
+            private boolean checked;
+
+            public boolean hasNext() {
+                if(!checked) {
+                    try {
+                        hasRow = tokenizer.nextRow();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    checked = true;
+                }
+                return hasRow;
+            }
+
+            public E next() {
+                if(!hasNext())
+                    throw new NoSuchElementException();
+                checked = false;
+                return binder.bind(tokenizer);
+            }
+        };
+    }
+
+    @SuppressWarnings("rawtypes")
+    public List<E> getCSVFileList(Reader reader, Class csvClass) throws CSVBuilderException {
+        List<E> csvList = new ArrayList<>();
+        Iterator<E> csvFileIterator = this.getCSVFileIterator(reader, csvClass);
+        while (csvFileIterator.hasNext())
+            csvList.add(csvFileIterator.next());
+        return csvList;
+    }
+
+    private String[] readHeader(CSVTokenizer tokenizer) throws CSVBuilderException {
+        try {
+            return tokenizer.readHeader();
+        } catch (IOException | IllegalArgumentException e) {
+            throw new CSVBuilderException(e.getMessage(), e, CSVBuilderException.ExceptionType.CENSUS_FILE_PROBLEM);
+        }
+    }
+}
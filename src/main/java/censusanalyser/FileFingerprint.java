@@ -0,0 +1,66 @@
+package censusanalyser;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Objects;
+import java.util.zip.CRC32;
+
+public class FileFingerprint {
+    private static final long HASH_BLOCK_SIZE = 64L << 20;
+
+    public final Path path;
+    public final long size;
+    public final long lastModified;
+    public final long contentHash;
+
+    public FileFingerprint(Path path, long size, long lastModified, long contentHash) {
+        this.path = path;
+        this.size = size;
+        this.lastModified = lastModified;
+        this.contentHash = contentHash;
+    }
+
+    public static BasicFileAttributes readAttributes(Path path) throws IOException {
+        return Files.readAttributes(path, BasicFileAttributes.class);
+    }
+
+    public static long contentHash(Path path) throws IOException {
+        CRC32 crc = new CRC32();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            for (long position = 0; position < size; position += HASH_BLOCK_SIZE)
+                crc.update(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(HASH_BLOCK_SIZE, size - position)));
+        }
+        return crc.getValue();
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if(this == other)
+            return true;
+        if(!(other instanceof FileFingerprint))
+            return false;
+        FileFingerprint that = (FileFingerprint) other;
+        return size == that.size && lastModified == that.lastModified && contentHash == that.contentHash
+                && path.equals(that.path);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(path, size, lastModified, contentHash);
+    }
+
+    @Override
+    public String toString() {
+        return "FileFingerprint{" +
+                "path=" + path +
+                ", size=" + size +
+                ", lastModified=" + lastModified +
+                ", contentHash=" + Long.toHexString(contentHash) +
+                '}';
+    }
+}
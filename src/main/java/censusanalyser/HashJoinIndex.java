@@ -0,0 +1,102 @@
+package censusanalyser;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Function;
+
+// Open-addressing hash index over the smaller (lookup) side of a join. Probing is thread-safe;
+// every slot that is probed at least once is remembered so unmatched lookup keys can be reported.
+public class HashJoinIndex<V> {
+    public enum KeyNormalization {EXACT, TRIM, TRIM_IGNORE_CASE}
+
+    private final KeyNormalization keyNormalization;
+    private final String[] keys;
+    private final Object[] values;
+    private final boolean[] matched;
+    private final int mask;
+    private int size;
+
+    private HashJoinIndex(int expectedSize, KeyNormalization keyNormalization) {
+        int capacity = Integer.highestOneBit(Math.max(4, expectedSize) * 2 - 1) << 1;
+        this.keyNormalization = keyNormalization;
+        this.keys = new String[capacity];
+        this.values = new Object[capacity];
+        this.matched = new boolean[capacity];
+        this.mask = capacity - 1;
+    }
+
+    public static <V> HashJoinIndex<V> build(Iterator<V> rows, Function<V, String> keyOf,
+                                             KeyNormalization keyNormalization) {
+        List<V> buildRows = new ArrayList<>();
+        rows.forEachRemaining(buildRows::add);
+        return build(buildRows, keyOf, keyNormalization);
+    }
+
+    // A later build row with the same key replaces the earlier one.
+    public static <V> HashJoinIndex<V> build(List<V> rows, Function<V, String> keyOf,
+                                             KeyNormalization keyNormalization) {
+        HashJoinIndex<V> index = new HashJoinIndex<>(rows.size(), keyNormalization);
+        for (V row : rows) {
+            String key = index.normalize(keyOf.apply(row));
+            if(key == null)
+                continue;
+            int slot = index.slotOf(key);
+            if(index.keys[slot] == null) {
+                index.keys[slot] = key;
+                index.size++;
+            }
+            index.values[slot] = row;
+        }
+        return index;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V probe(String key) {
+        String normalizedKey = normalize(key);
+        if(normalizedKey == null)
+            return null;
+        int slot = slotOf(normalizedKey);
+        if(keys[slot] == null)
+            return null;
+        matched[slot] = true;
+        return (V) values[slot];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    int capacity() {
+        return keys.length;
+    }
+
+    public List<String> getUnmatchedKeys() {
+        List<String> unmatchedKeys = new ArrayList<>();
+        for (int slot = 0; slot < keys.length; slot++)
+            if(keys[slot] != null && !matched[slot])
+                unmatchedKeys.add(keys[slot]);
+        return unmatchedKeys;
+    }
+
+    public String normalize(String key) {
+        if(key == null)
+            return null;
+        switch (keyNormalization) {
+            case TRIM:
+                return key.trim();
+            case TRIM_IGNORE_CASE:
+                return key.trim().toLowerCase();
+            default:
+                return key;
+        }
+    }
+
+    private int slotOf(String key) {
+        int hash = key.hashCode();
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        while (keys[slot] != null && !keys[slot].equals(key))
+            slot = (slot + 1) & mask;
+        return slot;
+    }
+}
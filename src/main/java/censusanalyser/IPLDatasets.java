@@ -0,0 +1,38 @@
+package censusanalyser;
+
+// Schemas and rankings for the IPL 2019 factsheets (IPL2019FactsheetMostRuns.csv, IPL2019FactsheetMostWkts.csv).
+// Averages and rates are "-" when undefined (never dismissed, no wickets) and load as missing, so those players
+// rank last; high scores keep their runs without the not-out '*'. Players are keyed by name, since the factsheet
+// lists some of them twice.
+public class IPLDatasets {
+    private static final CensusAnalyser.SortOrder ASCENDING = CensusAnalyser.SortOrder.ASCENDING;
+    private static final CensusAnalyser.SortOrder DESCENDING = CensusAnalyser.SortOrder.DESCENDING;
+
+    public static final DatasetOrder BEST_BATTING_AVERAGE = DatasetOrder.by("Avg", DESCENDING).then("Runs", DESCENDING);
+    public static final DatasetOrder BEST_STRIKE_RATE = DatasetOrder.by("SR", DESCENDING).then("Runs", DESCENDING);
+    public static final DatasetOrder MOST_RUNS = DatasetOrder.by("Runs", DESCENDING).then("Avg", DESCENDING);
+    public static final DatasetOrder MOST_BOUNDARIES = DatasetOrder.by("6s", DESCENDING).then("4s", DESCENDING);
+    public static final DatasetOrder MOST_WICKETS = DatasetOrder.by("Wkts", DESCENDING).then("Avg", ASCENDING);
+    public static final DatasetOrder BEST_ECONOMY = DatasetOrder.by("Econ", ASCENDING).then("Wkts", DESCENDING);
+    public static final DatasetOrder BEST_BOWLING_AVERAGE = DatasetOrder.by("Avg", ASCENDING).then("Wkts", DESCENDING);
+
+    private IPLDatasets() {
+    }
+
+    public static DatasetSchema mostRuns() {
+        return new DatasetSchema("IPL2019FactsheetMostRuns")
+                .integer("POS").text("PLAYER").integer("Mat").integer("Inns").integer("NO").integer("Runs")
+                .integer("HS").decimal("Avg").integer("BF").decimal("SR").integer("100").integer("50")
+                .integer("4s").integer("6s")
+                .key("PLAYER").numberSuffix('*');
+    }
+
+    // Overs are kept in the factsheet's overs.balls notation, e.g. 64.2 is 64 overs and 2 balls.
+    public static DatasetSchema mostWickets() {
+        return new DatasetSchema("IPL2019FactsheetMostWkts")
+                .integer("POS").text("PLAYER").integer("Mat").integer("Inns").decimal("Ov").integer("Runs")
+                .integer("Wkts").integer("BBI").decimal("Avg").decimal("Econ").decimal("SR").integer("4w")
+                .integer("5w")
+                .key("PLAYER");
+    }
+}
@@ -0,0 +1,219 @@
+package censusanalyser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+// Reloads a census file that only ever grows by appended rows. Each refresh parses just the bytes after the
+// last complete row seen so far and upserts them into the rows kept from earlier loads. Rows count as complete
+// at their newline: a trailing row without one may still be being written (a density of 3 that becomes 39), so
+// it is carried over and only loaded once its newline has been appended. A file that shrank or
+// whose already-read bytes changed (checked on the head and on the bytes before the resume offset) is
+// loaded again from byte zero. Rows are streamed from the file, so neither a full load nor a large tail needs
+// the whole range in memory at once.
+public class IncrementalCensusLoader {
+    public enum RefreshType {FULL, INCREMENTAL, UNCHANGED}
+
+    private static final int FINGERPRINT_BYTES = 64 << 10;
+    private static final int SCAN_BUFFER_SIZE = 64 << 10;
+    private static final char DELIMITER = ',';
+
+    private final CensusAnalyser.Country country;
+    private final Path censusFile;
+    private final String stateCodeFile;
+    private HashJoinIndex<IndiaStateCodeCSV> stateCodeIndex;
+    private FileFingerprint stateCodeFingerprint;
+
+    private CSVRowBinder<?> binder;
+    private CensusTable.Builder builder;
+    private CensusTable censusTable;
+    private long offset;
+    private long headHash;
+    private long boundaryHash;
+    private long fileSize;
+    private long lastModified;
+    private RefreshType lastRefreshType;
+
+    public IncrementalCensusLoader(CensusAnalyser.Country country, String... csvFilePath) throws CensusAnalyserException {
+        if(!country.equals(CensusAnalyser.Country.INDIA) && !country.equals(CensusAnalyser.Country.US))
+            throw new CensusAnalyserException("Unknown Country", CensusAnalyserException.ExceptionType.INVALID_COUNTRY);
+        this.country = country;
+        this.censusFile = Paths.get(csvFilePath[0]);
+        this.stateCodeFile = country.equals(CensusAnalyser.Country.INDIA) ? csvFilePath[1] : null;
+    }
+
+    public synchronized CensusTable refresh() throws CensusAnalyserException {
+        try (FileChannel channel = FileChannel.open(censusFile, StandardOpenOption.READ)) {
+            BasicFileAttributes attributes = FileFingerprint.readAttributes(censusFile);
+            long size = channel.size();
+            boolean stateCodesChanged = this.refreshStateCodeIndex();
+            if(censusTable == null || offset == 0 || stateCodesChanged || !this.isAppendOnly(channel, size)) {
+                this.loadFrom(channel, size, true);
+                lastRefreshType = RefreshType.FULL;
+            } else if(size == fileSize && attributes.lastModifiedTime().toMillis() == lastModified) {
+                lastRefreshType = RefreshType.UNCHANGED;
+                return censusTable;
+            } else {
+                this.loadFrom(channel, size, false);
+                lastRefreshType = RefreshType.INCREMENTAL;
+            }
+            fileSize = size;
+            lastModified = attributes.lastModifiedTime().toMillis();
+            return censusTable;
+        } catch (IOException e) {
+            throw new CensusAnalyserException(e.getMessage(),
+                    CensusAnalyserException.ExceptionType.CENSUS_FILE_PROBLEM);
+        } catch (RuntimeException e) {
+            throw new CensusAnalyserException(e.getMessage(),CensusAnalyserException.ExceptionType.CENSUS_FILE_PROBLEM);
+        } catch (CSVBuilderException e) {
+            throw new CensusAnalyserException(e.getMessage(),e.type.name());
+        }
+    }
+
+    public synchronized RefreshType getLastRefreshType() {
+        return lastRefreshType;
+    }
+
+    public synchronized long getOffset() {
+        return offset;
+    }
+
+    private void loadFrom(FileChannel channel, long size, boolean fromStart) throws IOException, CSVBuilderException {
+        long start = fromStart ? 0 : offset;
+        long rowEnd = findLastRowEnd(channel, start, size);
+        CSVTokenizer tokenizer = this.tokenize(channel, start, rowEnd);
+        CensusTable.Builder builder = fromStart ? new CensusTable.Builder() : this.builder;
+        CSVRowBinder<?> binder = this.binder;
+        if(fromStart) {
+            String[] header = rowEnd > 0 ? tokenizer.readHeader() : this.tokenize(channel, 0, size).readHeader();
+            Class<?> censusCSVClass = country.equals(CensusAnalyser.Country.INDIA) ? IndiaCensusCSV.class : USCensusCSV.class;
+            binder = CSVSchemas.forClass(censusCSVClass).bind(header);
+        }
+        int[] changedRows = new int[16];
+        int changedCount = 0;
+        boolean parsed = false;
+        try {
+            while (tokenizer.nextRow()) {
+                if(changedCount == changedRows.length)
+                    changedRows = Arrays.copyOf(changedRows, changedCount * 2);
+                changedRows[changedCount++] = builder.upsert(this.toCensusDAO(binder.bind(tokenizer)));
+            }
+            parsed = true;
+        } finally {
+            // The shared builder may hold part of a bad tail now; start over on the next refresh.
+            if(!parsed)
+                this.censusTable = null;
+        }
+        CensusTable censusTable = builder.build();
+        if(!fromStart)
+            censusTable.mergeSortOrders(this.censusTable, Arrays.copyOf(changedRows, changedCount));
+        this.offset = rowEnd;
+        this.headHash = crc(channel, 0, Math.min(offset, FINGERPRINT_BYTES));
+        this.boundaryHash = crc(channel, Math.max(0, offset - FINGERPRINT_BYTES), offset);
+        this.binder = binder;
+        this.builder = builder;
+        this.censusTable = censusTable;
+    }
+
+    private CensusDAO toCensusDAO(Object censusCSV) {
+        CensusDAO censusDAO = CensusAdapter.toCensusDAO(censusCSV);
+        if(stateCodeIndex != null) {
+            IndiaStateCodeCSV stateCodeCSV = stateCodeIndex.probe(censusDAO.state);
+            if(stateCodeCSV != null)
+                censusDAO.stateCode = stateCodeCSV.stateCode;
+        }
+        return censusDAO;
+    }
+
+    private boolean isAppendOnly(FileChannel channel, long size) throws IOException {
+        return size >= offset && crc(channel, 0, Math.min(offset, FINGERPRINT_BYTES)) == headHash
+                && crc(channel, Math.max(0, offset - FINGERPRINT_BYTES), offset) == boundaryHash;
+    }
+
+    private boolean refreshStateCodeIndex() throws IOException, CensusAnalyserException {
+        if(stateCodeFile == null)
+            return false;
+        BasicFileAttributes attributes = FileFingerprint.readAttributes(Paths.get(stateCodeFile));
+        FileFingerprint fingerprint = new FileFingerprint(Paths.get(stateCodeFile), attributes.size(),
+                attributes.lastModifiedTime().toMillis(), 0);
+        if(fingerprint.equals(stateCodeFingerprint))
+            return false;
+        stateCodeIndex = new IndiaCensusAdapter().loadIndiaStateCodeIndex(stateCodeFile);
+        stateCodeFingerprint = fingerprint;
+        return true;
+    }
+
+    // The channel is closed by refresh, not by the tokenizer.
+    private CSVTokenizer tokenize(FileChannel channel, long start, long end) {
+        return new CSVTokenizer(new InputStreamReader(new RangeInputStream(channel, start, end), StandardCharsets.UTF_8),
+                DELIMITER);
+    }
+
+    // Offset just past the last newline that is not inside a quoted field; start is always on a row boundary.
+    private static long findLastRowEnd(FileChannel channel, long start, long size) throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+        boolean inQuotes = false;
+        long rowEnd = start;
+        long position = start;
+        while (position < size) {
+            bytes.clear();
+            int read = channel.read(bytes, position);
+            if(read < 0)
+                break;
+            for (int i = 0; i < read; i++) {
+                byte b = bytes.get(i);
+                if(b == '"')
+                    inQuotes = !inQuotes;
+                else if(b == '\n' && !inQuotes)
+                    rowEnd = position + i + 1;
+            }
+            position += read;
+        }
+        return rowEnd;
+    }
+
+    private static long crc(FileChannel channel, long start, long end) throws IOException {
+        CRC32 crc = new CRC32();
+        if(end > start)
+            crc.update(channel.map(FileChannel.MapMode.READ_ONLY, start, end - start));
+        return crc.getValue();
+    }
+
+    // Bytes [start, end) of the file, read with positional reads so the range ends at a row boundary.
+    private static class RangeInputStream extends InputStream {
+        private final FileChannel channel;
+        private long position;
+        private final long end;
+
+        RangeInputStream(FileChannel channel, long start, long end) {
+            this.channel = channel;
+            this.position = start;
+            this.end = end;
+        }
+
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return this.read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            if(len == 0)
+                return 0;
+            if(position >= end)
+                return -1;
+            int read = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, end - position)), position);
+            if(read > 0)
+                position += read;
+            return read;
+        }
+    }
+}
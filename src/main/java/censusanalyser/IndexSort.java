@@ -0,0 +1,224 @@
+package censusanalyser;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+// Stable index sorts over primitive long keys. Callers fold the direction and the value type into the keys:
+// ~key for descending, sortableKey for doubles, dictionary ranks for names. Small inputs are merge sorted; larger
+// ones go through an LSD radix sort on 11-bit digits that skips the digits all keys share, so int-sized keys such
+// as populations take three passes and doubles at most six. Each pass counts per-chunk histograms and scatters
+// the chunks in parallel; chunks cover consecutive positions, so equal keys keep their order.
+public class IndexSort {
+    private static final int INSERTION_SORT_THRESHOLD = 32;
+    private static final int RADIX_SORT_THRESHOLD = 1 << 10;
+    private static final int PARALLEL_CHUNK_SIZE = 1 << 16;
+    private static final int RADIX_BITS = 11;
+    private static final int RADIX = 1 << RADIX_BITS;
+
+    private IndexSort() {
+    }
+
+    // Stable ascending permutation of row indexes by primitive sort keys.
+    public static int[] sortByKey(long[] keys) {
+        if(keys.length >= RADIX_SORT_THRESHOLD)
+            return radixSort(keys, null);
+        return mergeSortByKey(keys);
+    }
+
+    static int[] mergeSortByKey(long[] keys) {
+        int size = keys.length;
+        int[] order = new int[size];
+        for (int row = 0; row < size; row++)
+            order[row] = row;
+        int[] buffer = new int[size];
+        for (int start = 0; start < size; start += INSERTION_SORT_THRESHOLD)
+            insertionSort(order, keys, start, Math.min(start + INSERTION_SORT_THRESHOLD, size));
+        for (int width = INSERTION_SORT_THRESHOLD; width < size; width *= 2) {
+            for (int start = 0; start < size; start += 2 * width) {
+                int middle = Math.min(start + width, size);
+                int end = Math.min(start + 2 * width, size);
+                merge(order, buffer, keys, start, middle, end);
+            }
+            int[] swap = order;
+            order = buffer;
+            buffer = swap;
+        }
+        return order;
+    }
+
+    // Stable permutation ordering rows by keys[0], then keys[1] and so on, e.g. the compiled keys of a DatasetOrder.
+    public static int[] sortByKeys(long[][] keys) {
+        if(keys.length == 1)
+            return sortByKey(keys[0]);
+        int size = keys.length == 0 ? 0 : keys[0].length;
+        if(size >= RADIX_SORT_THRESHOLD) {
+            // least significant key first; each stable pass keeps the order of the keys after it
+            int[] order = null;
+            for (int key = keys.length - 1; key >= 0; key--)
+                order = radixSort(keys[key], order);
+            return order;
+        }
+        int[] order = new int[size];
+        for (int row = 0; row < size; row++)
+            order[row] = row;
+        int[] buffer = new int[size];
+        for (int start = 0; start < size; start += INSERTION_SORT_THRESHOLD)
+            insertionSort(order, keys, start, Math.min(start + INSERTION_SORT_THRESHOLD, size));
+        for (int width = INSERTION_SORT_THRESHOLD; width < size; width *= 2) {
+            for (int start = 0; start < size; start += 2 * width) {
+                int middle = Math.min(start + width, size);
+                int end = Math.min(start + 2 * width, size);
+                merge(order, buffer, keys, start, middle, end);
+            }
+            int[] swap = order;
+            order = buffer;
+            buffer = swap;
+        }
+        return order;
+    }
+
+    // Stably reorders order (the identity when null) by keys[order[i]]; keys are not modified.
+    static int[] radixSort(long[] keys, int[] order) {
+        int size = keys.length;
+        return radixSort(keys, order, size < 2 * PARALLEL_CHUNK_SIZE ? 1
+                : Math.max(1, Math.min(ForkJoinPool.getCommonPoolParallelism(), size / PARALLEL_CHUNK_SIZE)));
+    }
+
+    // Same, with the number of chunks each pass is split into given rather than taken from the pool size.
+    static int[] radixSort(long[] keys, int[] order, int chunks) {
+        int size = keys.length;
+        long[] sourceKeys = keys;
+        if(order != null) {
+            sourceKeys = new long[size];
+            for (int index = 0; index < size; index++)
+                sourceKeys[index] = keys[order[index]];
+        }
+        long varyingBits = 0;
+        for (int index = 1; index < size; index++)
+            varyingBits |= sourceKeys[index] ^ sourceKeys[0];
+        int[] sourceRows = order;
+        long[] targetKeys = null, spareKeys = null;
+        int[] targetRows = null, spareRows = null;
+        for (int shift = 0; shift < 64; shift += RADIX_BITS) {
+            if(((varyingBits >>> shift) & (RADIX - 1)) == 0)
+                continue;
+            if(targetKeys == null)
+                targetKeys = new long[size];
+            if(targetRows == null)
+                targetRows = new int[size];
+            scatter(sourceKeys, sourceRows, targetKeys, targetRows, shift, chunks);
+            // the caller's keys are only ever read, so the pass after next writes over this pass's source
+            spareKeys = sourceKeys == keys ? spareKeys : sourceKeys;
+            spareRows = sourceRows == order ? spareRows : sourceRows;
+            sourceKeys = targetKeys;
+            sourceRows = targetRows;
+            targetKeys = spareKeys;
+            targetRows = spareRows;
+        }
+        if(sourceRows == null) {
+            sourceRows = new int[size];
+            for (int row = 0; row < size; row++)
+                sourceRows[row] = row;
+        }
+        return sourceRows;
+    }
+
+    // One counting-sort pass on the digit at shift. Keys are read with the sign bit flipped, so unsigned digits
+    // order them as signed longs. Per-chunk histograms give per-chunk offsets, laid out digit by digit and chunk
+    // by chunk, and then every chunk scatters its rows to its own offsets.
+    private static void scatter(long[] sourceKeys, int[] sourceRows, long[] targetKeys, int[] targetRows, int shift,
+                                int chunks) {
+        int size = sourceKeys.length;
+        int[][] counts = new int[chunks][RADIX];
+        forEachChunk(chunks, chunk -> {
+            int[] count = counts[chunk];
+            for (int index = chunkStart(chunk, chunks, size), end = chunkStart(chunk + 1, chunks, size); index < end; index++)
+                count[(int) ((sourceKeys[index] ^ Long.MIN_VALUE) >>> shift) & (RADIX - 1)]++;
+        });
+        int offset = 0;
+        for (int digit = 0; digit < RADIX; digit++)
+            for (int chunk = 0; chunk < chunks; chunk++) {
+                int count = counts[chunk][digit];
+                counts[chunk][digit] = offset;
+                offset += count;
+            }
+        forEachChunk(chunks, chunk -> {
+            int[] next = counts[chunk];
+            for (int index = chunkStart(chunk, chunks, size), end = chunkStart(chunk + 1, chunks, size); index < end; index++) {
+                long key = sourceKeys[index];
+                int position = next[(int) ((key ^ Long.MIN_VALUE) >>> shift) & (RADIX - 1)]++;
+                targetKeys[position] = key;
+                targetRows[position] = sourceRows == null ? index : sourceRows[index];
+            }
+        });
+    }
+
+    private static int chunkStart(int chunk, int chunks, int size) {
+        return (int) ((long) size * chunk / chunks);
+    }
+
+    private static void forEachChunk(int chunks, IntConsumer task) {
+        if(chunks == 1)
+            task.accept(0);
+        else
+            IntStream.range(0, chunks).parallel().forEach(task);
+    }
+
+    public static long sortableKey(double value) {
+        long bits = Double.doubleToLongBits(value);
+        return bits ^ ((bits >> 63) & Long.MAX_VALUE);
+    }
+
+    private static void insertionSort(int[] order, long[] keys, int start, int end) {
+        for (int i = start + 1; i < end; i++) {
+            int row = order[i];
+            long key = keys[row];
+            int j = i - 1;
+            while (j >= start && keys[order[j]] > key) {
+                order[j + 1] = order[j];
+                j--;
+            }
+            order[j + 1] = row;
+        }
+    }
+
+    private static void merge(int[] order, int[] target, long[] keys, int start, int middle, int end) {
+        int left = start, right = middle, out = start;
+        while (left < middle && right < end)
+            target[out++] = keys[order[right]] < keys[order[left]] ? order[right++] : order[left++];
+        while (left < middle)
+            target[out++] = order[left++];
+        while (right < end)
+            target[out++] = order[right++];
+    }
+
+    private static int compare(long[][] keys, int first, int second) {
+        for (long[] key : keys)
+            if(key[first] != key[second])
+                return key[first] < key[second] ? -1 : 1;
+        return 0;
+    }
+
+    private static void insertionSort(int[] order, long[][] keys, int start, int end) {
+        for (int i = start + 1; i < end; i++) {
+            int row = order[i];
+            int j = i - 1;
+            while (j >= start && compare(keys, order[j], row) > 0) {
+                order[j + 1] = order[j];
+                j--;
+            }
+            order[j + 1] = row;
+        }
+    }
+
+    private static void merge(int[] order, int[] target, long[][] keys, int start, int middle, int end) {
+        int left = start, right = middle, out = start;
+        while (left < middle && right < end)
+            target[out++] = compare(keys, order[right], order[left]) < 0 ? order[right++] : order[left++];
+        while (left < middle)
+            target[out++] = order[left++];
+        while (right < end)
+            target[out++] = order[right++];
+    }
+}
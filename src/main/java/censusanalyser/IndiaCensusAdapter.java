@@ -2,31 +2,122 @@ package censusanalyser;
 
 import java.io.IOException;
 import java.io.Reader;
-import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
-import java.util.stream.StreamSupport;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 
 
 public class IndiaCensusAdapter extends CensusAdapter {
+    private HashJoinIndex.KeyNormalization keyNormalization = HashJoinIndex.KeyNormalization.EXACT;
+    private JoinReport stateCodeJoinReport;
+
+    public void setKeyNormalization(HashJoinIndex.KeyNormalization keyNormalization) {
+        this.keyNormalization = keyNormalization;
+    }
+
+    public JoinReport getStateCodeJoinReport() {
+        return stateCodeJoinReport;
+    }
+
+    // The state code table is the small side: it is indexed first and every census row is joined
+    // against it while the census file is being parsed. Projections without state codes skip the join.
     public Map<String, CensusDAO> loadCensusData(String... csvFilePath) throws CensusAnalyserException {
-        Map<String, CensusDAO> censusStateMap = super.loadCensusData(IndiaCensusCSV.class,csvFilePath[0]);
-        this.loadIndiaStateCode(censusStateMap,csvFilePath[1]);
+        if(!this.isProjected(CensusProjection.Column.STATE_CODE))
+            return super.loadCensusData(IndiaCensusCSV.class, csvFilePath[0]);
+        HashJoinIndex<IndiaStateCodeCSV> stateCodeIndex = this.loadIndiaStateCodeIndex(csvFilePath[1]);
+        JoinReport joinReport = new JoinReport();
+        Map<String, CensusDAO> censusStateMap = super.loadCensusData(IndiaCensusCSV.class, csvFilePath[0], censusDAO -> {
+            IndiaStateCodeCSV stateCodeCSV = joinReport.probe(stateCodeIndex, censusDAO.state);
+            if(stateCodeCSV != null)
+                censusDAO.stateCode = stateCodeCSV.stateCode;
+        });
+        stateCodeJoinReport = joinReport.complete(stateCodeIndex);
+        return censusStateMap;
+    }
+
+    // Reads the state code table on the executor while this thread parses the census file. Rows are still joined
+    // as they are parsed: the first row waits for the index, later rows find it ready.
+    @Override
+    public Map<String, CensusDAO> loadCensusData(Executor executor, String... csvFilePath) throws CensusAnalyserException {
+        if(!this.isProjected(CensusProjection.Column.STATE_CODE))
+            return super.loadCensusData(IndiaCensusCSV.class, csvFilePath[0]);
+        CompletableFuture<HashJoinIndex<IndiaStateCodeCSV>> stateCodeIndex = new CompletableFuture<>();
+        executor.execute(() -> {
+            try {
+                stateCodeIndex.complete(this.loadIndiaStateCodeIndex(csvFilePath[1]));
+            } catch (Throwable e) {
+                stateCodeIndex.completeExceptionally(e);
+            }
+        });
+        JoinReport joinReport = new JoinReport();
+        Map<String, CensusDAO> censusStateMap;
+        try {
+            censusStateMap = super.loadCensusData(IndiaCensusCSV.class, csvFilePath[0], censusDAO -> {
+                IndiaStateCodeCSV stateCodeCSV = joinReport.probe(stateCodeIndex.join(), censusDAO.state);
+                if(stateCodeCSV != null)
+                    censusDAO.stateCode = stateCodeCSV.stateCode;
+            });
+        } catch (CensusAnalyserException e) {
+            // a failed state code load surfaces through the first row that waited for it
+            if(stateCodeIndex.isCompletedExceptionally())
+                this.awaitIndex(stateCodeIndex);
+            throw e;
+        }
+        stateCodeJoinReport = joinReport.complete(this.awaitIndex(stateCodeIndex));
         return censusStateMap;
     }
 
+    private HashJoinIndex<IndiaStateCodeCSV> awaitIndex(CompletableFuture<HashJoinIndex<IndiaStateCodeCSV>> stateCodeIndex)
+            throws CensusAnalyserException {
+        try {
+            return stateCodeIndex.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CensusAnalyserException("Interrupted while loading state codes",
+                    CensusAnalyserException.ExceptionType.CENSUS_FILE_PROBLEM, e);
+        } catch (ExecutionException e) {
+            if(e.getCause() instanceof CensusAnalyserException)
+                throw (CensusAnalyserException) e.getCause();
+            throw new CensusAnalyserException(e.getCause().getMessage(),
+                    CensusAnalyserException.ExceptionType.CENSUS_FILE_PROBLEM, e.getCause());
+        }
+    }
+
     public Map<String, CensusDAO> loadIndiaStateCode(Map<String, CensusDAO> censusStateMap, String csvFilePath) throws CensusAnalyserException {
-        try ( Reader reader = Files.newBufferedReader(Paths.get(csvFilePath)))
+        return this.joinStateCodes(censusStateMap, this.loadIndiaStateCodeIndex(csvFilePath));
+    }
+
+    private Map<String, CensusDAO> joinStateCodes(Map<String, CensusDAO> censusStateMap,
+                                                  HashJoinIndex<IndiaStateCodeCSV> stateCodeIndex) {
+        LoadTimer timer = LoadTimer.start();
+        long start = timer.now();
+        JoinReport joinReport = new JoinReport();
+        censusStateMap.values().parallelStream().forEach(censusDAO -> {
+            IndiaStateCodeCSV stateCodeCSV = joinReport.probe(stateCodeIndex, censusDAO.state);
+            if(stateCodeCSV != null)
+                censusDAO.stateCode = stateCodeCSV.stateCode;
+        });
+        stateCodeJoinReport = joinReport.complete(stateCodeIndex);
+        timer.stage(CensusMetrics.Stage.STATE_CODE_JOIN, start);
+        timer.finish();
+        return censusStateMap;
+    }
+
+    public HashJoinIndex<IndiaStateCodeCSV> loadIndiaStateCodeIndex(String csvFilePath) throws CensusAnalyserException {
+        LoadTimer timer = LoadTimer.start();
+        long start = timer.now();
+        try ( Reader reader = CensusFileReader.open(Paths.get(csvFilePath)))
         {
             ICSVBuilder csvBuilder = CSVBuilderFactory.createCSVBuilder();
             Iterator<IndiaStateCodeCSV> csvFileIterator = csvBuilder.getCSVFileIterator(reader, IndiaStateCodeCSV.class);
-            Iterable<IndiaStateCodeCSV> csvIterable = () -> csvFileIterator;
-            StreamSupport.stream(csvIterable.spliterator(),false)
-                    .filter(csvState -> censusStateMap.get(csvState.state) != null)
-                    .forEach(csvState -> censusStateMap.get(csvState.state).stateCode = csvState.stateCode);
-            return censusStateMap;
+            HashJoinIndex<IndiaStateCodeCSV> stateCodeIndex =
+                    HashJoinIndex.build(csvFileIterator, csvState -> csvState.state, keyNormalization);
+            timer.stage(CensusMetrics.Stage.STATE_CODE_INDEX, start);
+            timer.finish();
+            return stateCodeIndex;
         } catch (IOException e) {
             throw new CensusAnalyserException(e.getMessage(),
                     CensusAnalyserException.ExceptionType.CENSUS_FILE_PROBLEM);
@@ -0,0 +1,145 @@
+package censusanalyser;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+// Default CensusMetrics: lock-free counters plus a log2 latency histogram per stage, published as the
+// censusanalyser:type=CensusMetrics MBean.
+public class JmxCensusMetrics implements CensusMetrics, JmxCensusMetricsMBean {
+    public static final String OBJECT_NAME = "censusanalyser:type=CensusMetrics";
+    private static final int BUCKETS = 64;
+
+    private final LongAdder rowsLoaded = new LongAdder();
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder rowsRejected = new LongAdder();
+    private final LongAdder allocatedBytes = new LongAdder();
+    private final LongAdder[] stageNanos = new LongAdder[Stage.values().length];
+    private final LongAdder[][] stageHistograms = new LongAdder[Stage.values().length][BUCKETS];
+
+    public JmxCensusMetrics() {
+        for (int stage = 0; stage < stageNanos.length; stage++) {
+            stageNanos[stage] = new LongAdder();
+            for (int bucket = 0; bucket < BUCKETS; bucket++)
+                stageHistograms[stage][bucket] = new LongAdder();
+        }
+    }
+
+    // Creates the metrics and registers them with the platform MBean server, replacing an earlier registration.
+    public static JmxCensusMetrics register() {
+        JmxCensusMetrics metrics = new JmxCensusMetrics();
+        try {
+            MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(OBJECT_NAME);
+            if(mBeanServer.isRegistered(objectName))
+                mBeanServer.unregisterMBean(objectName);
+            mBeanServer.registerMBean(metrics, objectName);
+        } catch (JMException e) {
+            throw new IllegalStateException("Could not register " + OBJECT_NAME, e);
+        }
+        return metrics;
+    }
+
+    public boolean isEnabled() {
+        return true;
+    }
+
+    public void recordStage(Stage stage, long nanos) {
+        stageNanos[stage.ordinal()].add(nanos);
+        stageHistograms[stage.ordinal()][bucket(nanos)].increment();
+    }
+
+    public void recordRows(long rows, long bytes) {
+        rowsLoaded.add(rows);
+        bytesRead.add(bytes);
+    }
+
+    public void recordRejectedRows(long rows) {
+        rowsRejected.add(rows);
+    }
+
+    public void recordAllocatedBytes(long bytes) {
+        allocatedBytes.add(bytes);
+    }
+
+    public long getRowsLoaded() {
+        return rowsLoaded.sum();
+    }
+
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    public long getRowsRejected() {
+        return rowsRejected.sum();
+    }
+
+    public long getAllocatedBytesEstimate() {
+        return allocatedBytes.sum();
+    }
+
+    public double getRowsPerSecond() {
+        long loadNanos = getStageNanos(Stage.LOAD);
+        return loadNanos == 0 ? 0 : rowsLoaded.sum() * 1e9 / loadNanos;
+    }
+
+    public double getBytesPerSecond() {
+        long loadNanos = getStageNanos(Stage.LOAD);
+        return loadNanos == 0 ? 0 : bytesRead.sum() * 1e9 / loadNanos;
+    }
+
+    public long getStageNanos(Stage stage) {
+        return stageNanos[stage.ordinal()].sum();
+    }
+
+    public long getStageCount(Stage stage) {
+        long count = 0;
+        for (LongAdder bucket : stageHistograms[stage.ordinal()])
+            count += bucket.sum();
+        return count;
+    }
+
+    // Upper bound in nanoseconds of the histogram bucket holding the given percentile of the stage's samples.
+    public long getStagePercentileNanos(Stage stage, double percentile) {
+        long count = getStageCount(stage);
+        if(count == 0)
+            return 0;
+        long target = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += stageHistograms[stage.ordinal()][bucket].sum();
+            if(seen >= target)
+                return bucket == 0 ? 0 : bucket >= 63 ? Long.MAX_VALUE : (1L << bucket) - 1;
+        }
+        return Long.MAX_VALUE;
+    }
+
+    public String[] getStageSummaries() {
+        Stage[] stages = Stage.values();
+        String[] summaries = new String[stages.length];
+        for (Stage stage : stages)
+            summaries[stage.ordinal()] = String.format("%s count=%d totalMs=%.3f p50<=%.3fms p99<=%.3fms",
+                    stage, getStageCount(stage), getStageNanos(stage) / 1e6,
+                    getStagePercentileNanos(stage, 50) / 1e6, getStagePercentileNanos(stage, 99) / 1e6);
+        return summaries;
+    }
+
+    public void reset() {
+        rowsLoaded.reset();
+        bytesRead.reset();
+        rowsRejected.reset();
+        allocatedBytes.reset();
+        for (int stage = 0; stage < stageNanos.length; stage++) {
+            stageNanos[stage].reset();
+            for (LongAdder bucket : stageHistograms[stage])
+                bucket.reset();
+        }
+    }
+
+    // Bucket b holds samples in [2^(b-1), 2^b).
+    private static int bucket(long nanos) {
+        return nanos <= 0 ? 0 : 64 - Long.numberOfLeadingZeros(nanos);
+    }
+}
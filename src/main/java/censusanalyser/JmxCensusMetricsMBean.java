@@ -0,0 +1,19 @@
+package censusanalyser;
+
+public interface JmxCensusMetricsMBean {
+    long getRowsLoaded();
+
+    long getBytesRead();
+
+    long getRowsRejected();
+
+    long getAllocatedBytesEstimate();
+
+    double getRowsPerSecond();
+
+    double getBytesPerSecond();
+
+    String[] getStageSummaries();
+
+    void reset();
+}
@@ -0,0 +1,74 @@
+package censusanalyser;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Outcome of one hash join. Unmatched census rows are counted; only the first MAX_SAMPLED_KEYS of their keys are
+// kept, so a large file with a bad state code table cannot pile up a second copy of its key set. Rows with no key
+// at all are counted separately rather than reported as the string "null".
+public class JoinReport {
+    public static final int MAX_SAMPLED_KEYS = 100;
+
+    private final AtomicLong matchedRows = new AtomicLong();
+    private final AtomicLong unmatchedKeyRows = new AtomicLong();
+    private final AtomicLong nullProbeRows = new AtomicLong();
+    private final Queue<String> unmatchedProbeKeys = new ConcurrentLinkedQueue<>();
+    private final List<String> unmatchedBuildKeys = new ArrayList<>();
+
+    // Probes one row against the index; safe to call from several parsing threads at once.
+    public <V> V probe(HashJoinIndex<V> index, String key) {
+        if(key == null) {
+            nullProbeRows.incrementAndGet();
+            return null;
+        }
+        V match = index.probe(key);
+        if(match == null) {
+            if(unmatchedKeyRows.incrementAndGet() <= MAX_SAMPLED_KEYS)
+                unmatchedProbeKeys.add(key);
+        } else {
+            matchedRows.incrementAndGet();
+        }
+        return match;
+    }
+
+    public JoinReport complete(HashJoinIndex<?> index) {
+        unmatchedBuildKeys.addAll(index.getUnmatchedKeys());
+        return this;
+    }
+
+    public long getMatchedRows() {
+        return matchedRows.get();
+    }
+
+    // Census rows that found no state code, including those without a state name.
+    public long getUnmatchedProbeRows() {
+        return unmatchedKeyRows.get() + nullProbeRows.get();
+    }
+
+    public long getNullProbeRows() {
+        return nullProbeRows.get();
+    }
+
+    // A sample of at most MAX_SAMPLED_KEYS unmatched state names, in no particular order when parsed in parallel.
+    public List<String> getUnmatchedProbeKeys() {
+        return new ArrayList<>(unmatchedProbeKeys);
+    }
+
+    public List<String> getUnmatchedBuildKeys() {
+        return unmatchedBuildKeys;
+    }
+
+    @Override
+    public String toString() {
+        return "JoinReport{" +
+                "matchedRows=" + matchedRows +
+                ", unmatchedProbeRows=" + getUnmatchedProbeRows() +
+                ", nullProbeRows=" + nullProbeRows +
+                ", unmatchedProbeKeys=" + unmatchedProbeKeys +
+                ", unmatchedBuildKeys=" + unmatchedBuildKeys +
+                '}';
+    }
+}
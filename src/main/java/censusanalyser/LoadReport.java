@@ -0,0 +1,44 @@
+package censusanalyser;
+
+import java.nio.file.Path;
+
+public class LoadReport {
+    private final long rowsLoaded;
+    private final long rowsRejected;
+    private final Path quarantineFile;
+    private final boolean errorBudgetExceeded;
+
+    LoadReport(long rowsLoaded, long rowsRejected, Path quarantineFile, boolean errorBudgetExceeded) {
+        this.rowsLoaded = rowsLoaded;
+        this.rowsRejected = rowsRejected;
+        this.quarantineFile = quarantineFile;
+        this.errorBudgetExceeded = errorBudgetExceeded;
+    }
+
+    public long getRowsLoaded() {
+        return rowsLoaded;
+    }
+
+    public long getRowsRejected() {
+        return rowsRejected;
+    }
+
+    // Null when no row was rejected; the file is only created for the first bad row.
+    public Path getQuarantineFile() {
+        return quarantineFile;
+    }
+
+    public boolean isErrorBudgetExceeded() {
+        return errorBudgetExceeded;
+    }
+
+    @Override
+    public String toString() {
+        return "LoadReport{" +
+                "rowsLoaded=" + rowsLoaded +
+                ", rowsRejected=" + rowsRejected +
+                ", quarantineFile=" + quarantineFile +
+                ", errorBudgetExceeded=" + errorBudgetExceeded +
+                '}';
+    }
+}
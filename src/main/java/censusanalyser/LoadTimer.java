@@ -0,0 +1,163 @@
+package censusanalyser;
+
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+// Stage times of one load or query. They are summed locally while it runs and handed to the CensusMetrics
+// once at the end. When metrics are off, start() returns DISABLED, whose wrappers return their argument
+// unchanged and whose clock reads nothing, so instrumented code runs as if it were not instrumented.
+class LoadTimer {
+    static final LoadTimer DISABLED = new LoadTimer(CensusMetrics.NOOP);
+
+    private final CensusMetrics metrics;
+    private final LongAdder[] stageNanos = new LongAdder[CensusMetrics.Stage.values().length];
+    private final LongAdder rows = new LongAdder();
+    private final long startNanos;
+    private final long startAllocatedBytes;
+
+    private LoadTimer(CensusMetrics metrics) {
+        this.metrics = metrics;
+        boolean enabled = metrics.isEnabled();
+        for (int stage = 0; stage < stageNanos.length; stage++)
+            stageNanos[stage] = new LongAdder();
+        this.startNanos = enabled ? System.nanoTime() : 0;
+        this.startAllocatedBytes = enabled ? allocatedBytes() : 0;
+    }
+
+    static LoadTimer start() {
+        CensusMetrics metrics = CensusInstrumentation.getMetrics();
+        return metrics.isEnabled() ? new LoadTimer(metrics) : DISABLED;
+    }
+
+    long now() {
+        return this == DISABLED ? 0 : System.nanoTime();
+    }
+
+    // Adds the time since start to the stage and returns the current time, so stages can be chained.
+    long stage(CensusMetrics.Stage stage, long start) {
+        if(this == DISABLED)
+            return 0;
+        long now = System.nanoTime();
+        stageNanos[stage.ordinal()].add(now - start);
+        return now;
+    }
+
+    Reader timeReads(Reader reader) {
+        if(this == DISABLED)
+            return reader;
+        return new FilterReader(reader) {
+            @Override
+            public int read(char[] buffer, int offset, int length) throws IOException {
+                long start = System.nanoTime();
+                int read = super.read(buffer, offset, length);
+                stageNanos[CensusMetrics.Stage.READ.ordinal()].add(System.nanoTime() - start);
+                return read;
+            }
+        };
+    }
+
+    // Time spent in the iterator counts as PARSE; the reads it triggers are taken out again in finish.
+    <E> Iterator<E> timeParsing(Iterator<E> iterator) {
+        if(this == DISABLED)
+            return iterator;
+        LongAdder parseNanos = stageNanos[CensusMetrics.Stage.PARSE.ordinal()];
+        return new Iterator<E>() {
+            public boolean hasNext() {
+                long start = System.nanoTime();
+                boolean hasNext = iterator.hasNext();
+                parseNanos.add(System.nanoTime() - start);
+                return hasNext;
+            }
+
+            public E next() {
+                long start = System.nanoTime();
+                E next = iterator.next();
+                parseNanos.add(System.nanoTime() - start);
+                return next;
+            }
+        };
+    }
+
+    <T, R> Function<T, R> time(CensusMetrics.Stage stage, Function<T, R> function) {
+        if(this == DISABLED)
+            return function;
+        LongAdder nanos = stageNanos[stage.ordinal()];
+        return value -> {
+            long start = System.nanoTime();
+            R result = function.apply(value);
+            nanos.add(System.nanoTime() - start);
+            return result;
+        };
+    }
+
+    // Times the consumer and counts every row passed through it.
+    <T> Consumer<T> timeRows(CensusMetrics.Stage stage, Consumer<T> consumer) {
+        if(this == DISABLED)
+            return consumer;
+        LongAdder nanos = stageNanos[stage.ordinal()];
+        return value -> {
+            long start = System.nanoTime();
+            consumer.accept(value);
+            nanos.add(System.nanoTime() - start);
+            rows.increment();
+        };
+    }
+
+    // For loads that count their rows themselves instead of passing them through timeRows.
+    void countRows(long count) {
+        if(this != DISABLED)
+            rows.add(count);
+    }
+
+    void finishLoad(Path csvFile) {
+        if(this == DISABLED)
+            return;
+        long bytes;
+        try {
+            bytes = Files.size(csvFile);
+        } catch (IOException e) {
+            bytes = 0;
+        }
+        long readNanos = stageNanos[CensusMetrics.Stage.READ.ordinal()].sum();
+        stageNanos[CensusMetrics.Stage.PARSE.ordinal()].add(-Math.min(readNanos,
+                stageNanos[CensusMetrics.Stage.PARSE.ordinal()].sum()));
+        stageNanos[CensusMetrics.Stage.LOAD.ordinal()].add(System.nanoTime() - startNanos);
+        metrics.recordRows(rows.sum(), bytes);
+        finish();
+    }
+
+    void finish() {
+        if(this == DISABLED)
+            return;
+        for (CensusMetrics.Stage stage : CensusMetrics.Stage.values()) {
+            long nanos = stageNanos[stage.ordinal()].sum();
+            if(nanos > 0)
+                metrics.recordStage(stage, nanos);
+        }
+        long allocated = allocatedBytes();
+        if(allocated > startAllocatedBytes)
+            metrics.recordAllocatedBytes(allocated - startAllocatedBytes);
+    }
+
+    void reject(long rejectedRows) {
+        if(this != DISABLED)
+            metrics.recordRejectedRows(rejectedRows);
+    }
+
+    // Bytes allocated by the calling thread, where the JVM can tell; work handed to other threads is not seen.
+    private static long allocatedBytes() {
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if(threadMXBean instanceof com.sun.management.ThreadMXBean)
+            return ((com.sun.management.ThreadMXBean) threadMXBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        return 0;
+    }
+}
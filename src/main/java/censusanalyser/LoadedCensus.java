@@ -0,0 +1,21 @@
+package censusanalyser;
+
+// What CensusAnalyser publishes to its queries: one loaded table and the country whose layout its rows are
+// written in. Immutable, so a query that read it once sees a consistent pair however many reloads follow.
+final class LoadedCensus {
+    private final CensusAnalyser.Country country;
+    private final CensusTable censusTable;
+
+    LoadedCensus(CensusAnalyser.Country country, CensusTable censusTable) {
+        this.country = country;
+        this.censusTable = censusTable;
+    }
+
+    CensusAnalyser.Country getCountry() {
+        return country;
+    }
+
+    CensusTable getCensusTable() {
+        return censusTable;
+    }
+}
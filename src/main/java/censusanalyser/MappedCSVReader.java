@@ -0,0 +1,159 @@
+package censusanalyser;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+// Splits a memory-mapped CSV file into byte ranges that start on row boundaries and parses them on the
+// fork-join pool. Boundaries are found from the quote parity of each range, so newlines inside quoted
+// fields never split a row.
+public class MappedCSVReader {
+    private static final int MIN_CHUNK_SIZE = 4 << 20;
+    private static final int MAX_CHUNK_SIZE = 256 << 20;
+    private static final int SCAN_WINDOW = 64 << 10;
+
+    private final Path path;
+    private final char delimiter;
+    private final int chunkSize;
+
+    public MappedCSVReader(Path path) {
+        this(path, ',', 0);
+    }
+
+    public MappedCSVReader(Path path, char delimiter, int chunkSize) {
+        this.path = path;
+        this.delimiter = delimiter;
+        this.chunkSize = chunkSize;
+    }
+
+    // Returns one accumulator per chunk, in file order.
+    public <E, A> List<A> parse(Class<E> csvClass, Supplier<A> accumulatorFactory,
+                                BiConsumer<A, E> rowConsumer) throws IOException, CSVBuilderException {
+        CSVSchema<E> schema = CSVSchemas.forClass(csvClass);
+        if(schema == null)
+            throw new CSVBuilderException("No CSV schema registered for " + csvClass.getName(),
+                    CSVBuilderException.ExceptionType.UNABLE_TO_PARSE);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long dataStart = findRowEnd(channel, 0, size, false);
+            char[] header = decode(channel, 0, dataStart);
+            CSVRowBinder<E> binder = schema.bind(new CSVTokenizer(header, header.length, delimiter).readHeader());
+            long[] boundaries = splitIntoRows(channel, dataStart, size);
+            try {
+                return IntStream.range(0, boundaries.length - 1).parallel()
+                        .mapToObj(chunk -> parseChunk(channel, boundaries[chunk], boundaries[chunk + 1],
+                                binder, accumulatorFactory, rowConsumer))
+                        .collect(Collectors.toList());
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+    }
+
+    private <E, A> A parseChunk(FileChannel channel, long start, long end, CSVRowBinder<E> binder,
+                                Supplier<A> accumulatorFactory, BiConsumer<A, E> rowConsumer) {
+        A accumulator = accumulatorFactory.get();
+        try {
+            CharBuffer chars = decodeChars(channel, start, end);
+            CSVTokenizer tokenizer = new CSVTokenizer(chars.array(), chars.limit(), delimiter);
+            while (tokenizer.nextRow())
+                rowConsumer.accept(accumulator, binder.bind(tokenizer));
+            return accumulator;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private long[] splitIntoRows(FileChannel channel, long dataStart, long size) throws IOException {
+        long length = size - dataStart;
+        int parallelism = ForkJoinPool.getCommonPoolParallelism();
+        long targetSize = chunkSize > 0 ? chunkSize
+                : Math.min(MAX_CHUNK_SIZE, Math.max(MIN_CHUNK_SIZE, length / (parallelism * 4L) + 1));
+        int chunks = (int) Math.max(1, (length + targetSize - 1) / targetSize);
+        long[] naiveStarts = new long[chunks];
+        for (int chunk = 0; chunk < chunks; chunk++)
+            naiveStarts[chunk] = dataStart + chunk * targetSize;
+
+        boolean[] oddQuotes = new boolean[chunks];
+        try {
+            IntStream.range(0, chunks).parallel().forEach(chunk -> {
+                long end = chunk + 1 < chunks ? naiveStarts[chunk + 1] : size;
+                oddQuotes[chunk] = countQuotes(channel, naiveStarts[chunk], end) % 2 != 0;
+            });
+            boolean[] startsInQuotes = new boolean[chunks];
+            for (int chunk = 1; chunk < chunks; chunk++)
+                startsInQuotes[chunk] = startsInQuotes[chunk - 1] ^ oddQuotes[chunk - 1];
+
+            long[] boundaries = new long[chunks + 1];
+            boundaries[0] = dataStart;
+            boundaries[chunks] = size;
+            IntStream.range(1, chunks).parallel().forEach(chunk ->
+                    boundaries[chunk] = findRowEnd(channel, naiveStarts[chunk], size, startsInQuotes[chunk]));
+            for (int chunk = 1; chunk <= chunks; chunk++)
+                boundaries[chunk] = Math.max(boundaries[chunk], boundaries[chunk - 1]);
+            return boundaries;
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static long countQuotes(FileChannel channel, long start, long end) {
+        long quotes = 0;
+        for (long position = start; position < end; position += Integer.MAX_VALUE) {
+            ByteBuffer bytes = map(channel, position, Math.min(end - position, Integer.MAX_VALUE));
+            for (int i = 0, limit = bytes.limit(); i < limit; i++)
+                if(bytes.get(i) == '"')
+                    quotes++;
+        }
+        return quotes;
+    }
+
+    // Offset just past the first newline at or after start that is not inside a quoted field.
+    private static long findRowEnd(FileChannel channel, long start, long size, boolean inQuotes) {
+        long position = start;
+        while (position < size) {
+            ByteBuffer bytes = map(channel, position, Math.min(SCAN_WINDOW, size - position));
+            for (int i = 0, limit = bytes.limit(); i < limit; i++) {
+                byte b = bytes.get(i);
+                if(b == '"')
+                    inQuotes = !inQuotes;
+                else if(b == '\n' && !inQuotes)
+                    return position + i + 1;
+            }
+            position += bytes.limit();
+        }
+        return size;
+    }
+
+    private static ByteBuffer map(FileChannel channel, long position, long length) {
+        try {
+            return channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static CharBuffer decodeChars(FileChannel channel, long start, long end) throws IOException {
+        if(end - start > Integer.MAX_VALUE)
+            throw new IOException("CSV row range too large to decode: " + (end - start) + " bytes");
+        return StandardCharsets.UTF_8.newDecoder().decode(map(channel, start, end - start));
+    }
+
+    private static char[] decode(FileChannel channel, long start, long end) throws IOException {
+        CharBuffer chars = decodeChars(channel, start, end);
+        char[] header = new char[chars.remaining()];
+        chars.get(header);
+        return header;
+    }
+}
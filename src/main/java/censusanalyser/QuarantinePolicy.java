@@ -0,0 +1,17 @@
+package censusanalyser;
+
+import java.nio.file.Path;
+
+// Lenient loading: rows that fail to parse are written to the quarantine file with their line number and
+// reason instead of failing the load, until more than maxRejectedRows rows have been rejected.
+public class QuarantinePolicy {
+    public final Path quarantineFile;
+    public final long maxRejectedRows;
+
+    public QuarantinePolicy(Path quarantineFile, long maxRejectedRows) {
+        if(maxRejectedRows < 0)
+            throw new IllegalArgumentException("maxRejectedRows must not be negative: " + maxRejectedRows);
+        this.quarantineFile = quarantineFile;
+        this.maxRejectedRows = maxRejectedRows;
+    }
+}
@@ -0,0 +1,19 @@
+package censusanalyser;
+
+import java.util.Map;
+
+// Loads any country described by a CensusSchema, without a CSV class or adapter of its own. Always parses
+// serially with CSVTokenizer, and honours the quarantine policy like the other adapters.
+public class SchemaCensusAdapter extends CensusAdapter {
+    private final CensusSchema censusSchema;
+
+    public SchemaCensusAdapter(CensusSchema censusSchema) {
+        this.censusSchema = censusSchema;
+    }
+
+    @Override
+    public Map<String, CensusDAO> loadCensusData(String... csvFilePath) throws CensusAnalyserException {
+        return super.loadCensusData(censusSchema.getCSVSchema(this.getProjection()), censusSchema.getDelimiter(), censusSchema::complete,
+                csvFilePath[0], censusDAO -> {});
+    }
+}
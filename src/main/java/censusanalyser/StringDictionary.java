@@ -0,0 +1,116 @@
+package censusanalyser;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+public class StringDictionary {
+    public static final int NULL_ID = -1;
+
+    private String[] values;
+    private int size;
+    private Map<String, Integer> ids;
+    private ByteBuffer encodedValues;
+    private int[] offsets;
+
+    public StringDictionary() {
+        this.values = new String[16];
+        this.ids = new HashMap<>();
+    }
+
+    private StringDictionary(String[] values) {
+        this.values = values;
+        this.size = values.length;
+    }
+
+    // Values stay UTF-8 encoded in the buffer (e.g. a memory-mapped snapshot) and are decoded on first use.
+    public StringDictionary(ByteBuffer encodedValues, int[] offsets) {
+        this.size = offsets.length - 1;
+        this.values = new String[size];
+        this.encodedValues = encodedValues;
+        this.offsets = offsets;
+    }
+
+    public int encode(String value) {
+        if(value == null)
+            return NULL_ID;
+        Integer id = ids.get(value);
+        if(id != null)
+            return id;
+        if(size == values.length)
+            values = Arrays.copyOf(values, size * 2);
+        values[size] = value;
+        ids.put(value, size);
+        return size++;
+    }
+
+    public String decode(int id) {
+        if(id == NULL_ID)
+            return null;
+        String value = values[id];
+        if(value == null && encodedValues != null) {
+            byte[] bytes = new byte[offsets[id + 1] - offsets[id]];
+            ByteBuffer encodedValue = encodedValues.duplicate();
+            encodedValue.position(offsets[id]);
+            encodedValue.get(bytes);
+            value = new String(bytes, StandardCharsets.UTF_8);
+            values[id] = value;
+        }
+        return value;
+    }
+
+    // Position of each id in the sorted order of the dictionary values.
+    public int[] ranks() {
+        Integer[] sortedIds = new Integer[size];
+        for (int id = 0; id < size; id++)
+            sortedIds[id] = id;
+        Arrays.sort(sortedIds, (first, second) -> decode(first).compareTo(decode(second)));
+        int[] ranks = new int[size];
+        for (int rank = 0; rank < size; rank++)
+            ranks[sortedIds[rank]] = rank;
+        return ranks;
+    }
+
+    // Extends the ranks already computed for the first ids (e.g. by an earlier build of the same table)
+    // by sorting only the ids added since and merging them in.
+    public int[] ranks(int[] prefixRanks) {
+        int prefixSize = prefixRanks.length;
+        Integer[] addedIds = new Integer[size - prefixSize];
+        for (int id = prefixSize; id < size; id++)
+            addedIds[id - prefixSize] = id;
+        Arrays.sort(addedIds, (first, second) -> decode(first).compareTo(decode(second)));
+        int[] prefixIds = new int[prefixSize];
+        for (int id = 0; id < prefixSize; id++)
+            prefixIds[prefixRanks[id]] = id;
+        int[] ranks = new int[size];
+        int prefixIndex = 0, addedIndex = 0;
+        for (int rank = 0; rank < size; rank++) {
+            if(addedIndex == addedIds.length || (prefixIndex < prefixSize
+                    && decode(prefixIds[prefixIndex]).compareTo(decode(addedIds[addedIndex])) < 0))
+                ranks[prefixIds[prefixIndex++]] = rank;
+            else
+                ranks[addedIds[addedIndex++]] = rank;
+        }
+        return ranks;
+    }
+
+    public long estimateHeapBytes() {
+        long bytes = 16L + 4L * values.length;
+        if(encodedValues != null)
+            return bytes + 4L * offsets.length + offsets[size];
+        for (int id = 0; id < size; id++)
+            bytes += 40L + 2L * values[id].length();
+        return bytes;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Drops the encoding hash map once a table is built; only id -> value lookups remain.
+    public StringDictionary freeze() {
+        return new StringDictionary(Arrays.copyOf(values, size));
+    }
+}
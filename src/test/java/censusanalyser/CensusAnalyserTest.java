@@ -1,9 +1,59 @@
 package censusanalyser;
 
 import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 import org.junit.Assert;
+import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPOutputStream;
+
+import javax.management.ObjectName;
 
 public class CensusAnalyserTest {
 
@@ -16,8 +66,15 @@ public class CensusAnalyserTest {
     private static final String WRONG_STATE_CODE_CSV_FILE_PATH = "./src/main/resources/IndiaStateCode.csv";
     private static final String STATE_CODE_TEXT_FILE_PATH = "./src/test/resources/IndiaStateCode.txt";
     private static final String STATE_CODE_WRONG_DELIMITER_CSV_FILE_PATH = "./src/test/resources/IndiaStateCodeWrongDelimiter.csv";
+    // IndiaStateCode.csv has a trailing comma in its header and does not load; this copy is the happy-path input.
+    private static final String VALID_STATE_CODE_CSV_FILE_PATH = "./src/test/resources/IndiaStateCodeValid.csv";
     private static final String STATE_CODE_WRONG_HEADER_CSV_FILE_PATH = "./src/test/resources/IndiaStateCodeWrongHeader.csv";
     private static final String US_CENSUS_CSV_FILE_PATH = "./src/test/resources/USCensusData.csv";
+    private static final String IPL_MOST_RUNS_CSV_FILE_PATH = "./src/test/resources/IPL2019FactsheetMostRuns.csv";
+    private static final String IPL_MOST_WICKETS_CSV_FILE_PATH = "./src/test/resources/IPL2019FactsheetMostWkts.csv";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
 
 
     @Test
@@ -319,5 +376,1697 @@ public class CensusAnalyserTest {
         } catch (CensusAnalyserException e) {}
     }
 
-}
 
+    @Test
+    public void givenIndiaCensusCSVFile_whenLoadedWithFastBuilder_shouldMatchOpenCSVBuilder() throws Exception {
+        List<IndiaCensusCSV> expected;
+        List<IndiaCensusCSV> actual;
+        try (Reader reader = Files.newBufferedReader(Paths.get(INDIA_CENSUS_CSV_FILE_PATH))) {
+            expected = CSVBuilderFactory.createCSVBuilder(CSVBuilderFactory.BuilderType.OPEN_CSV)
+                    .getCSVFileList(reader, IndiaCensusCSV.class);
+        }
+        try (Reader reader = Files.newBufferedReader(Paths.get(INDIA_CENSUS_CSV_FILE_PATH))) {
+            actual = CSVBuilderFactory.createCSVBuilder(CSVBuilderFactory.BuilderType.FAST_CSV)
+                    .getCSVFileList(reader, IndiaCensusCSV.class);
+        }
+        Assert.assertEquals(new Gson().toJson(expected), new Gson().toJson(actual));
+    }
+
+    @Test
+    public void givenStateCodeCSVFile_WithWrongHeader_whenLoadedWithFastBuilder_ShouldThrowException() throws Exception {
+        try (Reader reader = Files.newBufferedReader(Paths.get(STATE_CODE_WRONG_HEADER_CSV_FILE_PATH))) {
+            CSVBuilderFactory.createCSVBuilder(CSVBuilderFactory.BuilderType.FAST_CSV)
+                    .getCSVFileIterator(reader, IndiaStateCodeCSV.class);
+            Assert.fail();
+        } catch (CSVBuilderException e) {
+            Assert.assertEquals(CSVBuilderException.ExceptionType.CENSUS_FILE_PROBLEM, e.type);
+        }
+    }
+
+    @Test
+    public void givenQuotedCSVData_whenLoadedWithFastBuilder_shouldUnescapeFields() throws Exception {
+        String csvData = "State,Population,AreaInSqKm,DensityPerSqKm\r\n\"Jammu, \"\"Kashmir\"\"\",12541302, 222236 ,56\r\n";
+        List<IndiaCensusCSV> censusCSV = CSVBuilderFactory.createCSVBuilder(CSVBuilderFactory.BuilderType.FAST_CSV)
+                .getCSVFileList(new StringReader(csvData), IndiaCensusCSV.class);
+        Assert.assertEquals(1, censusCSV.size());
+        Assert.assertEquals("Jammu, \"Kashmir\"", censusCSV.get(0).state);
+        Assert.assertEquals(222236, censusCSV.get(0).areaInSqKm);
+
+        Iterator<IndiaCensusCSV> trailingText = CSVBuilderFactory.createCSVBuilder(CSVBuilderFactory.BuilderType.FAST_CSV)
+                .getCSVFileIterator(new StringReader("State,Population,AreaInSqKm,DensityPerSqKm\n\"Goa\"x,1,2,3\n"),
+                        IndiaCensusCSV.class);
+        try {
+            trailingText.hasNext();
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage().contains("line 2"));
+        }
+    }
+
+    @Test
+    public void givenIndiaCensusCSVFile_whenLoadedInParallel_shouldMatchSerialLoad() throws CensusAnalyserException {
+        IndiaCensusAdapter censusAdapter = new IndiaCensusAdapter();
+        Map<String, CensusDAO> serialStateMap = censusAdapter.loadCensusData(IndiaCensusCSV.class, INDIA_CENSUS_CSV_FILE_PATH);
+        Map<String, CensusDAO> parallelStateMap = censusAdapter.loadCensusDataInParallel(IndiaCensusCSV.class, INDIA_CENSUS_CSV_FILE_PATH);
+        Assert.assertEquals(29, parallelStateMap.size());
+        Assert.assertEquals(new Gson().toJson(new TreeMap<>(serialStateMap)), new Gson().toJson(new TreeMap<>(parallelStateMap)));
+    }
+
+    @Test
+    public void givenQuotedMultiLineRows_whenSplitIntoSmallChunks_shouldKeepRowsWholeAndLastRowWins() throws Exception {
+        Path csvFile = temporaryFolder.newFile("census.csv").toPath();
+        StringBuilder csvData = new StringBuilder("State,Population,AreaInSqKm,DensityPerSqKm\n");
+        for (int row = 0; row < 200; row++)
+            csvData.append("\"State\n").append(row % 50).append("\",").append(row).append(",10,\"1\"\n");
+        Files.write(csvFile, csvData.toString().getBytes(StandardCharsets.UTF_8));
+        List<Map<String, Integer>> chunkStateMaps = new MappedCSVReader(csvFile, ',', 64).parse(IndiaCensusCSV.class,
+                HashMap::new, (Map<String, Integer> chunkStateMap, IndiaCensusCSV censusCSV) -> chunkStateMap.put(censusCSV.state, censusCSV.population));
+        Map<String, Integer> stateMap = new HashMap<>();
+        chunkStateMaps.forEach(stateMap::putAll);
+        Assert.assertTrue(chunkStateMaps.size() > 1);
+        Assert.assertEquals(50, stateMap.size());
+        Assert.assertEquals(Integer.valueOf(199), stateMap.get("State\n49"));
+    }
+
+    @Test
+    public void givenCensusRows_whenAddedToCensusTable_shouldKeepLastRowForEachStateAndEncodeStateCodes() {
+        CensusTable censusTable = new CensusTable.Builder()
+                .add("Goa", null, 1, 2.0, 3.0)
+                .add("Kerala", "KL", 10, 20.0, 30.0)
+                .add("Goa", "GA", 1458545, 3702.0, 394.0)
+                .build();
+        Assert.assertEquals(2, censusTable.size());
+        Assert.assertEquals("Goa", censusTable.getState(0));
+        Assert.assertEquals("GA", censusTable.getStateCode(0));
+        Assert.assertEquals(1458545, censusTable.getPopulation(0));
+        Assert.assertEquals(30.0, censusTable.getCensusDAO(1).populationDensity, 0.0);
+    }
+
+    @Test
+    public void givenCensusTable_whenSortOrderRequestedTwice_shouldMatchComparatorSortAndBeBuiltOnce() throws CensusAnalyserException {
+        Map<String, CensusDAO> censusStateMap = new IndiaCensusAdapter().loadCensusData(IndiaCensusCSV.class, INDIA_CENSUS_CSV_FILE_PATH);
+        CensusTable censusTable = CensusTable.from(censusStateMap);
+        int[] sortOrder = censusTable.getSortOrder(CensusAnalyser.SortField.AREA);
+        List<CensusDAO> expected = new ArrayList<>(censusTable.getCensusDAOs());
+        expected.sort(Comparator.comparing((CensusDAO census) -> census.totalArea).reversed());
+        for (int rank = 0; rank < expected.size(); rank++)
+            Assert.assertEquals(expected.get(rank).state, censusTable.getState(sortOrder[rank]));
+        Assert.assertSame(censusTable.sortOrder(CensusAnalyser.SortField.AREA), censusTable.sortOrder(CensusAnalyser.SortField.AREA));
+        sortOrder[0] = sortOrder[1];
+        Assert.assertEquals(expected.get(0).state, censusTable.getState(censusTable.getSortOrder(CensusAnalyser.SortField.AREA)[0]));
+        Assert.assertEquals("Andhra Pradesh", censusTable.getState(censusTable.getSortOrder(CensusAnalyser.SortField.STATE_NAME)[0]));
+    }
+
+    @Test
+    public void givenCensusTable_whenTopKRequested_shouldMatchHeadOfFullSortInBothDirections() throws CensusAnalyserException {
+        CensusTable censusTable = CensusTable.from(new IndiaCensusAdapter().loadCensusData(IndiaCensusCSV.class, INDIA_CENSUS_CSV_FILE_PATH));
+        int[] topPopulation = censusTable.getTopK(CensusAnalyser.SortField.POPULATION, 3, false);
+        Assert.assertEquals("Uttar Pradesh", censusTable.getState(topPopulation[0]));
+        Assert.assertEquals("Bihar", censusTable.getState(topPopulation[2]));
+        int[] leastPopulation = censusTable.getTopK(CensusAnalyser.SortField.POPULATION, 2, true);
+        Assert.assertEquals("Sikkim", censusTable.getState(leastPopulation[0]));
+        Assert.assertEquals("Mizoram", censusTable.getState(leastPopulation[1]));
+        int[] sortOrder = censusTable.getSortOrder(CensusAnalyser.SortField.STATE_NAME);
+        Assert.assertArrayEquals(Arrays.copyOf(sortOrder, 5), censusTable.getTopK(CensusAnalyser.SortField.STATE_NAME, 5, false));
+        Assert.assertEquals(29, censusTable.getTopK(CensusAnalyser.SortField.AREA, 100, true).length);
+    }
+
+    @Test
+    public void givenCensusData_whenPageRequested_shouldReturnOnlyRowsOfThatPage() throws CensusAnalyserException {
+        CensusAnalyser censusAnalyser = new CensusAnalyser(CensusAnalyser.Country.INDIA);
+        censusAnalyser.setCensusTable(CensusTable.from(new IndiaCensusAdapter().loadCensusData(IndiaCensusCSV.class, INDIA_CENSUS_CSV_FILE_PATH)));
+        IndiaCensusCSV[] censusCSV = new Gson().fromJson(censusAnalyser.getPage(CensusAnalyser.SortField.POPULATION, 25, 10), IndiaCensusCSV[].class);
+        Assert.assertEquals(4, censusCSV.length);
+        Assert.assertEquals("Sikkim", censusCSV[3].state);
+        censusCSV = new Gson().fromJson(censusAnalyser.getTopK(CensusAnalyser.SortField.AREA, 1, CensusAnalyser.SortOrder.DESCENDING), IndiaCensusCSV[].class);
+        Assert.assertEquals("Rajasthan", censusCSV[0].state);
+    }
+
+    @Test
+    public void givenCensusData_whenWrittenAsStream_shouldMatchGsonSerializationOfDTOs() throws Exception {
+        CensusTable censusTable = new CensusTable.Builder()
+                .add("Jammu & Kashmir", "JK", 12541302, 222236.7, 56.4)
+                .add("Goa", null, 1458545, 3702, 394)
+                .build();
+        CensusAnalyser censusAnalyser = new CensusAnalyser(CensusAnalyser.Country.INDIA);
+        censusAnalyser.setCensusTable(censusTable);
+        for (CensusAnalyser.Country country : CensusAnalyser.Country.values()) {
+            List<Object> censusDTOs = new ArrayList<>();
+            for (int row : censusTable.getSortOrder(CensusAnalyser.SortField.STATE_NAME))
+                censusDTOs.add(censusTable.getCensusDAO(row).getCensusDTO(country));
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            censusAnalyser.writeSortedCensusData(CensusAnalyser.SortField.STATE_NAME, country, outputStream);
+            Assert.assertEquals(new Gson().toJson(censusDTOs), new String(outputStream.toByteArray(), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void givenStateCodesWithDifferentCase_whenJoinedWhileParsing_shouldEnrichMatchingRows() throws Exception {
+        Path[] joinFiles = writeJoinFilesWithDifferentCase();
+        IndiaCensusAdapter censusAdapter = new IndiaCensusAdapter();
+        censusAdapter.setKeyNormalization(HashJoinIndex.KeyNormalization.TRIM_IGNORE_CASE);
+        Map<String, CensusDAO> censusStateMap = censusAdapter.loadCensusData(joinFiles[0].toString(), joinFiles[1].toString());
+        Assert.assertEquals("GA", censusStateMap.get("Goa ").stateCode);
+        Assert.assertNull(censusStateMap.get("Atlantis").stateCode);
+    }
+
+    @Test
+    public void givenStateCodesWithDifferentCase_whenJoinedWhileParsing_shouldReportUnmatchedKeys() throws Exception {
+        Path[] joinFiles = writeJoinFilesWithDifferentCase();
+        IndiaCensusAdapter censusAdapter = new IndiaCensusAdapter();
+        censusAdapter.setKeyNormalization(HashJoinIndex.KeyNormalization.TRIM_IGNORE_CASE);
+        censusAdapter.loadCensusData(joinFiles[0].toString(), joinFiles[1].toString());
+        JoinReport joinReport = censusAdapter.getStateCodeJoinReport();
+        Assert.assertEquals(1, joinReport.getMatchedRows());
+        Assert.assertEquals(Arrays.asList("Atlantis"), joinReport.getUnmatchedProbeKeys());
+        Assert.assertEquals(Arrays.asList("kerala"), joinReport.getUnmatchedBuildKeys());
+    }
+
+    @Test
+    public void givenStateCodesLoadedOnExecutor_whenJoinedWhileParsing_shouldEnrichRowsAndReportLikeSerialLoad() throws Exception {
+        Path[] joinFiles = writeJoinFilesWithDifferentCase();
+        IndiaCensusAdapter censusAdapter = new IndiaCensusAdapter();
+        censusAdapter.setKeyNormalization(HashJoinIndex.KeyNormalization.TRIM_IGNORE_CASE);
+        Map<String, CensusDAO> censusStateMap = censusAdapter.loadCensusData(command -> new Thread(command).start(),
+                joinFiles[0].toString(), joinFiles[1].toString());
+        Assert.assertEquals("GA", censusStateMap.get("Goa ").stateCode);
+        Assert.assertEquals(1, censusAdapter.getStateCodeJoinReport().getMatchedRows());
+        Assert.assertEquals(Arrays.asList("Atlantis"), censusAdapter.getStateCodeJoinReport().getUnmatchedProbeKeys());
+    }
+
+    @Test
+    public void givenStateCodeFileWithWrongHeader_whenLoadedOnExecutor_shouldThrowCensusFileProblem() throws Exception {
+        Path[] joinFiles = writeJoinFilesWithDifferentCase();
+        try {
+            new IndiaCensusAdapter().loadCensusData(command -> new Thread(command).start(),
+                    joinFiles[0].toString(), STATE_CODE_WRONG_HEADER_CSV_FILE_PATH);
+            Assert.fail();
+        } catch (CensusAnalyserException e) {
+            Assert.assertEquals(CensusAnalyserException.ExceptionType.CENSUS_FILE_PROBLEM, e.type);
+        }
+    }
+
+    @Test
+    public void givenManyUnmatchedKeys_whenProbed_shouldCountAllButSampleOnlyMaxSampledKeys() {
+        HashJoinIndex<String> stateIndex = HashJoinIndex.build(Arrays.asList("Goa").iterator(), state -> state,
+                HashJoinIndex.KeyNormalization.EXACT);
+        JoinReport joinReport = new JoinReport();
+        for (int row = 0; row < 3 * JoinReport.MAX_SAMPLED_KEYS; row++)
+            joinReport.probe(stateIndex, "State " + row);
+        Assert.assertEquals(3 * JoinReport.MAX_SAMPLED_KEYS, joinReport.getUnmatchedProbeRows());
+        Assert.assertEquals(JoinReport.MAX_SAMPLED_KEYS, joinReport.getUnmatchedProbeKeys().size());
+    }
+
+    @Test
+    public void givenNullKey_whenProbed_shouldCountItAsNullWithoutSamplingIt() {
+        HashJoinIndex<String> stateIndex = HashJoinIndex.build(Arrays.asList("Goa").iterator(), state -> state,
+                HashJoinIndex.KeyNormalization.EXACT);
+        JoinReport joinReport = new JoinReport();
+        Assert.assertNull(joinReport.probe(stateIndex, null));
+        Assert.assertEquals(1, joinReport.getUnmatchedProbeRows());
+        Assert.assertEquals(1, joinReport.getNullProbeRows());
+        Assert.assertFalse(joinReport.getUnmatchedProbeKeys().contains("null"));
+    }
+
+    @Test
+    public void givenUnchangedCensusFile_whenLoadedTwiceThroughCache_shouldParseOnce() throws Exception {
+        Path censusFile = temporaryFolder.newFile("IndiaCensus.csv").toPath();
+        Files.copy(Paths.get(INDIA_CENSUS_CSV_FILE_PATH), censusFile, StandardCopyOption.REPLACE_EXISTING);
+        CensusDataCache dataCache = new CensusDataCache(1L << 30);
+        AtomicInteger loads = new AtomicInteger();
+        CensusDataCache.CensusTableLoader loader = countingLoader(censusFile, loads);
+        String[] csvFilePath = {censusFile.toString()};
+        CensusTable censusTable = dataCache.get(CensusAnalyser.Country.INDIA, csvFilePath, loader);
+        Assert.assertSame(censusTable, dataCache.get(CensusAnalyser.Country.INDIA, csvFilePath, loader));
+        Assert.assertEquals(1, loads.get());
+        Assert.assertEquals(1, dataCache.getHits());
+    }
+
+    @Test
+    public void givenCachedCensusFile_whenFileChanged_shouldParseItAgain() throws Exception {
+        Path censusFile = temporaryFolder.newFile("IndiaCensus.csv").toPath();
+        Files.copy(Paths.get(INDIA_CENSUS_CSV_FILE_PATH), censusFile, StandardCopyOption.REPLACE_EXISTING);
+        CensusDataCache dataCache = new CensusDataCache(1L << 30);
+        AtomicInteger loads = new AtomicInteger();
+        CensusDataCache.CensusTableLoader loader = countingLoader(censusFile, loads);
+        String[] csvFilePath = {censusFile.toString()};
+        dataCache.get(CensusAnalyser.Country.INDIA, csvFilePath, loader);
+        Files.write(censusFile, "\nAtlantis,1,1,1\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        Assert.assertEquals(30, dataCache.get(CensusAnalyser.Country.INDIA, csvFilePath, loader).size());
+        Assert.assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void givenSharedCacheLoadThatFails_whenLoaded_shouldRethrowToTheLoader() throws Exception {
+        Assert.assertTrue(failSharedLoad(new CensusDataCache(1L << 30))[0] instanceof OutOfMemoryError);
+    }
+
+    @Test
+    public void givenSharedCacheLoadThatFails_whenWaitedOn_shouldRethrowToTheWaiter() throws Exception {
+        Assert.assertTrue(failSharedLoad(new CensusDataCache(1L << 30))[1] instanceof OutOfMemoryError);
+    }
+
+    @Test
+    public void givenSharedCacheLoadThatFails_whenLoadedAgain_shouldLoadFromFile() throws Exception {
+        CensusDataCache dataCache = new CensusDataCache(1L << 30);
+        failSharedLoad(dataCache);
+        Assert.assertEquals(0, dataCache.getHits());
+        AtomicInteger loads = new AtomicInteger();
+        Assert.assertEquals(29, dataCache.get(CensusAnalyser.Country.US, new String[]{INDIA_CENSUS_CSV_FILE_PATH},
+                countingLoader(Paths.get(INDIA_CENSUS_CSV_FILE_PATH), loads)).size());
+        Assert.assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void givenCacheOverBudget_whenNewTableLoaded_shouldEvictLeastRecentlyUsedTable() throws Exception {
+        CensusTable censusTable = CensusTable.from(new IndiaCensusAdapter().loadCensusData(IndiaCensusCSV.class, INDIA_CENSUS_CSV_FILE_PATH));
+        CensusDataCache dataCache = new CensusDataCache(censusTable.estimateHeapBytes() * 2);
+        dataCache.get(CensusAnalyser.Country.INDIA, new String[]{INDIA_CENSUS_CSV_FILE_PATH}, () -> censusTable);
+        dataCache.get(CensusAnalyser.Country.US, new String[]{INDIA_CENSUS_CSV_FILE_PATH}, () -> censusTable);
+        dataCache.get(CensusAnalyser.Country.INDIA, new String[]{INDIA_CENSUS_CSV_FILE_PATH, INDIA_STATE_CODE_CSV_FILE_PATH}, () -> censusTable);
+        Assert.assertEquals(2, dataCache.size());
+        Assert.assertEquals(1, dataCache.getEvictions());
+        Assert.assertEquals(3, dataCache.getMisses());
+    }
+
+    @Test
+    public void givenCensusData_whenSavedAsSnapshotAndReopened_shouldReturnSameSortedData() throws Exception {
+        CensusAnalyser censusAnalyser = new CensusAnalyser(CensusAnalyser.Country.INDIA);
+        censusAnalyser.setCensusTable(new CensusTable.Builder()
+                .add("Jammu & Kashmir", "JK", 12541302, 222236.7, 56.4)
+                .add("Goa", null, 1458545, 3702, 394)
+                .add("Tamil Nadu", "TN", 72147030, 130058, 555)
+                .build());
+        String snapshotFile = temporaryFolder.getRoot().toPath().resolve("census.snapshot").toString();
+        censusAnalyser.saveSnapshot(snapshotFile);
+        CensusAnalyser restoredAnalyser = new CensusAnalyser(CensusAnalyser.Country.US);
+        Assert.assertEquals(3, restoredAnalyser.loadSnapshot(snapshotFile));
+        for (CensusAnalyser.SortField sortField : CensusAnalyser.SortField.values())
+            Assert.assertEquals(censusAnalyser.getTopK(sortField, 3, CensusAnalyser.SortOrder.ASCENDING),
+                    restoredAnalyser.getTopK(sortField, 3, CensusAnalyser.SortOrder.ASCENDING));
+    }
+
+    @Test
+    public void givenCorruptedSnapshot_whenLoaded_shouldThrowException() throws Exception {
+        CensusAnalyser censusAnalyser = new CensusAnalyser(CensusAnalyser.Country.INDIA);
+        censusAnalyser.setCensusTable(new CensusTable.Builder().add("Goa", "GA", 1458545, 3702, 394).build());
+        Path snapshotFile = temporaryFolder.getRoot().toPath().resolve("census.snapshot");
+        censusAnalyser.saveSnapshot(snapshotFile.toString());
+        byte[] snapshot = Files.readAllBytes(snapshotFile);
+        snapshot[snapshot.length - 9] ^= 1;
+        Files.write(snapshotFile, snapshot);
+        try {
+            censusAnalyser.loadSnapshot(snapshotFile.toString());
+            Assert.fail();
+        } catch (CensusAnalyserException e) {
+            Assert.assertEquals(CensusAnalyserException.ExceptionType.CENSUS_FILE_PROBLEM, e.type);
+        }
+    }
+
+    @Test
+    public void givenSnapshotWithCorruptedHeader_whenLoaded_shouldThrowCensusFileProblem() throws Exception {
+        CensusAnalyser censusAnalyser = new CensusAnalyser(CensusAnalyser.Country.INDIA);
+        censusAnalyser.setCensusTable(new CensusTable.Builder().add("Goa", "GA", 1458545, 3702, 394).build());
+        Path snapshotFile = temporaryFolder.getRoot().toPath().resolve("census.snapshot");
+        censusAnalyser.saveSnapshot(snapshotFile.toString());
+        byte[] snapshot = Files.readAllBytes(snapshotFile);
+        ByteBuffer.wrap(snapshot).order(ByteOrder.LITTLE_ENDIAN).putInt(12, -1);
+        Files.write(snapshotFile, snapshot);
+        try {
+            censusAnalyser.loadSnapshot(snapshotFile.toString());
+            Assert.fail();
+        } catch (CensusAnalyserException e) {
+            Assert.assertEquals(CensusAnalyserException.ExceptionType.CENSUS_FILE_PROBLEM, e.type);
+        }
+    }
+
+    @Test
+    public void givenSnapshotWithChecksummedOversizedDictionary_whenLoaded_shouldThrowCensusFileProblem() throws Exception {
+        CensusAnalyser censusAnalyser = new CensusAnalyser(CensusAnalyser.Country.INDIA);
+        censusAnalyser.setCensusTable(new CensusTable.Builder().add("Goa", "GA", 1458545, 3702, 394).build());
+        Path snapshotFile = temporaryFolder.getRoot().toPath().resolve("census.snapshot");
+        censusAnalyser.saveSnapshot(snapshotFile.toString());
+        byte[] snapshot = Files.readAllBytes(snapshotFile);
+        ByteBuffer header = ByteBuffer.wrap(snapshot).order(ByteOrder.LITTLE_ENDIAN).putInt(16, Integer.MAX_VALUE - 1);
+        CRC32 crc = new CRC32();
+        crc.update(snapshot, 0, 32);
+        crc.update(snapshot, 40, snapshot.length - 40);
+        header.putLong(32, crc.getValue());
+        Files.write(snapshotFile, snapshot);
+        try {
+            censusAnalyser.loadSnapshot(snapshotFile.toString());
+            Assert.fail();
+        } catch (CensusAnalyserException e) {
+            Assert.assertEquals(CensusAnalyserException.ExceptionType.CENSUS_FILE_PROBLEM, e.type);
+        }
+    }
+
+    @Test
+    public void givenConcurrentReloads_whenQueried_shouldAlwaysSeeOneCompleteSnapshot() throws Exception {
+        CensusTable.Builder indiaTable = new CensusTable.Builder();
+        for (int row = 0; row < 300; row++)
+            indiaTable.add("India State " + row, "IN" + row, row, row, row);
+        CensusTable.Builder usTable = new CensusTable.Builder();
+        for (int row = 0; row < 50; row++)
+            usTable.add("US State " + row, "US" + row, row, row, row);
+        CensusAnalyser censusAnalyser = new CensusAnalyser(CensusAnalyser.Country.INDIA);
+        censusAnalyser.setCensusTable(indiaTable.build());
+        String indiaSnapshot = temporaryFolder.getRoot().toPath().resolve("india.snapshot").toString();
+        censusAnalyser.saveSnapshot(indiaSnapshot);
+        censusAnalyser = new CensusAnalyser(CensusAnalyser.Country.US);
+        censusAnalyser.setCensusTable(usTable.build());
+        String usSnapshot = temporaryFolder.getRoot().toPath().resolve("us.snapshot").toString();
+        censusAnalyser.saveSnapshot(usSnapshot);
+
+        CensusAnalyser sharedAnalyser = censusAnalyser;
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        AtomicInteger queries = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        threads.add(new Thread(() -> {
+            try {
+                for (int reload = 0; running.get(); reload++)
+                    sharedAnalyser.loadSnapshot(reload % 2 == 0 ? indiaSnapshot : usSnapshot);
+            } catch (Throwable e) {
+                failure.compareAndSet(null, e);
+            }
+        }));
+        for (int reader = 0; reader < 4; reader++)
+            threads.add(new Thread(() -> {
+                try {
+                    while (running.get()) {
+                        JsonArray page = new JsonParser().parse(sharedAnalyser.getPage(
+                                CensusAnalyser.SortField.POPULATION, 0, 1000)).getAsJsonArray();
+                        boolean us = page.get(0).getAsJsonObject().has("stateId");
+                        Assert.assertEquals(us ? 50 : 300, page.size());
+                        for (int row = 0; row < page.size(); row++) {
+                            JsonObject censusRow = page.get(row).getAsJsonObject();
+                            Assert.assertTrue(censusRow.get("state").getAsString().startsWith(us ? "US " : "India "));
+                            Assert.assertEquals(us ? 49 - row : 299 - row, censusRow.get("population").getAsInt());
+                        }
+                        queries.incrementAndGet();
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            }));
+        threads.forEach(Thread::start);
+        Thread.sleep(1000);
+        running.set(false);
+        for (Thread thread : threads)
+            thread.join();
+        if(failure.get() != null)
+            throw new AssertionError(failure.get());
+        Assert.assertTrue(queries.get() > 0);
+    }
+
+    @Test
+    public void givenRowsAppendedToCensusFile_whenRefreshed_shouldParseOnlyTheTail() throws Exception {
+        List<String> lines = Files.readAllLines(Paths.get(INDIA_CENSUS_CSV_FILE_PATH));
+        Path censusFile = temporaryFolder.newFile("IndiaCensus.csv").toPath();
+        Files.write(censusFile, lines.subList(0, 15));
+        IncrementalCensusLoader incrementalLoader = new IncrementalCensusLoader(CensusAnalyser.Country.INDIA,
+                censusFile.toString(), VALID_STATE_CODE_CSV_FILE_PATH);
+        incrementalLoader.refresh();
+        long offset = incrementalLoader.getOffset();
+        Files.write(censusFile, lines.subList(15, lines.size()), StandardOpenOption.APPEND);
+        Assert.assertEquals(29, incrementalLoader.refresh().size());
+        Assert.assertEquals(IncrementalCensusLoader.RefreshType.INCREMENTAL, incrementalLoader.getLastRefreshType());
+        Assert.assertTrue(incrementalLoader.getOffset() > offset);
+    }
+
+    @Test
+    public void givenRowsAppendedToCensusFile_whenRefreshed_shouldMatchSortOrdersOfFullLoad() throws Exception {
+        List<String> lines = Files.readAllLines(Paths.get(INDIA_CENSUS_CSV_FILE_PATH));
+        Path censusFile = temporaryFolder.newFile("IndiaCensus.csv").toPath();
+        Files.write(censusFile, lines.subList(0, 15));
+        IncrementalCensusLoader incrementalLoader = new IncrementalCensusLoader(CensusAnalyser.Country.INDIA,
+                censusFile.toString(), VALID_STATE_CODE_CSV_FILE_PATH);
+        incrementalLoader.refresh().buildSortOrders();
+        Files.write(censusFile, lines.subList(15, lines.size()), StandardOpenOption.APPEND);
+        Files.write(censusFile, "Bihar,1,94163,1102\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        CensusTable censusTable = incrementalLoader.refresh();
+        CensusTable expectedTable = new IncrementalCensusLoader(CensusAnalyser.Country.INDIA,
+                censusFile.toString(), VALID_STATE_CODE_CSV_FILE_PATH).refresh();
+        for (CensusAnalyser.SortField sortField : CensusAnalyser.SortField.values()) {
+            Assert.assertTrue(censusTable.hasSortOrder(sortField));
+            Assert.assertArrayEquals(expectedTable.getSortOrder(sortField), censusTable.getSortOrder(sortField));
+        }
+    }
+
+    @Test
+    public void givenAppendedRowForLoadedState_whenRefreshed_shouldReplaceItAndKeepItsStateCode() throws Exception {
+        Path censusFile = temporaryFolder.newFile("IndiaCensus.csv").toPath();
+        Files.write(censusFile, Files.readAllLines(Paths.get(INDIA_CENSUS_CSV_FILE_PATH)));
+        IncrementalCensusLoader incrementalLoader = new IncrementalCensusLoader(CensusAnalyser.Country.INDIA,
+                censusFile.toString(), VALID_STATE_CODE_CSV_FILE_PATH);
+        incrementalLoader.refresh();
+        Files.write(censusFile, "Bihar,1,94163,1102\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        CensusTable censusTable = incrementalLoader.refresh();
+        Assert.assertEquals(29, censusTable.size());
+        int bihar = censusTable.getTopK(CensusAnalyser.SortField.POPULATION, 1, true)[0];
+        Assert.assertEquals("Bihar", censusTable.getState(bihar));
+        Assert.assertEquals("BH", censusTable.getStateCode(bihar));
+    }
+
+    @Test
+    public void givenPartialTrailingRow_whenRefreshed_shouldLoadItOnlyOnceItsNewlineIsAppended() throws Exception {
+        Path censusFile = temporaryFolder.newFile("IndiaCensus.csv").toPath();
+        Files.write(censusFile, Files.readAllLines(Paths.get(INDIA_CENSUS_CSV_FILE_PATH)));
+        IncrementalCensusLoader incrementalLoader = new IncrementalCensusLoader(CensusAnalyser.Country.INDIA,
+                censusFile.toString(), VALID_STATE_CODE_CSV_FILE_PATH);
+        incrementalLoader.refresh();
+        Files.write(censusFile, "Goa,1400000,3702,3".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        CensusTable censusTable = incrementalLoader.refresh();
+        Assert.assertEquals(1457723, censusTable.getPopulation(censusTable.getTopK(CensusAnalyser.SortField.AREA, 1, true)[0]));
+        Files.write(censusFile, "9\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        censusTable = incrementalLoader.refresh();
+        int goa = censusTable.getTopK(CensusAnalyser.SortField.AREA, 1, true)[0];
+        Assert.assertEquals(1400000, censusTable.getPopulation(goa));
+        Assert.assertEquals(39.0, censusTable.getPopulationDensity(goa), 0.0);
+    }
+
+    @Test
+    public void givenCensusFileRewrittenShorter_whenRefreshed_shouldReloadFromStart() throws Exception {
+        List<String> lines = Files.readAllLines(Paths.get(INDIA_CENSUS_CSV_FILE_PATH));
+        Path censusFile = temporaryFolder.newFile("IndiaCensus.csv").toPath();
+        Files.write(censusFile, lines);
+        IncrementalCensusLoader incrementalLoader = new IncrementalCensusLoader(CensusAnalyser.Country.INDIA,
+                censusFile.toString(), VALID_STATE_CODE_CSV_FILE_PATH);
+        incrementalLoader.refresh();
+        Files.write(censusFile, lines.subList(0, 5));
+        Assert.assertEquals(4, incrementalLoader.refresh().size());
+        Assert.assertEquals(IncrementalCensusLoader.RefreshType.FULL, incrementalLoader.getLastRefreshType());
+    }
+
+    @Test
+    public void givenUnchangedCensusFile_whenRefreshed_shouldReturnLoadedTable() throws Exception {
+        IncrementalCensusLoader incrementalLoader = new IncrementalCensusLoader(CensusAnalyser.Country.INDIA,
+                INDIA_CENSUS_CSV_FILE_PATH, VALID_STATE_CODE_CSV_FILE_PATH);
+        CensusTable censusTable = incrementalLoader.refresh();
+        Assert.assertSame(censusTable, incrementalLoader.refresh());
+        Assert.assertEquals(IncrementalCensusLoader.RefreshType.UNCHANGED, incrementalLoader.getLastRefreshType());
+    }
+
+    @Test
+    public void givenCensusFileLargerThanScanBuffer_whenLoadedIncrementally_shouldReadEveryRow() throws Exception {
+        List<String> lines = new ArrayList<>();
+        lines.add("State,Population,AreaInSqKm,DensityPerSqKm");
+        for (int row = 0; row < 20000; row++)
+            lines.add("\"State, " + row + "\"," + row + "," + (row + 1) + "," + row % 1000);
+        Path censusFile = temporaryFolder.newFile("IndiaCensus.csv").toPath();
+        Files.write(censusFile, lines);
+        IncrementalCensusLoader incrementalLoader = new IncrementalCensusLoader(CensusAnalyser.Country.INDIA,
+                censusFile.toString(), VALID_STATE_CODE_CSV_FILE_PATH);
+        Assert.assertEquals(20000, incrementalLoader.refresh().size());
+        Assert.assertEquals(Files.size(censusFile), incrementalLoader.getOffset());
+    }
+
+    @Test
+    public void givenIncrementalLoad_whenFileGrows_shouldPublishAppendedRows() throws Exception {
+        List<String> lines = Files.readAllLines(Paths.get(INDIA_CENSUS_CSV_FILE_PATH));
+        Path censusFile = temporaryFolder.newFile("IndiaCensus.csv").toPath();
+        Files.write(censusFile, lines.subList(0, 10));
+        CensusAnalyser censusAnalyser = new CensusAnalyser(CensusAnalyser.Country.INDIA);
+        Assert.assertEquals(9, censusAnalyser.loadCensusDataIncrementally(CensusAnalyser.Country.INDIA,
+                censusFile.toString(), VALID_STATE_CODE_CSV_FILE_PATH));
+        Files.write(censusFile, lines.subList(10, lines.size()), StandardOpenOption.APPEND);
+        Assert.assertEquals(29, censusAnalyser.refreshCensusData());
+        IndiaCensusCSV[] censusCSV = new Gson().fromJson(censusAnalyser.getTopK(CensusAnalyser.SortField.POPULATION, 1,
+                CensusAnalyser.SortOrder.ASCENDING), IndiaCensusCSV[].class);
+        Assert.assertEquals("Sikkim", censusCSV[0].state);
+    }
+
+    @Test
+    public void givenBatchOfCensusJobs_whenLoaded_shouldReturnOneResultPerJobInOrder() throws Exception {
+        List<CensusBatchLoader.Job> jobs = batchOfCensusJobs();
+        List<CensusBatchLoader.JobResult> results = new CensusBatchLoader(2).loadAll(jobs);
+        Assert.assertEquals(4, results.size());
+        Assert.assertSame(jobs.get(3), results.get(3).job);
+    }
+
+    @Test
+    public void givenBatchWithMissingFile_whenLoaded_shouldReturnFileProblemForThatJob() throws Exception {
+        List<CensusBatchLoader.JobResult> results = new CensusBatchLoader(2).loadAll(batchOfCensusJobs());
+        Assert.assertEquals(CensusAnalyserException.ExceptionType.CENSUS_FILE_PROBLEM, results.get(1).error.type);
+    }
+
+    @Test
+    public void givenBatchWithWrongStateCodeHeader_whenLoaded_shouldFailOnlyThatJob() throws Exception {
+        List<CensusBatchLoader.JobResult> results = new CensusBatchLoader(2).loadAll(batchOfCensusJobs());
+        Assert.assertTrue(results.get(0).isSuccessful());
+        Assert.assertFalse(results.get(2).isSuccessful());
+        Assert.assertTrue(results.get(3).isSuccessful());
+    }
+
+    @Test
+    public void givenBatchOfCensusJobs_whenLoaded_shouldJoinStateCodesLikeIndiaAdapter() throws Exception {
+        List<CensusBatchLoader.JobResult> results = new CensusBatchLoader(2).loadAll(batchOfCensusJobs());
+        List<String> expected = CensusTable.from(new IndiaCensusAdapter().loadCensusData(
+                INDIA_CENSUS_CSV_FILE_PATH, VALID_STATE_CODE_CSV_FILE_PATH)).getCensusDAOs().stream()
+                .map(censusDAO -> censusDAO.stateCode).sorted().collect(Collectors.toList());
+        for (int index : new int[]{0, 3}) {
+            CensusTable censusTable = results.get(index).censusTable;
+            Assert.assertEquals(29, censusTable.size());
+            Assert.assertEquals(expected, censusTable.getCensusDAOs().stream()
+                    .map(censusDAO -> censusDAO.stateCode).sorted().collect(Collectors.toList()));
+        }
+    }
+
+    @Test
+    public void givenCensusData_whenAggregatedByStateCodePrefix_shouldReturnOneGroupPerPrefixPlusUnknown() throws Exception {
+        JsonArray aggregates = aggregateByFirstStateCodeLetter();
+        Assert.assertEquals(3, aggregates.size());
+        Assert.assertEquals("A", aggregates.get(0).getAsJsonObject().get("group").getAsString());
+        Assert.assertEquals(3, aggregates.get(0).getAsJsonObject().get("count").getAsLong());
+    }
+
+    @Test
+    public void givenCensusData_whenAggregatedByStateCodePrefix_shouldReturnPopulationSumMeanAndMin() throws Exception {
+        JsonObject population = aggregateByFirstStateCodeLetter().get(0).getAsJsonObject().getAsJsonObject("population");
+        Assert.assertEquals(600, population.get("sum").getAsDouble(), 0.0);
+        Assert.assertEquals(200, population.get("mean").getAsDouble(), 0.0);
+        Assert.assertEquals(100, population.get("min").getAsDouble(), 0.0);
+    }
+
+    @Test
+    public void givenCensusData_whenAggregatedByStateCodePrefix_shouldReturnRequestedPercentiles() throws Exception {
+        JsonObject percentiles = aggregateByFirstStateCodeLetter().get(0).getAsJsonObject()
+                .getAsJsonObject("population").getAsJsonObject("percentiles");
+        Assert.assertEquals(200, percentiles.get("p50").getAsDouble(), 0.0);
+        Assert.assertEquals(300, percentiles.get("p100").getAsDouble(), 0.0);
+    }
+
+    @Test
+    public void givenCensusData_whenAggregatedByStateCodePrefix_shouldWeightDensityByPopulation() throws Exception {
+        Assert.assertEquals((100 * 10 + 300 * 3 + 200 * 10) / 600.0, aggregateByFirstStateCodeLetter().get(0)
+                .getAsJsonObject().get("weightedPopulationDensity").getAsDouble(), 1e-9);
+    }
+
+    @Test
+    public void givenStatesWithoutCode_whenAggregatedByStateCodePrefix_shouldPutThemInTheUnknownGroup() throws Exception {
+        JsonObject unknown = aggregateByFirstStateCodeLetter().get(2).getAsJsonObject();
+        Assert.assertEquals(CensusAggregator.UNKNOWN_GROUP, unknown.get("group").getAsString());
+        Assert.assertTrue(unknown.get("unknown").getAsBoolean());
+    }
+
+    @Test
+    public void givenStateCodeNamedLikeUnknownGroup_whenAggregated_shouldKeepItApartFromStatesWithoutCode() {
+        List<CensusAggregator.GroupAggregate> byCode = new CensusAggregator(new CensusTable.Builder()
+                .add("Utopia", "UNKNOWN", 10, 1, 10)
+                .add("Atlantis", null, 7, 1, 7)
+                .build()).aggregate(CensusAggregator.stateCodePrefix(7));
+        Assert.assertEquals(2, byCode.size());
+        Assert.assertEquals(1, byCode.get(0).count);
+        Assert.assertFalse(byCode.get(0).unknown);
+        Assert.assertEquals(1, byCode.get(1).count);
+        Assert.assertTrue(byCode.get(1).unknown);
+    }
+
+    @Test
+    public void givenNegativePrefixLength_whenGroupingByStateCodePrefix_shouldThrowIllegalArgumentException() {
+        try {
+            CensusAggregator.stateCodePrefix(-1);
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            Assert.assertEquals("Prefix length must not be negative: -1", e.getMessage());
+        }
+    }
+
+    @Test
+    public void givenLargeCensusTable_whenAggregatedNationally_shouldMatchSequentialTotals() {
+        List<CensusAggregator.GroupAggregate> national = new CensusAggregator(buildSequentialCensusTable())
+                .aggregate(CensusAggregator.national(), 25, 50, 99);
+        Assert.assertEquals(1, national.size());
+        Assert.assertEquals(100000, national.get(0).count);
+        Assert.assertEquals(99999L * 100000 / 2, national.get(0).population.sum, 0.0);
+        Assert.assertEquals(99999, national.get(0).population.max, 0.0);
+        Assert.assertEquals(24999, national.get(0).population.percentiles.get("p25"), 0.0);
+        Assert.assertEquals(98999, national.get(0).population.percentiles.get("p99"), 0.0);
+    }
+
+    @Test
+    public void givenLargeCensusTable_whenAggregatedByStateCodePrefix_shouldCountEveryRowOnce() {
+        long groupedCount = 0;
+        for (CensusAggregator.GroupAggregate aggregate : new CensusAggregator(buildSequentialCensusTable())
+                .aggregate(CensusAggregator.stateCodePrefix(2)))
+            groupedCount += aggregate.count;
+        Assert.assertEquals(100000, groupedCount);
+    }
+
+    @Test
+    public void givenCensusData_whenQueriedByPopulationRange_shouldReturnMatchingStatesByDescendingPopulation() throws Exception {
+        CensusTable censusTable = loadIndiaCensusTable();
+        CensusAnalyser censusAnalyser = new CensusAnalyser(CensusAnalyser.Country.INDIA);
+        censusAnalyser.setCensusTable(censusTable);
+        censusAnalyser.buildIndexes();
+        IndiaCensusCSV[] censusCSV = new Gson().fromJson(censusAnalyser.getCensusDataInRange(
+                CensusAnalyser.SortField.POPULATION, 5000000, 20000000), IndiaCensusCSV[].class);
+        List<String> expected = censusTable.getCensusDAOs().stream()
+                .filter(censusDAO -> censusDAO.population >= 5000000 && censusDAO.population <= 20000000)
+                .sorted(Comparator.comparing((CensusDAO censusDAO) -> censusDAO.population).reversed())
+                .map(censusDAO -> censusDAO.state).collect(Collectors.toList());
+        Assert.assertFalse(expected.isEmpty());
+        Assert.assertEquals(expected, Arrays.stream(censusCSV).map(census -> census.state).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void givenCensusData_whenQueriedByStateNamePrefix_shouldReturnMatchingStatesInNameOrder() throws Exception {
+        CensusAnalyser censusAnalyser = new CensusAnalyser(CensusAnalyser.Country.INDIA);
+        censusAnalyser.setCensusTable(loadIndiaCensusTable());
+        IndiaCensusCSV[] censusCSV = new Gson().fromJson(censusAnalyser.getCensusDataWithPrefix(
+                CensusAnalyser.SortField.STATE_NAME, "M"), IndiaCensusCSV[].class);
+        Assert.assertEquals(Arrays.asList("Madhya Pradesh", "Maharashtra", "Manipur", "Meghalaya", "Mizoram"),
+                Arrays.stream(censusCSV).map(census -> census.state).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void givenCensusData_whenQueriedByPrefixesThatSortLate_shouldReturnEveryMatchingState() throws Exception {
+        CensusTable censusTable = loadIndiaCensusTable();
+        Assert.assertEquals(2, censusTable.getRowsWithPrefix(CensusAnalyser.SortField.STATE_NAME, "U").length);
+        Assert.assertEquals(1, censusTable.getRowsWithPrefix(CensusAnalyser.SortField.STATE_NAME, "W").length);
+        Assert.assertEquals(3, censusTable.getRowsWithPrefix(CensusAnalyser.SortField.STATE_NAME, "T").length);
+        Assert.assertEquals(1, censusTable.getRowsWithPrefix(CensusAnalyser.SortField.STATE_NAME, "O").length);
+    }
+
+    @Test
+    public void givenCensusData_whenQueriedByStateCodePrefix_shouldReturnStatesWithMatchingCodes() throws Exception {
+        CensusTable censusTable = loadIndiaCensusTable();
+        Assert.assertEquals(censusTable.getCensusDAOs().stream().filter(censusDAO -> censusDAO.stateCode != null
+                && censusDAO.stateCode.startsWith("M")).count(), censusTable.getRowsWithPrefix(CensusAnalyser.SortField.STATE_CODE, "M").length);
+    }
+
+    @Test
+    public void givenCensusData_whenQueriedByPrefixMatchingNoState_shouldReturnNoRows() throws Exception {
+        Assert.assertEquals(0, loadIndiaCensusTable().getRowsWithPrefix(CensusAnalyser.SortField.STATE_CODE, "ZZ").length);
+    }
+
+    @Test
+    public void givenCensusData_whenQueriedByRangeCoveringAllAreas_shouldReturnEveryState() throws Exception {
+        Assert.assertEquals(29, loadIndiaCensusTable().getRowsInRange(CensusAnalyser.SortField.AREA, 0, Double.MAX_VALUE).length);
+    }
+
+    @Test
+    public void givenCensusData_whenQueriedByEmptyRange_shouldReturnNoRows() throws Exception {
+        Assert.assertEquals(0, loadIndiaCensusTable().getRowsInRange(CensusAnalyser.SortField.POPULATION_DENSITY, 500, 100).length);
+    }
+
+    @Test
+    public void givenTinyMemoryBudget_whenSortedExternallyByStateName_shouldMatchInMemorySort() throws Exception {
+        Path censusFile = writeIndiaCensusFileWithDistricts();
+        Assert.assertEquals(sortInMemory(censusFile, CensusAnalyser.SortField.STATE_NAME),
+                sortExternally(tinyBudgetSorter(), censusFile, CensusAnalyser.SortField.STATE_NAME));
+    }
+
+    @Test
+    public void givenTinyMemoryBudget_whenSortedExternallyByPopulation_shouldMatchInMemorySort() throws Exception {
+        Path censusFile = writeIndiaCensusFileWithDistricts();
+        Assert.assertEquals(sortInMemory(censusFile, CensusAnalyser.SortField.POPULATION),
+                sortExternally(tinyBudgetSorter(), censusFile, CensusAnalyser.SortField.POPULATION));
+    }
+
+    @Test
+    public void givenTinyMemoryBudget_whenSortedExternally_shouldSpillSeveralRuns() throws Exception {
+        ExternalCensusSorter externalSorter = tinyBudgetSorter();
+        sortExternally(externalSorter, writeIndiaCensusFileWithDistricts(), CensusAnalyser.SortField.STATE_NAME);
+        Assert.assertTrue(externalSorter.getRunCount() > 4);
+    }
+
+    @Test
+    public void givenTinyMemoryBudget_whenSortedExternally_shouldDeleteItsRunFiles() throws Exception {
+        ExternalCensusSorter externalSorter = tinyBudgetSorter();
+        sortExternally(externalSorter, writeIndiaCensusFileWithDistricts(), CensusAnalyser.SortField.POPULATION);
+        Assert.assertEquals(0, temporaryFolder.getRoot().toPath().resolve("runs").toFile().list().length);
+    }
+
+    @Test
+    public void givenIndianCensusCSVFile_whenSortedExternallyToCSVByArea_shouldReturnLargestStateFirst() throws Exception {
+        StringWriter csv = new StringWriter();
+        tinyBudgetSorter().sort(CensusAnalyser.SortField.AREA, ExternalCensusSorter.OutputFormat.CSV, csv,
+                INDIA_CENSUS_CSV_FILE_PATH);
+        String[] lines = csv.toString().split("\n");
+        Assert.assertEquals(30, lines.length);
+        Assert.assertTrue(lines[1].startsWith("Rajasthan,"));
+    }
+
+    @Test
+    public void givenMemoryBudgetBelowMinimum_whenExternalSorterCreated_shouldThrowException() throws Exception {
+        try {
+            new ExternalCensusSorter(CensusAnalyser.Country.INDIA, ExternalCensusSorter.MIN_MEMORY_BUDGET_BYTES - 1,
+                    temporaryFolder.getRoot().toPath());
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage().contains(String.valueOf(ExternalCensusSorter.MIN_MEMORY_BUDGET_BYTES)));
+        }
+    }
+
+    @Test
+    public void givenJmxMetrics_whenLoadedAndSorted_shouldCountRowsAndBytesRead() throws Exception {
+        JmxCensusMetrics metrics = loadAndSortWithMetrics();
+        Assert.assertEquals(29, metrics.getRowsLoaded());
+        Assert.assertEquals(Files.size(Paths.get(INDIA_CENSUS_CSV_FILE_PATH)), metrics.getBytesRead());
+        Assert.assertEquals(0, metrics.getRowsRejected());
+        Assert.assertTrue(metrics.getRowsPerSecond() > 0);
+    }
+
+    @Test
+    public void givenJmxMetrics_whenLoadedAndSorted_shouldTimeEveryStageOnce() throws Exception {
+        JmxCensusMetrics metrics = loadAndSortWithMetrics();
+        for (CensusMetrics.Stage stage : Arrays.asList(CensusMetrics.Stage.LOAD, CensusMetrics.Stage.STATE_CODE_INDEX,
+                CensusMetrics.Stage.SORT, CensusMetrics.Stage.SERIALIZE))
+            Assert.assertEquals(stage.name(), 1, metrics.getStageCount(stage));
+        Assert.assertTrue(metrics.getStageNanos(CensusMetrics.Stage.PARSE) <= metrics.getStageNanos(CensusMetrics.Stage.LOAD));
+    }
+
+    @Test
+    public void givenJmxMetrics_whenLoaded_shouldExposeRowsLoadedAsMBeanAttribute() throws Exception {
+        loadAndSortWithMetrics();
+        Assert.assertEquals(29L, ManagementFactory.getPlatformMBeanServer()
+                .getAttribute(new ObjectName(JmxCensusMetrics.OBJECT_NAME), "RowsLoaded"));
+    }
+
+    @Test
+    public void givenJmxMetrics_whenRowFailsToBind_shouldCountItAsRejected() throws Exception {
+        Path badRowFile = temporaryFolder.newFile("IndiaCensusBadRow.csv").toPath();
+        Files.write(badRowFile, "State,Population,AreaInSqKm,DensityPerSqKm\nGoa,abc,3702,394\n".getBytes(StandardCharsets.UTF_8));
+        JmxCensusMetrics metrics = JmxCensusMetrics.register();
+        CensusInstrumentation.setMetrics(metrics);
+        try {
+            new IndiaCensusAdapter().loadCensusData(IndiaCensusCSV.class, badRowFile.toString());
+            Assert.fail();
+        } catch (CensusAnalyserException e) {
+            Assert.assertEquals(1, metrics.getRowsRejected());
+        } finally {
+            CensusInstrumentation.setMetrics(null);
+        }
+    }
+
+    @Test
+    public void givenJmxMetrics_whenRowEnricherFails_shouldNotCountARejectedRow() throws Exception {
+        JmxCensusMetrics metrics = JmxCensusMetrics.register();
+        CensusInstrumentation.setMetrics(metrics);
+        try {
+            new IndiaCensusAdapter().loadCensusData(IndiaCensusCSV.class, INDIA_CENSUS_CSV_FILE_PATH, censusDAO -> {
+                throw new IllegalStateException("lookup table unavailable");
+            });
+            Assert.fail();
+        } catch (CensusAnalyserException e) {
+            Assert.assertEquals(0, metrics.getRowsRejected());
+        } finally {
+            CensusInstrumentation.setMetrics(null);
+        }
+    }
+
+    @Test
+    public void givenMetricsUninstalled_whenLoaded_shouldNotRecordIntoThem() throws Exception {
+        JmxCensusMetrics metrics = loadAndSortWithMetrics();
+        loadIndiaCensusAnalyser();
+        Assert.assertEquals(29, metrics.getRowsLoaded());
+    }
+
+    @Test
+    public void givenCensusFileWithBadRows_whenLoadedLeniently_shouldLoadTheGoodRows() throws Exception {
+        Path censusFile = writeIndiaCensusFileWith("Atlantis,many,100,10", "Lemuria,5");
+        CensusAnalyser censusAnalyser = new CensusAnalyser(CensusAnalyser.Country.INDIA);
+        censusAnalyser.setQuarantinePolicy(new QuarantinePolicy(temporaryFolder.getRoot().toPath().resolve("quarantine.csv"), 2));
+        int numOfRecords = censusAnalyser.loadCensusData(CensusAnalyser.Country.INDIA, censusFile.toString(),
+                VALID_STATE_CODE_CSV_FILE_PATH);
+        Assert.assertEquals(29, numOfRecords);
+    }
+
+    @Test
+    public void givenCensusFileWithBadRows_whenLoadedLeniently_shouldReportLoadedAndRejectedRows() throws Exception {
+        Path censusFile = writeIndiaCensusFileWith("Atlantis,many,100,10", "Lemuria,5");
+        CensusAnalyser censusAnalyser = new CensusAnalyser(CensusAnalyser.Country.INDIA);
+        censusAnalyser.setQuarantinePolicy(new QuarantinePolicy(temporaryFolder.getRoot().toPath().resolve("quarantine.csv"), 2));
+        censusAnalyser.loadCensusData(CensusAnalyser.Country.INDIA, censusFile.toString(), VALID_STATE_CODE_CSV_FILE_PATH);
+        LoadReport loadReport = censusAnalyser.getLoadReport();
+        Assert.assertEquals(29, loadReport.getRowsLoaded());
+        Assert.assertEquals(2, loadReport.getRowsRejected());
+        Assert.assertFalse(loadReport.isErrorBudgetExceeded());
+    }
+
+    @Test
+    public void givenCensusFileWithBadRows_whenLoadedLeniently_shouldQuarantineThemWithLineNumberAndReason() throws Exception {
+        Path censusFile = writeIndiaCensusFileWith("Atlantis,many,100,10", "Lemuria,5");
+        Path quarantineFile = temporaryFolder.getRoot().toPath().resolve("quarantine.csv");
+        CensusAnalyser censusAnalyser = new CensusAnalyser(CensusAnalyser.Country.INDIA);
+        censusAnalyser.setQuarantinePolicy(new QuarantinePolicy(quarantineFile, 2));
+        censusAnalyser.loadCensusData(CensusAnalyser.Country.INDIA, censusFile.toString(), VALID_STATE_CODE_CSV_FILE_PATH);
+        List<String> quarantined = Files.readAllLines(quarantineFile);
+        Assert.assertEquals(3, quarantined.size());
+        Assert.assertTrue(quarantined.get(1).startsWith("4,"));
+        Assert.assertTrue(quarantined.get(1).endsWith(",\"Atlantis,many,100,10\""));
+        Assert.assertTrue(quarantined.get(2).startsWith("32,\"Number of data fields"));
+    }
+
+    @Test
+    public void givenCensusFileWithMalformedQuotedRows_whenLoadedLeniently_shouldQuarantineThemAndLoadTheRest() throws Exception {
+        Path censusFile = writeIndiaCensusFileWith("\"Atlantis\"x,1,2,3", "\"Lemuria,5,6,7");
+        Path quarantineFile = temporaryFolder.getRoot().toPath().resolve("quarantine.csv");
+        CensusAnalyser censusAnalyser = new CensusAnalyser(CensusAnalyser.Country.INDIA);
+        censusAnalyser.setQuarantinePolicy(new QuarantinePolicy(quarantineFile, 2));
+        int numOfRecords = censusAnalyser.loadCensusData(CensusAnalyser.Country.INDIA, censusFile.toString(),
+                VALID_STATE_CODE_CSV_FILE_PATH);
+        Assert.assertEquals(29, numOfRecords);
+        List<String> quarantined = Files.readAllLines(quarantineFile);
+        Assert.assertEquals(3, quarantined.size());
+        Assert.assertTrue(quarantined.get(1).startsWith("4,\"Unexpected text after a closing quote"));
+        Assert.assertTrue(quarantined.get(2).startsWith("32,\"Unterminated quoted field"));
+    }
+
+    @Test
+    public void givenUnterminatedQuotedField_WhenMalformedRowSkipped_ShouldResumeAtNextLine() throws Exception {
+        CSVTokenizer tokenizer = new CSVTokenizer(new StringReader("\"a,b\nc,d\n"));
+        try {
+            tokenizer.nextRow();
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            tokenizer.skipMalformedRow();
+        }
+        Assert.assertEquals("\"a,b", tokenizer.getRawRow());
+        Assert.assertTrue(tokenizer.nextRow());
+        Assert.assertEquals("c", tokenizer.getString(0));
+        Assert.assertEquals(2, tokenizer.getLineNumber());
+    }
+
+    @Test
+    public void givenCensusFileWithMoreBadRowsThanBudget_whenLoadedLeniently_shouldFailWithErrorBudgetExceeded() throws Exception {
+        Path censusFile = writeIndiaCensusFileWith("Atlantis,many,100,10", "Lemuria,5");
+        CensusAnalyser censusAnalyser = new CensusAnalyser(CensusAnalyser.Country.INDIA);
+        censusAnalyser.setQuarantinePolicy(new QuarantinePolicy(temporaryFolder.getRoot().toPath().resolve("quarantine.csv"), 1));
+        try {
+            censusAnalyser.loadCensusData(CensusAnalyser.Country.INDIA, censusFile.toString(), VALID_STATE_CODE_CSV_FILE_PATH);
+            Assert.fail();
+        } catch (CensusAnalyserException e) {
+            Assert.assertEquals(CensusAnalyserException.ExceptionType.ERROR_BUDGET_EXCEEDED, e.type);
+        }
+        Assert.assertTrue(censusAnalyser.getLoadReport().isErrorBudgetExceeded());
+    }
+
+    @Test
+    public void givenLoadedCensusData_whenLenientReloadExceedsErrorBudget_shouldKeepTheLoadedData() throws Exception {
+        Path censusFile = writeIndiaCensusFileWith("Atlantis,many,100,10", "Lemuria,5");
+        CensusAnalyser censusAnalyser = new CensusAnalyser(CensusAnalyser.Country.INDIA);
+        censusAnalyser.loadCensusData(CensusAnalyser.Country.INDIA, INDIA_CENSUS_CSV_FILE_PATH, VALID_STATE_CODE_CSV_FILE_PATH);
+        censusAnalyser.setQuarantinePolicy(new QuarantinePolicy(temporaryFolder.getRoot().toPath().resolve("quarantine.csv"), 1));
+        try {
+            censusAnalyser.loadCensusData(CensusAnalyser.Country.INDIA, censusFile.toString(), VALID_STATE_CODE_CSV_FILE_PATH);
+            Assert.fail();
+        } catch (CensusAnalyserException e) {
+        }
+        String sortedCensusData = censusAnalyser.getSortedCensusDataAccordingToPopulation(CensusAnalyser.Country.INDIA);
+        Assert.assertEquals(29, new JsonParser().parse(sortedCensusData).getAsJsonArray().size());
+    }
+
+    @Test
+    public void givenShippedIndiaSchema_whenLoaded_shouldReturnRecordCount() throws Exception {
+        CensusAnalyser censusAnalyser = new CensusAnalyser(CensusAnalyser.Country.INDIA);
+        Assert.assertEquals(29, censusAnalyser.loadCensusData(CensusSchema.fromResource("india"), INDIA_CENSUS_CSV_FILE_PATH));
+    }
+
+    @Test
+    public void givenShippedIndiaSchema_whenLoaded_shouldSortLikeIndiaAdapter() throws Exception {
+        CensusAnalyser censusAnalyser = new CensusAnalyser(CensusAnalyser.Country.INDIA);
+        censusAnalyser.loadCensusData(CensusAnalyser.Country.INDIA, INDIA_CENSUS_CSV_FILE_PATH, VALID_STATE_CODE_CSV_FILE_PATH);
+        IndiaCensusCSV[] expected = new Gson().fromJson(
+                censusAnalyser.getSortedCensusDataAccordingToPopulation(CensusAnalyser.Country.INDIA), IndiaCensusCSV[].class);
+        censusAnalyser.loadCensusData(CensusSchema.fromResource("india"), INDIA_CENSUS_CSV_FILE_PATH);
+        IndiaCensusCSV[] actual = new Gson().fromJson(
+                censusAnalyser.getSortedCensusDataAccordingToPopulation(CensusAnalyser.Country.INDIA), IndiaCensusCSV[].class);
+        for (int row = 0; row < expected.length; row++) {
+            Assert.assertEquals(expected[row].state, actual[row].state);
+            Assert.assertEquals(expected[row].areaInSqKm, actual[row].areaInSqKm);
+            Assert.assertEquals(expected[row].densityPerSqKm, actual[row].densityPerSqKm);
+        }
+    }
+
+    @Test
+    public void givenShippedIndiaSchema_whenLoaded_shouldLeaveStateCodesEmpty() throws Exception {
+        CensusAnalyser censusAnalyser = new CensusAnalyser(CensusAnalyser.Country.INDIA);
+        censusAnalyser.loadCensusData(CensusSchema.fromResource("india"), INDIA_CENSUS_CSV_FILE_PATH);
+        IndiaCensusCSV[] censusCSV = new Gson().fromJson(
+                censusAnalyser.getSortedCensusDataAccordingToPopulation(CensusAnalyser.Country.INDIA), IndiaCensusCSV[].class);
+        // the schema cannot join the state code file
+        for (IndiaCensusCSV census : censusCSV)
+            Assert.assertNull(census.stateCode);
+    }
+
+    @Test
+    public void givenShippedUSSchema_whenLoadedFromTabSeparatedFile_shouldReturnRecordCount() throws Exception {
+        CensusAnalyser censusAnalyser = new CensusAnalyser(CensusAnalyser.Country.US);
+        Assert.assertEquals(51, censusAnalyser.loadCensusData(CensusSchema.fromResource("us"), US_CENSUS_CSV_FILE_PATH));
+    }
+
+    @Test
+    public void givenShippedUSSchema_whenSortedOnPopulation_shouldReturnCaliforniaFirstAndWyomingLast() throws Exception {
+        CensusAnalyser censusAnalyser = new CensusAnalyser(CensusAnalyser.Country.US);
+        censusAnalyser.loadCensusData(CensusSchema.fromResource("us"), US_CENSUS_CSV_FILE_PATH);
+        USCensusCSV[] censusCSV = new Gson().fromJson(
+                censusAnalyser.getSortedCensusDataAccordingToPopulation(CensusAnalyser.Country.US), USCensusCSV[].class);
+        Assert.assertEquals("California", censusCSV[0].state);
+        Assert.assertEquals("CA", censusCSV[0].stateId);
+        Assert.assertEquals("Wyoming", censusCSV[50].state);
+    }
+
+    @Test
+    public void givenCountrySchemaWithScale_whenLoaded_shouldScalePopulation() throws Exception {
+        USCensusCSV[] censusCSV = loadFreedoniaCensus(freedoniaSchemaProperties());
+        Assert.assertEquals("North", censusCSV[0].state);
+        Assert.assertEquals(1500000, censusCSV[0].population);
+    }
+
+    @Test
+    public void givenCountrySchemaWithUnits_whenLoaded_shouldConvertAreaToSquareKilometres() throws Exception {
+        Assert.assertEquals(2589.988, loadFreedoniaCensus(freedoniaSchemaProperties())[0].totalArea, 0.001);
+    }
+
+    @Test
+    public void givenCountrySchemaWithoutDensityColumn_whenLoaded_shouldDeriveDensity() throws Exception {
+        Assert.assertEquals(1500000 / 2589.988110336,
+                loadFreedoniaCensus(freedoniaSchemaProperties())[0].populationDensity, 0.001);
+    }
+
+    @Test
+    public void givenCountrySchemaWithUnknownKey_whenCompiled_shouldThrowException() {
+        Properties properties = freedoniaSchemaProperties();
+        properties.setProperty("totalArea.units", "SQ_MI");
+        try {
+            CensusSchema.compile("freedonia", properties);
+            Assert.fail();
+        } catch (CensusAnalyserException e) {
+            Assert.assertEquals(CensusAnalyserException.ExceptionType.INVALID_SCHEMA, e.type);
+        }
+    }
+
+    @Test
+    public void givenGzipCensusFile_whenLoadedInParallel_shouldMatchUncompressedFile() throws Exception {
+        Path gzipFile = temporaryFolder.newFile("census.gz").toPath();
+        try (OutputStream output = new GZIPOutputStream(Files.newOutputStream(gzipFile))) {
+            Files.copy(Paths.get(INDIA_CENSUS_CSV_FILE_PATH), output);
+        }
+        String expected = loadIndiaCensusAnalyser().getSortedCensusDataAccordingToPopulation(CensusAnalyser.Country.INDIA);
+        CensusAnalyser censusAnalyser = new CensusAnalyser(CensusAnalyser.Country.INDIA);
+        censusAnalyser.setLoadMode(CensusAdapter.LoadMode.PARALLEL);
+        Assert.assertEquals(29, censusAnalyser.loadCensusData(CensusAnalyser.Country.INDIA, gzipFile.toString(),
+                VALID_STATE_CODE_CSV_FILE_PATH));
+        Assert.assertEquals(expected, censusAnalyser.getSortedCensusDataAccordingToPopulation(CensusAnalyser.Country.INDIA));
+    }
+
+    @Test
+    public void givenBlockedGzipFile_whenRead_shouldInflateToOriginalText() throws Exception {
+        Path csvFile = writeLargeCensusFile();
+        Path blockedFile = temporaryFolder.getRoot().toPath().resolve("large.csv.bgz");
+        BlockedGzip.compress(csvFile, blockedFile);
+        Assert.assertTrue(CensusFileReader.isCompressed(blockedFile));
+        Assert.assertEquals(new String(Files.readAllBytes(csvFile), StandardCharsets.UTF_8), readAll(blockedFile));
+    }
+
+    @Test
+    public void givenBlockedGzipCensusFile_whenLoaded_shouldReturnEveryRow() throws Exception {
+        Path blockedFile = temporaryFolder.getRoot().toPath().resolve("large.csv.bgz");
+        BlockedGzip.compress(writeLargeCensusFile(), blockedFile);
+        Assert.assertEquals(20000, new IndiaCensusAdapter().loadCensusData(IndiaCensusCSV.class, blockedFile.toString()).size());
+    }
+
+    @Test
+    public void givenCorruptedBlockedGzipCensusFile_whenLoaded_shouldThrowCensusFileProblem() throws Exception {
+        Path blockedFile = temporaryFolder.getRoot().toPath().resolve("large.csv.bgz");
+        BlockedGzip.compress(writeLargeCensusFile(), blockedFile);
+        byte[] corrupted = Files.readAllBytes(blockedFile);
+        corrupted[corrupted.length / 2] ^= 0x55;
+        Files.write(blockedFile, corrupted);
+        try {
+            new IndiaCensusAdapter().loadCensusData(IndiaCensusCSV.class, blockedFile.toString());
+            Assert.fail();
+        } catch (CensusAnalyserException e) {
+            Assert.assertEquals(CensusAnalyserException.ExceptionType.CENSUS_FILE_PROBLEM, e.type);
+        }
+    }
+
+    @Test
+    public void givenBlockedGzipFileTruncatedAtBlockBoundary_whenRead_shouldThrowIOException() throws Exception {
+        Path blockedFile = temporaryFolder.getRoot().toPath().resolve("large.csv.bgz");
+        BlockedGzip.compress(writeLargeCensusFile(), blockedFile);
+        byte[] compressed = Files.readAllBytes(blockedFile);
+        int lastBlockLength = 0;
+        try (DataInputStream blocks = new DataInputStream(new ByteArrayInputStream(compressed))) {
+            byte[] block;
+            while ((block = BlockedGzip.readBlock(blocks)) != null)
+                lastBlockLength = block.length;
+        }
+        Files.write(blockedFile, Arrays.copyOf(compressed, compressed.length - lastBlockLength));
+        try {
+            readAll(blockedFile);
+            Assert.fail();
+        } catch (IOException e) {
+            Assert.assertTrue(e.getMessage().contains("truncated"));
+        }
+    }
+
+    @Test
+    public void givenRowPublisher_whenSubscriberRequestsFewRows_shouldEmitOnlyThoseRows() throws Exception {
+        CensusRowPublisher publisher = new CensusRowPublisher(CensusAnalyser.Country.INDIA,
+                INDIA_CENSUS_CSV_FILE_PATH, VALID_STATE_CODE_CSV_FILE_PATH);
+        publisher.setPrefetch(8);
+        RecordingSubscriber subscriber = new RecordingSubscriber(5);
+        publisher.subscribe(subscriber);
+        Assert.assertTrue(subscriber.firstRows.await(5, TimeUnit.SECONDS));
+        Thread.sleep(100);
+        Assert.assertEquals(5, subscriber.rows.size());
+        Assert.assertEquals(1, subscriber.finished.getCount());
+    }
+
+    @Test
+    public void givenRowPublisher_whenSubscriberRequestsTheRest_shouldEmitEveryRowThenComplete() throws Exception {
+        CensusRowPublisher publisher = new CensusRowPublisher(CensusAnalyser.Country.INDIA,
+                INDIA_CENSUS_CSV_FILE_PATH, VALID_STATE_CODE_CSV_FILE_PATH);
+        publisher.setPrefetch(8);
+        RecordingSubscriber subscriber = new RecordingSubscriber(5);
+        publisher.subscribe(subscriber);
+        Assert.assertTrue(subscriber.firstRows.await(5, TimeUnit.SECONDS));
+        subscriber.subscription.request(Long.MAX_VALUE);
+        Assert.assertTrue(subscriber.finished.await(5, TimeUnit.SECONDS));
+        Assert.assertNull(subscriber.error);
+        Assert.assertEquals(29, subscriber.rows.size());
+        Assert.assertEquals("Uttar Pradesh", subscriber.rows.get(0).state);
+    }
+
+    @Test
+    public void givenRowPublisherWithStateCodes_whenRowsEmitted_shouldCarryJoinedStateCodes() throws Exception {
+        RecordingSubscriber subscriber = new RecordingSubscriber(Long.MAX_VALUE);
+        new CensusRowPublisher(CensusAnalyser.Country.INDIA, INDIA_CENSUS_CSV_FILE_PATH, VALID_STATE_CODE_CSV_FILE_PATH)
+                .subscribe(subscriber);
+        Assert.assertTrue(subscriber.finished.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(29, subscriber.rows.stream().filter(censusDAO -> censusDAO.stateCode != null).count());
+    }
+
+    @Test
+    public void givenMissingCensusFile_whenPublished_shouldSignalCensusFileProblem() throws Exception {
+        RecordingSubscriber subscriber = new RecordingSubscriber(1);
+        new CensusRowPublisher(CensusAnalyser.Country.INDIA, WRONG_CSV_FILE_PATH).subscribe(subscriber);
+        Assert.assertTrue(subscriber.finished.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(CensusAnalyserException.ExceptionType.CENSUS_FILE_PROBLEM,
+                ((CensusAnalyserException) subscriber.error).type);
+    }
+
+    @Test
+    public void givenExecutorRejectingThePublisher_whenSubscribed_shouldSignalTheRejection() throws Exception {
+        CensusRowPublisher publisher = new CensusRowPublisher(CensusAnalyser.Country.INDIA, INDIA_CENSUS_CSV_FILE_PATH);
+        publisher.setExecutor(command -> {
+            throw new RejectedExecutionException("executor is shut down");
+        });
+        RecordingSubscriber subscriber = new RecordingSubscriber(1);
+        publisher.subscribe(subscriber);
+        Assert.assertTrue(subscriber.finished.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(subscriber.error instanceof RejectedExecutionException);
+    }
+
+    @Test
+    public void givenLoadedCensusData_WhenSortedDataRequestedOverHttp_ShouldServeSortedJson() throws Exception {
+        CensusAnalyser censusAnalyser = loadIndiaCensusAnalyser();
+        try (CensusHttpServer server = new CensusHttpServer(censusAnalyser)) {
+            server.start(0);
+            Assert.assertEquals(censusAnalyser.getSortedCensusDataAccordingToPopulation(CensusAnalyser.Country.INDIA),
+                    httpGet("http://localhost:" + server.getPort() + "/census/sorted?field=population", 200));
+        }
+    }
+
+    @Test
+    public void givenLoadedCensusData_WhenTopKRequestedOverHttp_ShouldServeTopK() throws Exception {
+        CensusAnalyser censusAnalyser = loadIndiaCensusAnalyser();
+        try (CensusHttpServer server = new CensusHttpServer(censusAnalyser)) {
+            server.start(0);
+            Assert.assertEquals(censusAnalyser.getTopK(CensusAnalyser.SortField.AREA, 3, CensusAnalyser.SortOrder.ASCENDING),
+                    httpGet("http://localhost:" + server.getPort() + "/census/top?field=AREA&k=3&order=ascending", 200));
+        }
+    }
+
+    @Test
+    public void givenLoadedCensusData_WhenPrefixRequestedOverHttp_ShouldServeMatchingStates() throws Exception {
+        CensusAnalyser censusAnalyser = loadIndiaCensusAnalyser();
+        try (CensusHttpServer server = new CensusHttpServer(censusAnalyser)) {
+            server.start(0);
+            Assert.assertEquals(censusAnalyser.getCensusDataWithPrefix(CensusAnalyser.SortField.STATE_NAME, "Ma"),
+                    httpGet("http://localhost:" + server.getPort() + "/census/prefix?field=STATE_NAME&prefix=Ma", 200));
+        }
+    }
+
+    @Test
+    public void givenMalformedParameter_WhenRequestedOverHttp_ShouldRespondWithBadRequest() throws Exception {
+        try (CensusHttpServer server = new CensusHttpServer(loadIndiaCensusAnalyser())) {
+            server.start(0);
+            httpGet("http://localhost:" + server.getPort() + "/census/top?field=AREA&k=ten", 400);
+        }
+    }
+
+    @Test
+    public void givenUnknownEndpoint_WhenRequestedOverHttp_ShouldRespondWithNotFound() throws Exception {
+        try (CensusHttpServer server = new CensusHttpServer(loadIndiaCensusAnalyser())) {
+            server.start(0);
+            httpGet("http://localhost:" + server.getPort() + "/census/unknown", 404);
+        }
+    }
+
+    @Test
+    public void givenServedRequests_WhenStatsRequestedOverHttp_ShouldReportCountsAndLatencies() throws Exception {
+        try (CensusHttpServer server = new CensusHttpServer(loadIndiaCensusAnalyser())) {
+            server.start(0);
+            String baseUrl = "http://localhost:" + server.getPort();
+            httpGet(baseUrl + "/census/sorted?field=population", 200);
+            httpGet(baseUrl + "/census/top?field=AREA&k=3&order=ascending", 200);
+            httpGet(baseUrl + "/census/top?field=AREA&k=ten", 400);
+            JsonObject stats = new JsonParser().parse(httpGet(baseUrl + "/stats", 200)).getAsJsonObject();
+            Assert.assertEquals(1, stats.getAsJsonObject("SORTED").get("count").getAsLong());
+            Assert.assertEquals(2, stats.getAsJsonObject("TOP").get("count").getAsLong());
+            Assert.assertTrue(stats.getAsJsonObject("SORTED").get("p50Micros").getAsDouble() > 0);
+            Assert.assertTrue(stats.getAsJsonObject("SORTED").get("p99Micros").getAsDouble()
+                    <= stats.getAsJsonObject("SORTED").get("maxMicros").getAsDouble());
+        }
+    }
+
+    @Test
+    public void givenNoCensusData_WhenRequestedOverHttp_ShouldRespondWithServiceUnavailable() throws Exception {
+        try (CensusHttpServer server = new CensusHttpServer(new CensusAnalyser(CensusAnalyser.Country.US))) {
+            server.start(0);
+            Assert.assertTrue(httpGet("http://localhost:" + server.getPort() + "/census/sorted?field=AREA", 503)
+                    .contains("NO_CENSUS_DATA"));
+        }
+    }
+
+    @Test
+    public void givenFailingQuery_WhenRequestedOverHttp_ShouldRespondWithInternalServerError() throws Exception {
+        CensusAnalyser censusAnalyser = new CensusAnalyser(CensusAnalyser.Country.INDIA) {
+            @Override
+            public String getTopK(SortField sortField, int k, SortOrder sortOrder) {
+                throw new IllegalStateException("broken");
+            }
+        };
+        try (CensusHttpServer server = new CensusHttpServer(censusAnalyser)) {
+            server.start(0);
+            Assert.assertTrue(httpGet("http://localhost:" + server.getPort() + "/census/top?field=AREA&k=3", 500)
+                    .contains("broken"));
+        }
+    }
+
+    @Test
+    public void givenIPLBattingFactsheet_WhenLoadedAsDataset_ShouldReturnNumberOfPlayers() throws CensusAnalyserException {
+        Assert.assertEquals(100, new DatasetAnalyser(IPLDatasets.mostRuns()).loadData(IPL_MOST_RUNS_CSV_FILE_PATH));
+    }
+
+    @Test
+    public void givenIPLBattingDataset_WhenTopKByBattingAverage_ShouldBreakTiesByRuns() throws CensusAnalyserException {
+        DatasetAnalyser batting = new DatasetAnalyser(IPLDatasets.mostRuns());
+        batting.loadData(IPL_MOST_RUNS_CSV_FILE_PATH);
+        JsonArray bestAverage = new JsonParser().parse(batting.getTopK(IPLDatasets.BEST_BATTING_AVERAGE, 2)).getAsJsonArray();
+        Assert.assertEquals("MS Dhoni", bestAverage.get(0).getAsJsonObject().get("PLAYER").getAsString());
+        Assert.assertEquals(84, bestAverage.get(0).getAsJsonObject().get("HS").getAsInt());
+        Assert.assertEquals("David Warner", bestAverage.get(1).getAsJsonObject().get("PLAYER").getAsString());
+    }
+
+    @Test
+    public void givenIPLBattingDataset_WhenSortedByStrikeRate_ShouldReturnEveryPlayerBestFirst() throws CensusAnalyserException {
+        DatasetAnalyser batting = new DatasetAnalyser(IPLDatasets.mostRuns());
+        batting.loadData(IPL_MOST_RUNS_CSV_FILE_PATH);
+        JsonArray bestStrikeRate = new JsonParser().parse(batting.getSortedData(IPLDatasets.BEST_STRIKE_RATE)).getAsJsonArray();
+        Assert.assertEquals(100, bestStrikeRate.size());
+        Assert.assertEquals("Ishant Sharma", bestStrikeRate.get(0).getAsJsonObject().get("PLAYER").getAsString());
+    }
+
+    @Test
+    public void givenIPLBattingDataset_WhenSortedByColumnWithMissingValues_ShouldPutThemLast() throws CensusAnalyserException {
+        DatasetAnalyser batting = new DatasetAnalyser(IPLDatasets.mostRuns());
+        batting.loadData(IPL_MOST_RUNS_CSV_FILE_PATH);
+        int[] byAverage = batting.getDataset().getSortOrder(IPLDatasets.BEST_BATTING_AVERAGE);
+        Assert.assertTrue(batting.getDataset().isMissing("Avg", byAverage[byAverage.length - 1]));
+    }
+
+    @Test
+    public void givenIPLBattingDataset_WhenEqualOrderRequestedAgain_ShouldReuseCachedSortOrder() throws CensusAnalyserException {
+        DatasetAnalyser batting = new DatasetAnalyser(IPLDatasets.mostRuns());
+        batting.loadData(IPL_MOST_RUNS_CSV_FILE_PATH);
+        Dataset battingDataset = batting.getDataset();
+        Assert.assertSame(battingDataset.sortOrder(IPLDatasets.BEST_BATTING_AVERAGE), battingDataset.sortOrder(
+                DatasetOrder.by("avg", CensusAnalyser.SortOrder.DESCENDING).then("RUNS", CensusAnalyser.SortOrder.DESCENDING)));
+    }
+
+    @Test
+    public void givenIPLBattingDataset_WhenSortOrderModifiedByCaller_ShouldNotChangeLaterQueries() throws CensusAnalyserException {
+        DatasetAnalyser batting = new DatasetAnalyser(IPLDatasets.mostRuns());
+        batting.loadData(IPL_MOST_RUNS_CSV_FILE_PATH);
+        String topK = batting.getTopK(IPLDatasets.BEST_BATTING_AVERAGE, 2);
+        int[] byAverage = batting.getDataset().getSortOrder(IPLDatasets.BEST_BATTING_AVERAGE);
+        Arrays.fill(byAverage, 0);
+        Assert.assertEquals(topK, batting.getTopK(IPLDatasets.BEST_BATTING_AVERAGE, 2));
+    }
+
+    @Test
+    public void givenIPLBowlingDataset_WhenTopKByWickets_ShouldReturnMostWicketsFirst() throws CensusAnalyserException {
+        DatasetAnalyser bowling = new DatasetAnalyser(IPLDatasets.mostWickets());
+        Assert.assertEquals(99, bowling.loadData(IPL_MOST_WICKETS_CSV_FILE_PATH));
+        JsonArray mostWickets = new JsonParser().parse(bowling.getTopK(IPLDatasets.MOST_WICKETS, 3)).getAsJsonArray();
+        Assert.assertEquals("Imran Tahir", mostWickets.get(0).getAsJsonObject().get("PLAYER").getAsString());
+        Assert.assertEquals("Deepak Chahar", mostWickets.get(2).getAsJsonObject().get("PLAYER").getAsString());
+    }
+
+    @Test
+    public void givenIPLBowlingDataset_WhenTopKByEconomy_ShouldLeaveOutMissingValues() throws CensusAnalyserException {
+        DatasetAnalyser bowling = new DatasetAnalyser(IPLDatasets.mostWickets());
+        bowling.loadData(IPL_MOST_WICKETS_CSV_FILE_PATH);
+        JsonArray bestEconomy = new JsonParser().parse(bowling.getTopK(IPLDatasets.BEST_ECONOMY, 1)).getAsJsonArray();
+        Assert.assertEquals(4.8, bestEconomy.get(0).getAsJsonObject().get("Econ").getAsDouble(), 0.0);
+        Assert.assertFalse(bestEconomy.get(0).getAsJsonObject().has("Avg"));
+    }
+
+    @Test
+    public void givenIPLBattingFactsheet_WhenLoadedWithBowlingSchema_ShouldThrowCensusFileProblem() {
+        try {
+            new DatasetAnalyser(IPLDatasets.mostWickets()).loadData(IPL_MOST_RUNS_CSV_FILE_PATH);
+            Assert.fail();
+        } catch (CensusAnalyserException e) {
+            Assert.assertEquals(CensusAnalyserException.ExceptionType.CENSUS_FILE_PROBLEM, e.type);
+        }
+    }
+
+    @Test
+    public void givenLargeCensusTable_WhenSortedByPopulation_ShouldMatchStableComparatorSort() {
+        assertSortOrderMatches(buildRandomCensusTable(), CensusAnalyser.SortField.POPULATION,
+                Comparator.comparing((CensusDAO censusDAO) -> censusDAO.population).reversed());
+    }
+
+    @Test
+    public void givenLargeCensusTable_WhenSortedByArea_ShouldMatchStableComparatorSort() {
+        assertSortOrderMatches(buildRandomCensusTable(), CensusAnalyser.SortField.AREA,
+                Comparator.comparing((CensusDAO censusDAO) -> censusDAO.totalArea).reversed());
+    }
+
+    @Test
+    public void givenLargeCensusTable_WhenSortedByDensity_ShouldMatchStableComparatorSort() {
+        assertSortOrderMatches(buildRandomCensusTable(), CensusAnalyser.SortField.POPULATION_DENSITY,
+                Comparator.comparing((CensusDAO censusDAO) -> censusDAO.populationDensity).reversed());
+    }
+
+    @Test
+    public void givenLargeCensusTable_WhenRadixSortedInFixedChunks_ShouldMatchPooledSort() {
+        CensusTable censusTable = buildRandomCensusTable();
+        // the same number of chunks on any machine, however many cores the pool has
+        for (CensusAnalyser.SortField sortField : Arrays.asList(CensusAnalyser.SortField.POPULATION,
+                CensusAnalyser.SortField.AREA, CensusAnalyser.SortField.POPULATION_DENSITY))
+            Assert.assertArrayEquals(censusTable.getSortOrder(sortField),
+                    IndexSort.radixSort(censusTable.sortKeys(sortField), null, 3));
+    }
+
+    @Test
+    public void givenTwoSortKeys_WhenSortedByKeys_ShouldBreakTiesOnTheSecondKey() {
+        Random random = new Random(24);
+        long[][] keys = new long[2][5000];
+        for (int row = 0; row < 5000; row++) {
+            keys[0][row] = random.nextInt(20);
+            keys[1][row] = ~(long) random.nextInt(50);
+        }
+        Integer[] expected = new Integer[5000];
+        for (int row = 0; row < expected.length; row++)
+            expected[row] = row;
+        Arrays.sort(expected, Comparator.comparingLong((Integer row) -> keys[0][row]).thenComparingLong(row -> keys[1][row]));
+        int[] sortOrder = IndexSort.sortByKeys(keys);
+        for (int index = 0; index < sortOrder.length; index++)
+            Assert.assertEquals(expected[index].intValue(), sortOrder[index]);
+    }
+
+    @Test
+    public void givenProjectedLoad_WhenLoaded_ShouldLoadOnlyProjectedColumns() throws Exception {
+        CensusTable censusTable = loadPopulationProjectedAnalyser().getCensusTable();
+        Assert.assertEquals(29, censusTable.size());
+        Assert.assertTrue(censusTable.isLoaded(CensusProjection.Column.POPULATION));
+        Assert.assertFalse(censusTable.isLoaded(CensusProjection.Column.TOTAL_AREA));
+        Assert.assertFalse(censusTable.isLoaded(CensusProjection.Column.STATE_CODE));
+    }
+
+    @Test
+    public void givenProjectedLoad_WhenRankedOnSkippedColumn_ShouldReadOnlyThatColumn() throws Exception {
+        CensusTable censusTable = loadPopulationProjectedAnalyser().getCensusTable();
+        int[] largestRows = censusTable.getTopK(CensusAnalyser.SortField.AREA, 3, false);
+        Assert.assertEquals("Rajasthan", censusTable.getState(largestRows[0]));
+        Assert.assertTrue(censusTable.isLoaded(CensusProjection.Column.TOTAL_AREA));
+        Assert.assertFalse(censusTable.isLoaded(CensusProjection.Column.POPULATION_DENSITY));
+        Assert.assertFalse(censusTable.isLoaded(CensusProjection.Column.STATE_CODE));
+    }
+
+    @Test
+    public void givenProjectedLoad_WhenTopKQueried_ShouldWriteProjectedAndRankedColumnsOnly() throws Exception {
+        CensusAnalyser censusAnalyser = loadPopulationProjectedAnalyser();
+        JsonObject largest = new JsonParser().parse(censusAnalyser.getTopK(CensusAnalyser.SortField.AREA, 1,
+                CensusAnalyser.SortOrder.DESCENDING)).getAsJsonArray().get(0).getAsJsonObject();
+        Assert.assertEquals("Rajasthan", largest.get("state").getAsString());
+        Assert.assertTrue(largest.has("population"));
+        Assert.assertTrue(largest.has("areaInSqKm"));
+        Assert.assertFalse(largest.has("densityPerSqKm"));
+        Assert.assertFalse(largest.has("stateCode"));
+    }
+
+    @Test
+    public void givenProjectedLoad_WhenQueried_ShouldNotReadColumnsTheQueryDoesNotUse() throws Exception {
+        CensusAnalyser censusAnalyser = loadPopulationProjectedAnalyser();
+        censusAnalyser.getTopK(CensusAnalyser.SortField.POPULATION, 3, CensusAnalyser.SortOrder.DESCENDING);
+        censusAnalyser.getCensusDataWithPrefix(CensusAnalyser.SortField.STATE_NAME, "M");
+        censusAnalyser.getCensusDataInRange(CensusAnalyser.SortField.AREA, 0, 100000);
+        CensusTable censusTable = censusAnalyser.getCensusTable();
+        Assert.assertFalse(censusTable.isLoaded(CensusProjection.Column.POPULATION_DENSITY));
+        Assert.assertFalse(censusTable.isLoaded(CensusProjection.Column.STATE_CODE));
+    }
+
+    @Test
+    public void givenProjectedLoad_WhenSameQueryRunsAfterOthersReadMoreColumns_ShouldWriteSameRows() throws Exception {
+        CensusAnalyser censusAnalyser = loadPopulationProjectedAnalyser();
+        String topK = censusAnalyser.getTopK(CensusAnalyser.SortField.POPULATION, 3, CensusAnalyser.SortOrder.DESCENDING);
+        censusAnalyser.getTopK(CensusAnalyser.SortField.STATE_CODE, 3, CensusAnalyser.SortOrder.ASCENDING);
+        censusAnalyser.getSortedCensusDataAccordingToArea(CensusAnalyser.Country.INDIA);
+        Assert.assertEquals(topK, censusAnalyser.getTopK(CensusAnalyser.SortField.POPULATION, 3, CensusAnalyser.SortOrder.DESCENDING));
+    }
+
+    @Test
+    public void givenProjectedLoad_WhenSortedDataRequested_ShouldWriteWholeRowsLikeFullLoad() throws Exception {
+        Assert.assertEquals(loadIndiaCensusAnalyser().getSortedCensusDataAccordingToPopulation(CensusAnalyser.Country.INDIA),
+                loadPopulationProjectedAnalyser().getSortedCensusDataAccordingToPopulation(CensusAnalyser.Country.INDIA));
+    }
+
+    @Test
+    public void givenProjectedLoadWithIndexesBuilt_WhenSortedByStateCode_ShouldMatchFullLoad() throws Exception {
+        CensusAnalyser censusAnalyser = loadPopulationProjectedAnalyser();
+        censusAnalyser.buildIndexes();
+        Assert.assertEquals(loadIndiaCensusAnalyser().getSortedCensusDataAccordingToStateCode(CensusAnalyser.Country.INDIA),
+                censusAnalyser.getSortedCensusDataAccordingToStateCode(CensusAnalyser.Country.INDIA));
+    }
+
+    @Test
+    public void givenTableWithMissingColumns_WhenRowWrittenAsJson_ShouldLeaveThemOut() throws Exception {
+        CensusTable projectedTable = CensusTable.from(loadIndiaCensusTable().getCensusDAOs());
+        projectedTable.setMissingColumns(CensusProjection.of(CensusProjection.Column.POPULATION), projection -> {
+            throw new CensusAnalyserException("not read", CensusAnalyserException.ExceptionType.CENSUS_FILE_PROBLEM);
+        });
+        StringWriter partialRow = new StringWriter();
+        CensusJsonWriter partialWriter = new CensusJsonWriter(partialRow, CensusAnalyser.Country.INDIA);
+        partialWriter.beginArray();
+        partialWriter.writeRow(projectedTable, 0);
+        partialWriter.endArray();
+        JsonObject written = new JsonParser().parse(partialRow.toString()).getAsJsonArray().get(0).getAsJsonObject();
+        Assert.assertTrue(written.has("population"));
+        Assert.assertFalse(written.has("areaInSqKm"));
+        Assert.assertFalse(written.has("stateCode"));
+    }
+
+    @Test
+    public void givenFieldLimit_WhenTokenized_ShouldSkipTrailingFieldsIncludingQuotedLineBreaks() throws Exception {
+        char[] rows = "a,\"x,\ny\",c\n,2,3\n".toCharArray();
+        CSVTokenizer tokenizer = new CSVTokenizer(rows, rows.length, ',');
+        tokenizer.setFieldLimit(1);
+        Assert.assertTrue(tokenizer.nextRow());
+        Assert.assertEquals("a", tokenizer.getString(0));
+        Assert.assertTrue(tokenizer.nextRow());
+        Assert.assertEquals(1, tokenizer.getFieldCount());
+        Assert.assertEquals(3, tokenizer.getLineNumber());
+        Assert.assertFalse(tokenizer.nextRow());
+    }
+
+    @Test
+    public void givenTextAfterClosingQuoteInSkippedColumn_WhenTokenizedWithFieldLimit_ShouldRejectRow() throws Exception {
+        char[] rows = "a,\"b\"x,c\n".toCharArray();
+        CSVTokenizer tokenizer = new CSVTokenizer(rows, rows.length, ',');
+        tokenizer.setFieldLimit(1);
+        try {
+            tokenizer.nextRow();
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            Assert.assertEquals("Unexpected text after a closing quote at line 1", e.getMessage());
+        }
+    }
+
+    // Two good India jobs around a missing US file and a state code file with a wrong header.
+    private static List<CensusBatchLoader.Job> batchOfCensusJobs() {
+        return Arrays.asList(
+                new CensusBatchLoader.Job(CensusAnalyser.Country.INDIA, INDIA_CENSUS_CSV_FILE_PATH, VALID_STATE_CODE_CSV_FILE_PATH),
+                new CensusBatchLoader.Job(CensusAnalyser.Country.US, WRONG_CSV_FILE_PATH),
+                new CensusBatchLoader.Job(CensusAnalyser.Country.INDIA, INDIA_CENSUS_CSV_FILE_PATH, STATE_CODE_WRONG_HEADER_CSV_FILE_PATH),
+                new CensusBatchLoader.Job(CensusAnalyser.Country.INDIA, INDIA_CENSUS_CSV_FILE_PATH, VALID_STATE_CODE_CSV_FILE_PATH));
+    }
+
+    // Freedonia reports population in thousands and area in square miles, with no density column.
+    private static Properties freedoniaSchemaProperties() {
+        Properties properties = new Properties();
+        properties.setProperty("delimiter", ";");
+        properties.setProperty("state.column", "Province");
+        properties.setProperty("population.column", "People (thousands)");
+        properties.setProperty("population.scale", "1000");
+        properties.setProperty("totalArea.column", "Area (sq mi)");
+        properties.setProperty("totalArea.unit", "SQ_MI");
+        return properties;
+    }
+
+    private USCensusCSV[] loadFreedoniaCensus(Properties properties) throws Exception {
+        Path censusFile = temporaryFolder.newFile("freedonia.csv").toPath();
+        Files.write(censusFile, Arrays.asList("Province;People (thousands);Area (sq mi)", "North;1500;1000", "South;250;500"));
+        CensusAnalyser censusAnalyser = new CensusAnalyser(CensusAnalyser.Country.US);
+        censusAnalyser.loadCensusData(CensusSchema.compile("freedonia", properties), censusFile.toString());
+        return new Gson().fromJson(
+                censusAnalyser.getSortedCensusDataAccordingToPopulation(CensusAnalyser.Country.US), USCensusCSV[].class);
+    }
+
+    // More than two parallel chunks' worth of rows, so the chunked radix passes run.
+    private static CensusTable buildRandomCensusTable() {
+        Random random = new Random(24);
+        List<CensusDAO> censusDAOs = new ArrayList<>();
+        for (int row = 0; row < 140_000; row++)
+            censusDAOs.add(new CensusDAO("State " + row, null, random.nextInt(1000), random.nextInt(500) - 250.5,
+                    random.nextGaussian() * 1e6));
+        return CensusTable.from(censusDAOs);
+    }
+
+    private static void assertSortOrderMatches(CensusTable censusTable, CensusAnalyser.SortField sortField,
+                                               Comparator<CensusDAO> comparator) {
+        List<CensusDAO> expected = new ArrayList<>(censusTable.getCensusDAOs());
+        expected.sort(comparator);
+        int[] sortOrder = censusTable.getSortOrder(sortField);
+        for (int index = 0; index < sortOrder.length; index++)
+            Assert.assertEquals(expected.get(index).state, censusTable.getState(sortOrder[index]));
+    }
+
+    // 100000 rows with populations 0..99999 spread over seven state codes.
+    private static CensusTable buildSequentialCensusTable() {
+        CensusTable.Builder builder = new CensusTable.Builder(100000);
+        for (int row = 0; row < 100000; row++)
+            builder.add("State " + row, "S" + (row % 7), row, row % 1000, row % 13);
+        return builder.build();
+    }
+
+    // The India census file followed by 1000 district rows, enough to spill a small memory budget.
+    private Path writeIndiaCensusFileWithDistricts() throws IOException {
+        Path censusFile = temporaryFolder.newFile("IndiaCensusLarge.csv").toPath();
+        StringBuilder csvData = new StringBuilder(Files.readAllLines(Paths.get(INDIA_CENSUS_CSV_FILE_PATH)).stream()
+                .collect(Collectors.joining("\n", "", "\n")));
+        for (int row = 0; row < 1000; row++)
+            csvData.append("District ").append(row).append(',').append(1000 + row * 7919 % 1000)
+                    .append(",").append(row % 97).append(',').append(row % 13).append('\n');
+        Files.write(censusFile, csvData.toString().getBytes(StandardCharsets.UTF_8));
+        return censusFile;
+    }
+
+    private ExternalCensusSorter tinyBudgetSorter() throws IOException {
+        return new ExternalCensusSorter(CensusAnalyser.Country.INDIA,
+                ExternalCensusSorter.MIN_MEMORY_BUDGET_BYTES + 16 * 1024, temporaryFolder.newFolder("runs").toPath());
+    }
+
+    private static String sortInMemory(Path censusFile, CensusAnalyser.SortField sortField) throws Exception {
+        CensusAnalyser censusAnalyser = new CensusAnalyser(CensusAnalyser.Country.INDIA);
+        censusAnalyser.setCensusTable(CensusTable.from(new IndiaCensusAdapter().loadCensusData(
+                censusFile.toString(), VALID_STATE_CODE_CSV_FILE_PATH)));
+        StringWriter sorted = new StringWriter();
+        censusAnalyser.writeSortedCensusData(sortField, CensusAnalyser.Country.INDIA, sorted);
+        return sorted.toString();
+    }
+
+    private static String sortExternally(ExternalCensusSorter externalSorter, Path censusFile,
+                                         CensusAnalyser.SortField sortField) throws Exception {
+        StringWriter sorted = new StringWriter();
+        externalSorter.sort(sortField, ExternalCensusSorter.OutputFormat.JSON, sorted,
+                censusFile.toString(), VALID_STATE_CODE_CSV_FILE_PATH);
+        return sorted.toString();
+    }
+
+    // Groups A (AP, AR, AS), B (BH) and unknown (Atlantis) with the 50th and 100th percentiles.
+    private static JsonArray aggregateByFirstStateCodeLetter() throws CensusAnalyserException {
+        CensusAnalyser censusAnalyser = new CensusAnalyser(CensusAnalyser.Country.INDIA);
+        censusAnalyser.setCensusTable(new CensusTable.Builder()
+                .add("Andhra Pradesh", "AP", 100, 10, 10)
+                .add("Arunachal Pradesh", "AR", 300, 100, 3)
+                .add("Assam", "AS", 200, 20, 10)
+                .add("Bihar", "BH", 1000, 10, 100)
+                .add("Atlantis", null, 7, 1, 7)
+                .build());
+        return new JsonParser().parse(censusAnalyser.getAggregates(CensusAggregator.stateCodePrefix(1), 50, 100))
+                .getAsJsonArray();
+    }
+
+    // Loads and sorts the India census with fresh JMX metrics installed, and uninstalls them again.
+    private static JmxCensusMetrics loadAndSortWithMetrics() throws CensusAnalyserException {
+        JmxCensusMetrics metrics = JmxCensusMetrics.register();
+        CensusInstrumentation.setMetrics(metrics);
+        try {
+            loadIndiaCensusAnalyser().getSortedCensusDataAccordingToPopulation(CensusAnalyser.Country.INDIA);
+        } finally {
+            CensusInstrumentation.setMetrics(null);
+        }
+        return metrics;
+    }
+
+    // Fails a cache load while a second caller waits on it; returns what the loader and the waiter threw.
+    private static Throwable[] failSharedLoad(CensusDataCache dataCache) throws InterruptedException {
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch failLoad = new CountDownLatch(1);
+        CensusDataCache.CensusTableLoader failingLoader = () -> {
+            loading.countDown();
+            try {
+                failLoad.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            throw new OutOfMemoryError("simulated");
+        };
+        String[] csvFilePath = {INDIA_CENSUS_CSV_FILE_PATH};
+        Throwable[] failures = new Throwable[2];
+        Thread loaderThread = new Thread(() -> {
+            try {
+                dataCache.get(CensusAnalyser.Country.US, csvFilePath, failingLoader);
+            } catch (Throwable e) {
+                failures[0] = e;
+            }
+        });
+        loaderThread.start();
+        loading.await();
+        Thread waiterThread = new Thread(() -> {
+            try {
+                dataCache.get(CensusAnalyser.Country.US, csvFilePath, () -> { throw new AssertionError("second load"); });
+            } catch (Throwable e) {
+                failures[1] = e;
+            }
+        });
+        waiterThread.start();
+        while (dataCache.getSharedLoads() == 0)
+            Thread.sleep(1);
+        failLoad.countDown();
+        loaderThread.join(5000);
+        waiterThread.join(5000);
+        return failures;
+    }
+
+    private static CensusDataCache.CensusTableLoader countingLoader(Path censusFile, AtomicInteger loads) {
+        return () -> {
+            loads.incrementAndGet();
+            return CensusTable.from(new IndiaCensusAdapter().loadCensusData(IndiaCensusCSV.class, censusFile.toString()));
+        };
+    }
+
+    // Census and state code files whose state names differ in case and padding; Atlantis and Kerala have no match.
+    private Path[] writeJoinFilesWithDifferentCase() throws IOException {
+        Path censusFile = temporaryFolder.newFile("IndiaCensus.csv").toPath();
+        Path stateCodeFile = temporaryFolder.newFile("IndiaStateCode.csv").toPath();
+        Files.write(censusFile, "State,Population,AreaInSqKm,DensityPerSqKm\nGoa ,1458545,3702,394\nAtlantis,1,1,1\n".getBytes(StandardCharsets.UTF_8));
+        Files.write(stateCodeFile, "SrNo,StateName,TIN,StateCode\n1,goa,30,GA\n2,Kerala,32,KL\n".getBytes(StandardCharsets.UTF_8));
+        return new Path[]{censusFile, stateCodeFile};
+    }
+
+    // The India census file with one row inserted after the second state and one appended at the end.
+    private Path writeIndiaCensusFileWith(String insertedRow, String appendedRow) throws IOException {
+        List<String> lines = new ArrayList<>(Files.readAllLines(Paths.get(INDIA_CENSUS_CSV_FILE_PATH)));
+        lines.add(3, insertedRow);
+        lines.add(appendedRow);
+        Path censusFile = temporaryFolder.newFile("census.csv").toPath();
+        Files.write(censusFile, lines);
+        return censusFile;
+    }
+
+    private Path writeLargeCensusFile() throws IOException {
+        List<String> lines = new ArrayList<>();
+        lines.add("State,Population,AreaInSqKm,DensityPerSqKm");
+        for (int row = 0; row < 20000; row++)
+            lines.add("State " + row + "," + (row * 7919 % 100000) + "," + (row + 1) + "," + row % 1000);
+        Path csvFile = temporaryFolder.newFile("large.csv").toPath();
+        Files.write(csvFile, lines);
+        return csvFile;
+    }
+
+    private static String readAll(Path file) throws IOException {
+        try (Reader reader = CensusFileReader.open(file)) {
+            StringWriter text = new StringWriter();
+            char[] buffer = new char[4096];
+            int read;
+            while ((read = reader.read(buffer)) > 0)
+                text.write(buffer, 0, read);
+            return text.toString();
+        }
+    }
+
+    private static CensusAnalyser loadIndiaCensusAnalyser() throws CensusAnalyserException {
+        CensusAnalyser censusAnalyser = new CensusAnalyser(CensusAnalyser.Country.INDIA);
+        censusAnalyser.loadCensusData(CensusAnalyser.Country.INDIA, INDIA_CENSUS_CSV_FILE_PATH, VALID_STATE_CODE_CSV_FILE_PATH);
+        return censusAnalyser;
+    }
+
+    private static CensusAnalyser loadPopulationProjectedAnalyser() throws CensusAnalyserException {
+        CensusAnalyser censusAnalyser = new CensusAnalyser(CensusAnalyser.Country.INDIA);
+        censusAnalyser.setProjection(CensusProjection.forQueries(CensusAnalyser.SortField.POPULATION));
+        censusAnalyser.loadCensusData(CensusAnalyser.Country.INDIA, INDIA_CENSUS_CSV_FILE_PATH, VALID_STATE_CODE_CSV_FILE_PATH);
+        return censusAnalyser;
+    }
+
+    private static CensusTable loadIndiaCensusTable() throws CensusAnalyserException {
+        return CensusTable.from(new IndiaCensusAdapter().loadCensusData(INDIA_CENSUS_CSV_FILE_PATH, VALID_STATE_CODE_CSV_FILE_PATH));
+    }
+
+    // Requests a fixed number of rows on subscribe and records what the publisher signals.
+    private static class RecordingSubscriber implements Subscriber<CensusDAO> {
+        final List<CensusDAO> rows = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch firstRows;
+        final CountDownLatch finished = new CountDownLatch(1);
+        private final long initialRequest;
+        volatile Subscription subscription;
+        volatile Throwable error;
+
+        RecordingSubscriber(long initialRequest) {
+            this.initialRequest = initialRequest;
+            this.firstRows = new CountDownLatch((int) Math.min(initialRequest, 29));
+        }
+
+        public void onSubscribe(Subscription s) {
+            subscription = s;
+            s.request(initialRequest);
+        }
+
+        public void onNext(CensusDAO censusDAO) {
+            rows.add(censusDAO);
+            firstRows.countDown();
+        }
+
+        public void onError(Throwable throwable) {
+            error = throwable;
+            finished.countDown();
+        }
+
+        public void onComplete() {
+            finished.countDown();
+        }
+    }
+
+    private static String httpGet(String url, int expectedStatus) throws Exception {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        Assert.assertEquals(expectedStatus, connection.getResponseCode());
+        try (InputStream body = expectedStatus < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = body.read(buffer)) > 0)
+                bytes.write(buffer, 0, read);
+            return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+}